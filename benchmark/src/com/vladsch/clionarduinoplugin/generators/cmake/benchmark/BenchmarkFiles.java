@@ -0,0 +1,85 @@
+package com.vladsch.clionarduinoplugin.generators.cmake.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CMakeLists.txt texts for benchmarks, test-resources/projects fixtures or synthetic files
+ * built by repeating the fixtures to a given number of lines
+ */
+public class BenchmarkFiles {
+    // relative to project directory, which is the working directory of the run configuration
+    final public static String PROJECTS_DIR = System.getProperty("benchmark.projects", "test-resources/projects");
+    final public static String FIXTURES = "fixtures";
+
+    @NotNull
+    public static List<File> getProjectDirs() {
+        File[] dirs = new File(PROJECTS_DIR).listFiles();
+        if (dirs == null) {
+            throw new IllegalStateException("No projects in " + new File(PROJECTS_DIR).getAbsolutePath() + ", set benchmark.projects system property");
+        }
+
+        List<File> projectDirs = new ArrayList<>();
+        Arrays.sort(dirs);
+        for (File dir : dirs) {
+            if (new File(dir, "CMakeLists.txt").isFile()) projectDirs.add(dir);
+        }
+        return projectDirs;
+    }
+
+    @NotNull
+    public static List<String> getFixtureTexts() {
+        List<String> texts = new ArrayList<>();
+        for (File dir : getProjectDirs()) {
+            try {
+                texts.add(new String(Files.readAllBytes(new File(dir, "CMakeLists.txt").toPath()), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return texts;
+    }
+
+    /**
+     * @param lines fixture texts repeated until at least this many lines
+     * @return synthetic text
+     */
+    @NotNull
+    public static String getSyntheticText(int lines) {
+        List<String> fixtures = getFixtureTexts();
+        StringBuilder sb = new StringBuilder();
+        int count = 0;
+
+        while (count < lines) {
+            for (String text : fixtures) {
+                sb.append(text);
+                if (!text.endsWith("\n")) {
+                    sb.append('\n');
+                    count++;
+                }
+                for (int i = 0; i < text.length(); i++) {
+                    if (text.charAt(i) == '\n') count++;
+                }
+                if (count >= lines) break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param files {@link #FIXTURES} or number of lines for a synthetic file
+     * @return texts
+     */
+    @NotNull
+    public static List<String> getTexts(@NotNull String files) {
+        return FIXTURES.equals(files) ? getFixtureTexts() : Arrays.asList(getSyntheticText(Integer.parseInt(files)));
+    }
+}
@@ -0,0 +1,151 @@
+package com.vladsch.clionarduinoplugin.generators.cmake.benchmark;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ArduinoCMakeListsTxtBuilder;
+import com.vladsch.clionarduinoplugin.generators.cmake.CMakeFormatter;
+import com.vladsch.clionarduinoplugin.generators.cmake.CMakeParseCache;
+import com.vladsch.clionarduinoplugin.generators.cmake.CMakeParser;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.clionarduinoplugin.settings.ArduinoProjectFileSettingsCache;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of parser, formatter and builder over test-resources/projects fixtures and synthetic
+ * files of 1k, 10k and 100k lines. Run with the GC profiler for bytes allocated per operation.
+ * <p>
+ * Each operation processes all texts of the state, all fixtures or one synthetic file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CMakeBenchmarks {
+    // same as CMakeListsTxtBuilder uses for parsing
+    final static DataHolder OPTIONS = new DataSet(new MutableDataSet()
+            .set(CMakeParser.AUTO_CONFIG, true)
+            .set(CMakeParser.AST_LINE_END_EOL, true)
+            .set(CMakeParser.AST_COMMENTS, true)
+            .set(CMakeParser.AST_BLANK_LINES, true)
+            .set(CMakeParser.AST_ARGUMENT_SEPARATORS, true)
+            .set(CMakeParser.AST_COMMENTED_OUT_COMMANDS, true));
+
+    @State(Scope.Benchmark)
+    public static class Texts {
+        @Param({ BenchmarkFiles.FIXTURES, "1000", "10000", "100000" })
+        public String files;
+
+        BasedSequence[] texts;
+        CMakeFile[] documents;
+        ArduinoCMakeListsTxtBuilder[] builders;
+        CMakeFormatter formatter;
+
+        @Setup
+        public void setup() {
+            List<String> list = BenchmarkFiles.getTexts(files);
+            int iMax = list.size();
+
+            texts = new BasedSequence[iMax];
+            documents = new CMakeFile[iMax];
+            builders = new ArduinoCMakeListsTxtBuilder[iMax];
+            formatter = CMakeFormatter.build(OPTIONS);
+
+            for (int i = 0; i < iMax; i++) {
+                texts[i] = BasedSequenceImpl.of(list.get(i));
+                documents[i] = new CMakeParser(texts[i], OPTIONS).getDocument();
+                builders[i] = new ArduinoCMakeListsTxtBuilder(documents[i], null, null);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Projects {
+        File[] projectDirs;
+
+        @Setup
+        public void setup() {
+            projectDirs = BenchmarkFiles.getProjectDirs().toArray(new File[0]);
+        }
+    }
+
+    @Benchmark
+    public void parse(Texts state, Blackhole blackhole) {
+        for (BasedSequence text : state.texts) {
+            blackhole.consume(new CMakeParser(text, OPTIONS).getDocument());
+        }
+    }
+
+    @Benchmark
+    public void render(Texts state, Blackhole blackhole) {
+        for (CMakeFile document : state.documents) {
+            blackhole.consume(state.formatter.render(document));
+        }
+    }
+
+    @Benchmark
+    public void builder(Texts state, Blackhole blackhole) {
+        // a new evaluator for each builder, variables are fully evaluated every time
+        for (CMakeFile document : state.documents) {
+            blackhole.consume(new ArduinoCMakeListsTxtBuilder(document, null, null));
+        }
+    }
+
+    @Benchmark
+    public void getCMakeContents(Texts state, Blackhole blackhole) {
+        for (ArduinoCMakeListsTxtBuilder builder : state.builders) {
+            blackhole.consume(builder.getCMakeContents(null, false, false));
+        }
+    }
+
+    @Benchmark
+    public void loadProjectConfiguration(Projects state, Blackhole blackhole) {
+        // measure reading and parsing, not the caches
+        ArduinoProjectFileSettingsCache.getInstance().clear();
+        CMakeParseCache.getInstance().clear();
+
+        for (File projectDir : state.projectDirs) {
+            blackhole.consume(ArduinoCMakeListsTxtBuilder.Companion.loadProjectConfiguration(projectDir));
+        }
+    }
+
+    @Benchmark
+    public void loadProjectConfigurationCached(Projects state, Blackhole blackhole) {
+        for (File projectDir : state.projectDirs) {
+            blackhole.consume(ArduinoCMakeListsTxtBuilder.Companion.loadProjectConfiguration(projectDir));
+        }
+    }
+
+    /**
+     * @param args optional regex of benchmarks to run, all CMake benchmarks if none
+     * @throws RunnerException if benchmarks fail
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : CMakeBenchmarks.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
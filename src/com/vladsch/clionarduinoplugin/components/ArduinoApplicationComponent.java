@@ -5,6 +5,7 @@ import com.intellij.openapi.components.BaseComponent;
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.vladsch.clionarduinoplugin.resources.Strings;
+import com.vladsch.clionarduinoplugin.settings.ArduinoProjectFileSettingsCache;
 import org.jetbrains.annotations.NotNull;
 
 public class ArduinoApplicationComponent implements BaseComponent {
@@ -19,6 +20,8 @@ public class ArduinoApplicationComponent implements BaseComponent {
     }
 
     public void disposeComponent() {
+        ArduinoProjectFileSettingsCache.saveInstance();
+
         ApplicationManager.getApplication().invokeLater(() ->
                 ApplicationManager.getApplication().runWriteAction(() -> {
                     FileType cpp = FileTypeManager.getInstance().getFileTypeByExtension(Strings.CPP_EXT);
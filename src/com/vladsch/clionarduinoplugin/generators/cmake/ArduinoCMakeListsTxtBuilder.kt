@@ -1,16 +1,18 @@
 package com.vladsch.clionarduinoplugin.generators.cmake
 
 import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile
-import com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeCommand
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CompactCMakeFile
 import com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeCommandSubType
 import com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeCommandType
 import com.vladsch.clionarduinoplugin.resources.Strings
 import com.vladsch.clionarduinoplugin.settings.ArduinoApplicationSettingsProxy
 import com.vladsch.clionarduinoplugin.settings.ArduinoProjectFileSettings
+import com.vladsch.clionarduinoplugin.settings.ArduinoProjectFileSettingsCache
 import com.vladsch.flexmark.util.data.DataHolder
 import com.vladsch.plugin.util.getFileContent
 import com.vladsch.plugin.util.plus
 import java.io.File
+import java.util.function.Predicate
 
 /**
  * Class for creating, reading and modifying CMakeLists.txt
@@ -51,9 +53,14 @@ class ArduinoCMakeListsTxtBuilder : CMakeListsTxtBuilder {
 
     constructor() : super(ourCommands, ourAnchors, PROJECT_NAME)
 
-    constructor(text: CharSequence, options: DataHolder? = null, values: Map<String, Any>? = null) : super(PROJECT_NAME, ourCommands, ourAnchors, text, options, values)
+    @JvmOverloads
+    constructor(text: CharSequence, options: DataHolder? = null, values: Map<String, Any>? = null, evaluator: CMakeVariableEvaluator? = null) : super(PROJECT_NAME, ourCommands, ourAnchors, text, options, values, evaluator)
 
-    constructor(cMakeFile: CMakeFile, values: Map<String, Any>? = null) : super(PROJECT_NAME, ourCommands, ourAnchors, cMakeFile, values)
+    @JvmOverloads
+    constructor(cMakeFile: CMakeFile, values: Map<String, Any>? = null, evaluator: CMakeVariableEvaluator? = null) : super(PROJECT_NAME, ourCommands, ourAnchors, cMakeFile, values, evaluator)
+
+    @JvmOverloads
+    constructor(compactFile: CompactCMakeFile, values: Map<String, Any>? = null, evaluator: CMakeVariableEvaluator? = null) : super(PROJECT_NAME, ourCommands, ourAnchors, compactFile, values, evaluator)
 
     companion object {
         // commands can have fixed and variable arguments
@@ -136,6 +143,20 @@ class ArduinoCMakeListsTxtBuilder : CMakeListsTxtBuilder {
                 CMakeCommandAnchor.last(GENERATE_ARDUINO_LIBRARY)
         )
 
+        // commands read by loadProjectConfiguration in addition to the ones the variable evaluator needs
+        private val ourConfigurationCommands = setOf(
+                GENERATE_ARDUINO_FIRMWARE.command,
+                GENERATE_ARDUINO_LIBRARY.command,
+                LINK_DIRECTORIES.command,
+                SET.command
+        )
+
+        // commands referencing other project files, variables not defined by CMakeLists.txt are taken from these
+        private val ourReferenceCommands = setOf(
+                INCLUDE.command,
+                ADD_SUBDIRECTORY.command
+        )
+
         private val String.extension: String
             get() {
                 val pos = lastIndexOf('.')
@@ -165,84 +186,81 @@ class ArduinoCMakeListsTxtBuilder : CMakeListsTxtBuilder {
 
         @Suppress("MemberVisibilityCanBePrivate")
         fun getCMakeFileContent(template: String, projectName: String, settings: ArduinoApplicationSettingsProxy, unmodifiedOriginalText: Boolean): String {
-            @Suppress("CanBeVal")
-            var command: CMakeCommand?
             val builder = ArduinoCMakeListsTxtBuilder(template, null) // use default options
             val isStaticLib = settings.isLibrary && settings.isStaticLibraryType
             val appSettings = settings.applicationSettings
 
             builder.isWantCommented = true
 
-            builder.setOrAddCommand(CMAKE_MINIMUM_REQUIRED_VERSION, "2.8.4")
-            builder.setOrAddCommand(SET_CMAKE_TOOLCHAIN_FILE, "\${CMAKE_SOURCE_DIR}/cmake/ArduinoToolchain.cmake")
-            builder.setOrAddCommand(SET_CMAKE_CXX_STANDARD, appSettings.languageVersionLineForCMake).setSuppressible(appSettings.languageVersionName.isEmpty())
+            builder.batch {
+                setOrAddCommand(CMAKE_MINIMUM_REQUIRED_VERSION, "2.8.4")
+                setOrAddCommand(SET_CMAKE_TOOLCHAIN_FILE, "\${CMAKE_SOURCE_DIR}/cmake/ArduinoToolchain.cmake")
+                setOrAddCommand(SET_CMAKE_CXX_STANDARD, appSettings.languageVersionLineForCMake).setSuppressible(appSettings.languageVersionName.isEmpty())
 
-            builder.setOrAddCommand(SET_PROJECT_NAME, projectName)
+                setOrAddCommand(SET_PROJECT_NAME, projectName)
 
-            val boardId = appSettings.boardId.ifEmpty("uno")
-            builder.setOrAddCommand(SET_BOARD, boardId)
+                val boardId = appSettings.boardId.ifEmpty("uno")
+                setOrAddCommand(SET_BOARD, boardId)
 
-            val cpuIds = appSettings.arduinoConfig.getBoardById(boardId).cpuIds
-            val cpuId = appSettings.cpuId.ifEmpty(cpuIds.firstOrNull() ?: "")
-            builder.setOrAddCommand(SET_CPU, cpuId).setSuppressible(cpuId.isEmpty())
+                val cpuIds = appSettings.arduinoConfig.getBoardById(boardId).cpuIds
+                val cpuId = appSettings.cpuId.ifEmpty(cpuIds.firstOrNull() ?: "")
+                setOrAddCommand(SET_CPU, cpuId).setSuppressible(cpuId.isEmpty())
 
-            builder.setOrAddCommand(PROJECT).clearToDefaults()
+                setOrAddCommand(PROJECT).clearToDefaults()
 
-            val cppFiles = settings.sources.toList()
-            val hFiles = settings.headers.toList()
-            val sketchFile = settings.sketch
+                val cppFiles = settings.sources.toList()
+                val hFiles = settings.headers.toList()
+                val sketchFile = settings.sketch
 
-            builder.setOrAddCommand(SET_SRCS, cppFiles).setSuppressible(cppFiles.isEmpty())
-            builder.setOrAddCommand(SET_HDRS, hFiles).setSuppressible(hFiles.isEmpty())
+                setOrAddCommand(SET_SRCS, cppFiles).setSuppressible(cppFiles.isEmpty())
+                setOrAddCommand(SET_HDRS, hFiles).setSuppressible(hFiles.isEmpty())
 
-            // TODO: implement
-            val staticLibs = arrayOf<String>();
-            builder.setOrAddCommand(SET_LIBS, *staticLibs).setSuppressible(staticLibs.isEmpty())
+                // TODO: implement
+                val staticLibs = arrayOf<String>();
+                setOrAddCommand(SET_LIBS, *staticLibs).setSuppressible(staticLibs.isEmpty())
 
-            builder.setOrAddCommand(SET_SKETCH, sketchFile.ifEmpty(projectName + Strings.DOT_INO_EXT)).setSuppressible(sketchFile.isEmpty())
+                setOrAddCommand(SET_SKETCH, sketchFile.ifEmpty(projectName + Strings.DOT_INO_EXT)).setSuppressible(sketchFile.isEmpty())
 
-            command = builder.getCommand(ADD_SUBDIRECTORY)
-            if (command == null || command.argCount == 0) {
-                builder.setOrAddCommand(ADD_SUBDIRECTORY).setSuppressible(true)
-            }
-
-            if (appSettings.libraryDirectories.isEmpty()) {
-                builder.setOrAddCommand(LINK_DIRECTORIES, "\${CMAKE_CURRENT_SOURCE_DIR}/")
-                        .setSuppressible(!appSettings.isAddLibraryDirectory)
-            } else {
-                builder.setOrAddCommand(LINK_DIRECTORIES, appSettings.libraryDirectories.map { "\${CMAKE_CURRENT_SOURCE_DIR}/$it" })
-                        .setSuppressible(!appSettings.isAddLibraryDirectory || appSettings.libraryDirectories.isEmpty())
-            }
+                val command = getCommand(ADD_SUBDIRECTORY)
+                if (command == null || command.argCount == 0) {
+                    setOrAddCommand(ADD_SUBDIRECTORY).setSuppressible(true)
+                }
 
-            if (!settings.isLibrary) {
-                // TODO: add UI for recurse library options
-                if (appSettings.nestedLibraries.isEmpty()) {
-                    //                    builder.setOrAddCommand(SET_LIB_NAME_RECURSE, "\${LIB_NAME}", "true").setSuppressible(true)
+                if (appSettings.libraryDirectories.isEmpty()) {
+                    setOrAddCommand(LINK_DIRECTORIES, "\${CMAKE_CURRENT_SOURCE_DIR}/")
+                            .setSuppressible(!appSettings.isAddLibraryDirectory)
                 } else {
-                    for (library in appSettings.nestedLibraries) {
-                        builder.setOrAddCommand(SET_LIB_NAME_RECURSE, library, "true")
+                    setOrAddCommand(LINK_DIRECTORIES, appSettings.libraryDirectories.map { "\${CMAKE_CURRENT_SOURCE_DIR}/$it" })
+                            .setSuppressible(!appSettings.isAddLibraryDirectory || appSettings.libraryDirectories.isEmpty())
+                }
+
+                if (!settings.isLibrary) {
+                    // TODO: add UI for recurse library options
+                    if (appSettings.nestedLibraries.isEmpty()) {
+                        //                    setOrAddCommand(SET_LIB_NAME_RECURSE, "\${LIB_NAME}", "true").setSuppressible(true)
+                    } else {
+                        for (library in appSettings.nestedLibraries) {
+                            setOrAddCommand(SET_LIB_NAME_RECURSE, library, "true")
+                        }
                     }
                 }
-            }
 
-            val programmer = appSettings.programmerId
-            builder.setOrAddCommand(SET_PROGRAMMER, programmer.ifEmpty("avrispmkii")).setSuppressible(programmer.isEmpty())
+                val programmer = appSettings.programmerId
+                setOrAddCommand(SET_PROGRAMMER, programmer.ifEmpty("avrispmkii")).setSuppressible(programmer.isEmpty())
 
-            val port = appSettings.port
-            builder.setOrAddCommand(SET_PORT, port.ifEmpty("/dev/cu.usbserial-00000000")).setSuppressible(port.isEmpty())
+                val port = appSettings.port
+                setOrAddCommand(SET_PORT, port.ifEmpty("/dev/cu.usbserial-00000000")).setSuppressible(port.isEmpty())
 
-            val baudRateText = appSettings.baudRateText
-            builder.setOrAddCommand(SET_UPLOAD_SPEED, baudRateText.ifEmpty("9600")).setSuppressible(baudRateText.isEmpty())
-            //            builder.removeCommand(SET_UPLOAD_SPEED)
+                val baudRateText = appSettings.baudRateText
+                setOrAddCommand(SET_UPLOAD_SPEED, baudRateText.ifEmpty("9600")).setSuppressible(baudRateText.isEmpty())
+                //            removeCommand(SET_UPLOAD_SPEED)
 
-            builder.setOrAddCommand(SET_AFLAGS, "-v").setSuppressible(!appSettings.isVerbose)
+                setOrAddCommand(SET_AFLAGS, "-v").setSuppressible(!appSettings.isVerbose)
 
-            if (isStaticLib) {
-                builder.setOrAddCommand(GENERATE_ARDUINO_LIBRARY)
-                builder.removeCommand(GENERATE_ARDUINO_FIRMWARE)
-            } else {
-                builder.setOrAddCommand(GENERATE_ARDUINO_FIRMWARE)
-                builder.removeCommand(GENERATE_ARDUINO_LIBRARY)
+                val target = if (isStaticLib) GENERATE_ARDUINO_LIBRARY else GENERATE_ARDUINO_FIRMWARE
+                val otherTarget = if (isStaticLib) GENERATE_ARDUINO_FIRMWARE else GENERATE_ARDUINO_LIBRARY
+                setOrAddCommand(target)
+                removeCommand(otherTarget)
             }
 
             // Can add our own values to resolve variables
@@ -253,6 +271,8 @@ class ArduinoCMakeListsTxtBuilder : CMakeListsTxtBuilder {
         /**
          * returns application settings determined from the current project files
          * NOTE: these settings are not an instance of "Official" application settings but a non-persisted copy
+         *
+         * Results are kept in [ArduinoProjectFileSettingsCache], an unchanged CMakeLists.txt is not read or parsed again
          */
 
         @JvmOverloads
@@ -264,10 +284,47 @@ class ArduinoCMakeListsTxtBuilder : CMakeListsTxtBuilder {
                 return null
             }
 
-            val notifications = ArrayList<String>()
+            val cache = ArduinoProjectFileSettingsCache.getInstance()
+            val hasLibraryProperties = libraryProperties.exists() && libraryProperties.isFile
+            val modified = if (altCMakeListsContent == null) cMakeLists.lastModified() else -1L
+            val length = if (altCMakeListsContent == null) cMakeLists.length() else -1L
+
+            val entry = cache.get(cMakeLists)
+            if (entry != null && altCMakeListsContent == null && entry.isUnchanged(modified, length, hasLibraryProperties)) {
+                return entry.settings
+            }
 
             val cMakeListsText = altCMakeListsContent ?: getFileContent(cMakeLists)
-            val builder = ArduinoCMakeListsTxtBuilder(cMakeListsText)
+            val hash = ArduinoProjectFileSettingsCache.contentHash(cMakeListsText)
+
+            if (entry != null && entry.isUnchanged(hash, hasLibraryProperties)) {
+                if (altCMakeListsContent == null) {
+                    cache.put(cMakeLists, ArduinoProjectFileSettingsCache.Entry(modified, length, hash, hasLibraryProperties, entry.configuration))
+                }
+                return entry.settings
+            }
+
+            // evaluator is kept for the file so a change to some commands re-evaluates only the commands affected by it
+            val evaluator = cache.getEvaluator(cMakeLists)
+            val configuration = synchronized(evaluator) { loadProjectConfiguration(cMakeListsText, hasLibraryProperties, evaluator, if (altCMakeListsContent == null) projectDir else null) }
+            if (configuration?.hasReferencedFiles == true) {
+                // changes to referenced files are not tracked by the cache entry, load it again next time
+                cache.remove(cMakeLists)
+            } else {
+                cache.put(cMakeLists, ArduinoProjectFileSettingsCache.Entry(modified, length, hash, hasLibraryProperties, configuration))
+            }
+            return configuration?.toSettings()
+        }
+
+        private fun loadProjectConfiguration(cMakeListsText: String, hasLibraryProperties: Boolean, evaluator: CMakeVariableEvaluator, projectDir: File?): ArduinoProjectFileSettingsCache.Configuration? {
+            val notifications = ArrayList<String>()
+
+            // only commands used for the configuration are kept, skip building the CMakeFile for projects which are not ours
+            val compactFile = compactFile(cMakeListsText, null, Predicate { it in ourConfigurationCommands || it in ourReferenceCommands || CMakeVariableEvaluator.isEvaluatedCommand(it) })
+            if (!compactFile.hasCommand(GENERATE_ARDUINO_FIRMWARE.command) && !compactFile.hasCommand(GENERATE_ARDUINO_LIBRARY.command)) return null
+
+            // compact document is not kept, the configuration is cached by the settings cache until the file changes
+            val builder = ArduinoCMakeListsTxtBuilder(compactFile, null, evaluator)
             builder.isWantCommented = false   // commented commands don't count
 
             // see if at all our project type by looking for generate_arduino_firmware(${CMAKE_PROJECT_NAME}) or generate_arduino_library(${CMAKE_PROJECT_NAME})
@@ -275,21 +332,49 @@ class ArduinoCMakeListsTxtBuilder : CMakeListsTxtBuilder {
                     ?: builder.getCommand(ArduinoCMakeListsTxtBuilder.GENERATE_ARDUINO_LIBRARY) ?: return null
 
             // ok, it is ours
-            val settings = ArduinoApplicationSettingsProxy.of() as ArduinoProjectFileSettings
+            val settings = ArduinoProjectFileSettingsCache.Configuration()
             val cMakeVariableValues = builder.cMakeVariableValues
+            val evaluatedVariables = builder.evaluatedVariables
             val cMakeProjectName = builder.cMakeProjectName
 
+            // included files and subdirectories are only read from disk, not for alternate content of CMakeLists.txt
+            if (projectDir != null && ourReferenceCommands.any { compactFile.hasCommand(it) }) {
+                val project = CMakeProjectLoader.getInstance().load(projectDir)
+                if (project != null && project.files.size > 1) {
+                    builder.loadProjectVariables(project)
+                    settings.hasReferencedFiles = true
+                }
+            }
+
+            // evaluated values follow list(), string(), unset() and if(), an undefined variable has no value unless
+            // it is set by an included file or subdirectory, set() values are only used for erroneous project name
+            // variables which the evaluator cannot resolve
+            fun variable(name: String): List<String> {
+                return if (evaluatedVariables == null || !builder.canUseUnmodifiedOriginal) cMakeVariableValues[name]
+                else evaluatedVariables.get(name) ?: if (settings.hasReferencedFiles) cMakeVariableValues[name] else emptyList()
+            }
+
             settings.projectName = cMakeProjectName ?: ""
-            settings.sources = cMakeVariableValues["${cMakeProjectName}_SRCS"].toTypedArray()
-            settings.headers = cMakeVariableValues["${cMakeProjectName}_HDRS"].toTypedArray()
-            settings.sketch = cMakeVariableValues["${cMakeProjectName}_SKETCH"].firstOrNull() ?: ""
-            settings.boardId = cMakeVariableValues["${cMakeProjectName}_BOARD"].firstOrNull() ?: ""
-            settings.cpuId = cMakeVariableValues["ARDUINO_CPU"].firstOrNull() ?: ""
+            settings.sources = variable("${cMakeProjectName}_SRCS").toTypedArray()
+            settings.headers = variable("${cMakeProjectName}_HDRS").toTypedArray()
+            settings.sketch = variable("${cMakeProjectName}_SKETCH").firstOrNull() ?: ""
+            settings.boardId = variable("${cMakeProjectName}_BOARD").firstOrNull() ?: ""
+            settings.cpuId = variable("ARDUINO_CPU").firstOrNull() ?: ""
 
             if (!builder.canUseUnmodifiedOriginal) {
                 notifications.add("project-build-config.invalid-set-project.1\r${builder.cMakeProjectNameMacro}\r${builder.cMakeProjectNameMacro.removeSurrounding("\${", "}")}\r ${settings.projectName}")
             }
 
+            // the file is kept as is when settings are applied, report problems the settings cannot fix
+            if (builder.getCommands(GENERATE_ARDUINO_FIRMWARE).size + builder.getCommands(GENERATE_ARDUINO_LIBRARY).size > 1) {
+                notifications.add("project-build-config.multiple-targets")
+            }
+
+            val projectIndex = builder.getCommandIndex(PROJECT)
+            if (projectIndex > builder.getCommandIndex(arduinoCommand.commandType)) {
+                notifications.add("project-build-config.project-after-target")
+            }
+
             when (arduinoCommand.commandType) {
                 ArduinoCMakeListsTxtBuilder.GENERATE_ARDUINO_LIBRARY -> {
                     settings.isLibrary = true
@@ -297,7 +382,7 @@ class ArduinoCMakeListsTxtBuilder : CMakeListsTxtBuilder {
                 }
 
                 ArduinoCMakeListsTxtBuilder.GENERATE_ARDUINO_FIRMWARE -> {
-                    if (libraryProperties.exists() && libraryProperties.isFile) {
+                    if (hasLibraryProperties) {
                         settings.isLibrary = true
                         settings.libraryType = ArduinoProjectFileSettings.ARDUINO_LIB_TYPE
                     } else {
@@ -306,11 +391,10 @@ class ArduinoCMakeListsTxtBuilder : CMakeListsTxtBuilder {
                 }
             }
 
-            settings.languageVersionId = cMakeVariableValues["CMAKE_CXX_STANDARD"].firstOrNull() ?: ""
+            settings.languageVersionId = variable("CMAKE_CXX_STANDARD").firstOrNull() ?: ""
             if (true) {
                 val list = builder.getCommands(LINK_DIRECTORIES).flatMap { it.args }
                 if (!list.isEmpty()) {
-                    settings.isAddLibraryDirectory = true
                     settings.libraryDirectories = list.map { it.removePrefix("\${CMAKE_CURRENT_SOURCE_DIR}/") }.toTypedArray()
                 }
             }
@@ -323,24 +407,20 @@ class ArduinoCMakeListsTxtBuilder : CMakeListsTxtBuilder {
                 settings.nestedLibraries = list.toTypedArray()
             }
 
-            settings.programmerId = cMakeVariableValues["${cMakeProjectName}_PROGRAMMER"].firstOrNull() ?: ""
-            settings.port = cMakeVariableValues["${cMakeProjectName}_PORT"].firstOrNull() ?: ""
-            settings.baudRate = cMakeVariableValues["${cMakeProjectName}_PORT"].firstOrNull()?.toIntOrNull() ?: 0
-            settings.isVerbose = cMakeVariableValues["${cMakeProjectName}_AFLAGS"].contains("-v")
+            settings.programmerId = variable("${cMakeProjectName}_PROGRAMMER").firstOrNull() ?: ""
+            settings.port = variable("${cMakeProjectName}_PORT").firstOrNull() ?: ""
+            settings.baudRate = variable("${cMakeProjectName}_PORT").firstOrNull()?.toIntOrNull() ?: 0
+            settings.isVerbose = variable("${cMakeProjectName}_AFLAGS").contains("-v")
 
             // TODO: implement getting these from the library.properties file
-            if (libraryProperties.exists() && libraryProperties.isFile && libraryProperties.canRead()) {
-                // Library Properties file
-                // libraryDisplayName: String
-                // authorName: String
-                // authorEMail: String
-                // libraryCategory: String
-            }
-
-            if (notifications.isNotEmpty()) {
-                (settings as ArduinoApplicationSettingsProxy).setNotifications(notifications)
-            }
-            return settings as ArduinoApplicationSettingsProxy
+            // Library Properties file
+            // libraryDisplayName: String
+            // authorName: String
+            // authorEMail: String
+            // libraryCategory: String
+
+            settings.notifications = notifications.toTypedArray()
+            return settings
         }
     }
 }
@@ -0,0 +1,163 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.vladsch.clionarduinoplugin.resources.Strings;
+import com.vladsch.clionarduinoplugin.settings.ArduinoApplicationSettingsProxy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds Arduino projects in a directory tree, each directory with a CMakeLists.txt is loaded with
+ * {@link ArduinoCMakeListsTxtBuilder.Companion#loadProjectConfiguration(File)}
+ * <p>
+ * Directories are scanned in parallel on a fork/join pool. Hidden directories and symbolic links are not scanned.
+ * A directory whose project fails to load is logged and reported to progress, the scan continues with other directories.
+ */
+public class ArduinoProjectScanner {
+    private static final Logger LOG = Logger.getInstance("com.vladsch.clionarduinoplugin.generators");
+
+    /**
+     * Scan progress, methods are called from pool threads
+     */
+    public interface Progress {
+        /**
+         * @return true to stop the scan, checked before each directory
+         */
+        default boolean isCanceled() {
+            return false;
+        }
+
+        /**
+         * Directory with a CMakeLists.txt was loaded
+         *
+         * @param projectDir   directory
+         * @param settings     project settings or null if not an Arduino project or its loading failed
+         * @param projectCount number of directories with CMakeLists.txt loaded so far
+         */
+        default void projectScanned(@NotNull File projectDir, @Nullable ArduinoApplicationSettingsProxy settings, int projectCount) {
+        }
+
+        /**
+         * Loading directory with a CMakeLists.txt failed, called before {@link #projectScanned(File, ArduinoApplicationSettingsProxy, int)}
+         *
+         * @param projectDir directory
+         * @param e          exception thrown by loading
+         */
+        default void projectFailed(@NotNull File projectDir, @NotNull Exception e) {
+        }
+    }
+
+    final public static Progress NULL_PROGRESS = new Progress() {};
+
+    final private ForkJoinPool pool;
+
+    public ArduinoProjectScanner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ArduinoProjectScanner(@NotNull ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param rootDir  root of directory tree
+     * @param progress progress and cancellation
+     * @return settings of Arduino projects by project directory, ordered by path
+     * @throws CancellationException if the scan was canceled
+     */
+    @NotNull
+    public Map<File, ArduinoApplicationSettingsProxy> scan(@NotNull File rootDir, @NotNull Progress progress) {
+        Map<File, ArduinoApplicationSettingsProxy> projects = new ConcurrentHashMap<>();
+        AtomicInteger projectCount = new AtomicInteger();
+
+        pool.invoke(new ScanTask(rootDir, progress, projects, projectCount));
+
+        if (progress.isCanceled()) {
+            throw new CancellationException("Project scan of " + rootDir + " canceled");
+        }
+
+        Map<File, ArduinoApplicationSettingsProxy> result = new TreeMap<>(Comparator.comparing(File::getPath));
+        result.putAll(projects);
+        return result;
+    }
+
+    /**
+     * @param projectDir directory with a CMakeLists.txt
+     * @return project settings or null if not an Arduino project
+     */
+    @Nullable
+    protected ArduinoApplicationSettingsProxy loadProjectConfiguration(@NotNull File projectDir) {
+        return ArduinoCMakeListsTxtBuilder.Companion.loadProjectConfiguration(projectDir);
+    }
+
+    private class ScanTask extends RecursiveAction {
+        final private File dir;
+        final private Progress progress;
+        final private Map<File, ArduinoApplicationSettingsProxy> projects;
+        final private AtomicInteger projectCount;
+
+        ScanTask(@NotNull File dir, @NotNull Progress progress, @NotNull Map<File, ArduinoApplicationSettingsProxy> projects, @NotNull AtomicInteger projectCount) {
+            this.dir = dir;
+            this.progress = progress;
+            this.projects = projects;
+            this.projectCount = projectCount;
+        }
+
+        @Override
+        protected void compute() {
+            if (progress.isCanceled()) return;
+
+            File[] files = dir.listFiles();
+            if (files == null) return;
+
+            List<ScanTask> subTasks = new ArrayList<>();
+            boolean hasCMakeLists = false;
+
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    if (!file.getName().startsWith(".") && !Files.isSymbolicLink(file.toPath())) {
+                        subTasks.add(new ScanTask(file, progress, projects, projectCount));
+                    }
+                } else if (file.getName().equals(Strings.CMAKE_LISTS_FILENAME)) {
+                    hasCMakeLists = true;
+                }
+            }
+
+            // sub directories are scanned while this project is loaded
+            for (ScanTask task : subTasks) {
+                task.fork();
+            }
+
+            if (hasCMakeLists && !progress.isCanceled()) {
+                ArduinoApplicationSettingsProxy settings = null;
+                try {
+                    settings = loadProjectConfiguration(dir);
+                } catch (Exception e) {
+                    // one project's failure does not abort the scan of the others
+                    LOG.warn("Project configuration of " + dir + " not loaded", e);
+                    progress.projectFailed(dir, e);
+                }
+
+                if (settings != null) projects.put(dir, settings);
+                progress.projectScanned(dir, settings, projectCount.incrementAndGet());
+            }
+
+            for (ScanTask task : subTasks) {
+                task.join();
+            }
+        }
+    }
+}
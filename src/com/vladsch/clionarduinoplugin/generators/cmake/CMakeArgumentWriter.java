@@ -0,0 +1,113 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Writes argument text for CMake commands, quoting and escaping arguments as needed
+ * <p>
+ * Equivalent to quoting arguments which contain a {@link CMakeParser#NEEDS_QUOTING} character and escaping
+ * {@link CMakeParser#NEEDS_ESCAPING} characters in them, using a character class table and a single scan
+ * of the argument. Unquoted arguments and runs of characters which need no escaping are appended as
+ * ranges of the argument.
+ */
+public class CMakeArgumentWriter {
+    private CMakeArgumentWriter() {
+    }
+
+    final static private byte QUOTE = 1;
+    final static private byte ESCAPE = 2;
+
+    // character class flags for ASCII, all other characters need neither quoting nor escaping
+    final static private byte[] CHAR_CLASS = new byte[128];
+
+    // character written after '\' for characters with ESCAPE flag
+    final static private char[] ESCAPED = new char[128];
+
+    static {
+        for (char c : "()# ^;".toCharArray()) {
+            CHAR_CLASS[c] = QUOTE;
+        }
+
+        setEscape('"', '"');
+        setEscape('\\', '\\');
+        setEscape('\t', 't');
+        setEscape('\r', 'r');
+        setEscape('\n', 'n');
+    }
+
+    private static void setEscape(char c, char escaped) {
+        CHAR_CLASS[c] = QUOTE | ESCAPE;
+        ESCAPED[c] = escaped;
+    }
+
+    private static int charClass(char c) {
+        return c < 128 ? CHAR_CLASS[c] : 0;
+    }
+
+    /**
+     * @param arg argument text
+     * @return true if argument must be written as a quoted argument
+     */
+    public static boolean needsQuoting(@NotNull CharSequence arg) {
+        int iMax = arg.length();
+        for (int i = 0; i < iMax; i++) {
+            if ((charClass(arg.charAt(i)) & QUOTE) != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Append argument text, quoted and escaped if needed
+     *
+     * @param out output
+     * @param arg argument text
+     * @throws IOException if thrown by output
+     */
+    public static void appendArgText(@NotNull Appendable out, @NotNull CharSequence arg) throws IOException {
+        int iMax = arg.length();
+        int i = 0;
+
+        while (i < iMax && (charClass(arg.charAt(i)) & QUOTE) == 0) i++;
+
+        if (i == iMax) {
+            out.append(arg);
+            return;
+        }
+
+        // escapes can only occur from first character needing quoting
+        out.append('"');
+        int lastPos = 0;
+
+        for (; i < iMax; i++) {
+            char c = arg.charAt(i);
+            if ((charClass(c) & ESCAPE) != 0) {
+                if (lastPos < i) out.append(arg, lastPos, i);
+                out.append('\\').append(ESCAPED[c]);
+                lastPos = i + 1;
+            }
+        }
+
+        if (lastPos < iMax) out.append(arg, lastPos, iMax);
+        out.append('"');
+    }
+
+    /**
+     * @param arg argument text
+     * @return argument text, quoted and escaped if needed, arg itself if not
+     */
+    @NotNull
+    public static CharSequence getArgText(@NotNull CharSequence arg) {
+        if (!needsQuoting(arg)) return arg;
+
+        StringBuilder sb = new StringBuilder(arg.length() + 8);
+        try {
+            appendArgText(sb, arg);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return sb;
+    }
+}
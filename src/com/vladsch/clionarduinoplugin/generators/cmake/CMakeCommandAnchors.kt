@@ -0,0 +1,229 @@
+package com.vladsch.clionarduinoplugin.generators.cmake
+
+import com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeCommandType
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.collections.ArrayList
+
+/**
+ * Anchor definitions of a builder type compiled into placement steps for each command type
+ *
+ *
+ * Shared by all builders created with the same anchors array, placement steps of a command type are
+ * computed on first use. Executing the steps in order finds the insertion range of a command the same
+ * way as walking the anchor lists for it, with each step looking up the position of one anchor command.
+ */
+class CMakeCommandAnchors private constructor(anchors: Array<CMakeCommandAnchor>) {
+
+    enum class StepType {
+        // after the anchor command if it is present
+        AFTER,
+
+        // after the anchor command, if found after the range start the after index has priority for insertion
+        AFTER_PRIORITY,
+
+        // before the anchor command if it is present
+        BEFORE,
+
+        // at start of file if no anchor so far changed the range
+        FIRST_IF_UNMODIFIED,
+
+        // at end of file if no anchor so far changed the range
+        LAST_IF_UNMODIFIED,
+    }
+
+    class PlacementStep(val stepType: StepType, val commandType: CMakeCommandType) {
+        override fun toString(): String {
+            return "PlacementStep{" + stepType.name + " " + commandType.name + '}'
+        }
+    }
+
+    private val myAnchorsMap = HashMap<CMakeCommandType, ArrayList<CMakeCommandAnchor>>()
+    private val myFirstAnchors = ArrayList<CMakeCommandType>()
+    private val myLastAnchors = ArrayList<CMakeCommandType>()
+    private val myBeforeAnchorsMap = HashMap<CMakeCommandType, ArrayList<CMakeCommandType>>()
+    private val myAfterAnchorsMap = HashMap<CMakeCommandType, ArrayList<CMakeCommandType>>()
+    private val myPlacements = ConcurrentHashMap<CMakeCommandType, Array<PlacementStep>>()
+
+    init {
+        for (commandAnchor in anchors) {
+            val commandType = commandAnchor.commandType
+            val commandAnchorType = commandAnchor.commandAnchor
+            val beforeList: ArrayList<CMakeCommandType>?
+            val afterList: ArrayList<CMakeCommandType>?
+
+            when (commandAnchor.anchorType) {
+                AnchorType.FIRST -> {
+                    if (myLastAnchors.contains(commandType)) throw IllegalStateException("CommandType " + commandType.name + " cannot be anchored first and last")
+                    myFirstAnchors.add(commandType)
+                }
+                AnchorType.LAST -> {
+                    if (myFirstAnchors.contains(commandType)) throw IllegalStateException("CommandType " + commandType.name + " cannot be anchored first and last")
+                    myLastAnchors.add(commandType)
+                }
+                AnchorType.BEFORE -> {
+                    beforeList = myBeforeAnchorsMap.computeIfAbsent(commandAnchorType) { ArrayList() }
+                    afterList = myBeforeAnchorsMap[commandAnchorType]
+                    if (afterList != null && afterList.contains(commandType)) throw IllegalStateException("CommandType " + commandType.name + " cannot be anchored before and after " + commandAnchorType.name)
+                    beforeList.add(commandType)
+                }
+                AnchorType.AFTER -> {
+                    afterList = myAfterAnchorsMap.computeIfAbsent(commandAnchorType) { ArrayList() }
+                    beforeList = myBeforeAnchorsMap[commandAnchorType]
+                    if (beforeList != null && beforeList.contains(commandType)) throw IllegalStateException("CommandType " + commandType.name + " cannot be anchored before and after " + commandAnchorType.name)
+                    afterList.add(commandType)
+                }
+            }
+        }
+
+        for (commandAnchor in anchors) {
+            val anchorList = myAnchorsMap.computeIfAbsent(commandAnchor.commandType) { ArrayList() }
+            anchorList.add(commandAnchor)
+        }
+    }
+
+    /**
+     * @param commandType command type to place
+     * @return steps to execute in order to get insertion range of command type
+     */
+    fun getPlacement(commandType: CMakeCommandType): Array<PlacementStep> {
+        return myPlacements.computeIfAbsent(commandType) { Placement(it).steps() }
+    }
+
+    /**
+     * records the anchor walk for a command type, repeated after or before lookups of the same command are not recorded
+     * since they cannot change the range
+     */
+    private inner class Placement(val commandType: CMakeCommandType) {
+        private val steps = ArrayList<PlacementStep>()
+        private val afterTypes = HashSet<CMakeCommandType>()
+        private val beforeTypes = HashSet<CMakeCommandType>()
+
+        fun steps(): Array<PlacementStep> {
+            val anchors = myAnchorsMap[commandType]
+
+            if (anchors == null) {
+                // make respect firsts, lasts, and any of its own dependents
+                siblings(myFirstAnchors, AnchorType.FIRST, false)
+                siblings(myLastAnchors, AnchorType.LAST, false)
+                val beforeDependents = myBeforeAnchorsMap[commandType]
+                val afterDependents = myAfterAnchorsMap[commandType]
+                if (beforeDependents != null) {
+                    // treat them as first (ie. before this node)
+                    siblings(beforeDependents, AnchorType.FIRST, false)
+                }
+                if (afterDependents != null) {
+                    // treat them as last (ie. after this node)
+                    siblings(afterDependents, AnchorType.LAST, false)
+                }
+            } else {
+                for (anchor in anchors) {
+                    when (anchor.anchorType) {
+                        AnchorType.FIRST -> siblings(myFirstAnchors, AnchorType.FIRST, true)
+
+                        AnchorType.BEFORE -> {
+                            siblings(myFirstAnchors, AnchorType.FIRST, false)
+                            siblings(myBeforeAnchorsMap[anchor.commandAnchor], AnchorType.BEFORE, true)
+
+                            step(StepType.BEFORE, anchor.commandAnchor)
+
+                            // treat any of the after of the same parent as last so this command will come before
+                            siblings(myAfterAnchorsMap[anchor.commandAnchor], AnchorType.LAST, false)
+                            siblings(myLastAnchors, AnchorType.LAST, false)
+                        }
+
+                        AnchorType.AFTER -> {
+                            siblings(myFirstAnchors, AnchorType.FIRST, false)
+                            // treat any of the before of the same parent as firsts so this command will come after
+                            siblings(myBeforeAnchorsMap[anchor.commandAnchor], AnchorType.FIRST, false)
+
+                            // found true anchor, use the afterIndex for placement, the before may be too low in the file
+                            step(StepType.AFTER_PRIORITY, anchor.commandAnchor)
+
+                            siblings(myAfterAnchorsMap[anchor.commandAnchor], AnchorType.AFTER, true)
+                            siblings(myLastAnchors, AnchorType.LAST, false)
+                        }
+
+                        AnchorType.LAST -> siblings(myLastAnchors, AnchorType.LAST, true)
+                    }
+                }
+            }
+            return steps.toTypedArray()
+        }
+
+        private fun step(stepType: StepType, anchorType: CMakeCommandType) {
+            when (stepType) {
+                StepType.AFTER -> if (anchorType in afterTypes) return else afterTypes.add(anchorType)
+                StepType.AFTER_PRIORITY -> afterTypes.add(anchorType)
+                StepType.BEFORE -> if (!beforeTypes.add(anchorType)) return
+                else -> {
+                }
+            }
+            steps.add(PlacementStep(stepType, anchorType))
+        }
+
+        private fun siblings(siblings: Collection<CMakeCommandType>?, siblingsAnchorType: AnchorType, isMember: Boolean) {
+            if (siblings == null) return
+
+            var isAfter: Boolean
+            val isOnSelfAfter: Boolean
+            var hadSelf = false
+
+            when (siblingsAnchorType) {
+                AnchorType.LAST -> if (isMember) {
+                    isAfter = true
+                    isOnSelfAfter = false
+                } else {
+                    isAfter = false
+                    isOnSelfAfter = false
+                }
+
+                AnchorType.FIRST -> if (isMember) {
+                    isAfter = true
+                    isOnSelfAfter = false
+                } else {
+                    isAfter = true
+                    isOnSelfAfter = true
+                }
+
+                AnchorType.AFTER, AnchorType.BEFORE -> {
+                    isAfter = true
+                    isOnSelfAfter = false
+                }
+            }
+
+            for (siblingType in siblings) {
+                if (siblingType === commandType) {
+                    isAfter = isOnSelfAfter
+                    hadSelf = true
+                } else {
+                    step(if (isAfter) StepType.AFTER else StepType.BEFORE, siblingType)
+                }
+            }
+
+            if (hadSelf) {
+                when (siblingsAnchorType) {
+                    AnchorType.FIRST -> step(StepType.FIRST_IF_UNMODIFIED, commandType)
+                    AnchorType.LAST -> step(StepType.LAST_IF_UNMODIFIED, commandType)
+                    else -> {
+                    }
+                }
+            }
+        }
+    }
+
+    companion object {
+        // keyed by anchors array, which is a constant of the builder type
+        private val ourAnchors = Collections.synchronizedMap(WeakHashMap<Array<CMakeCommandAnchor>, CMakeCommandAnchors>())
+
+        /**
+         * @param anchors anchors of builder type
+         * @return compiled anchors, shared by all callers with the same anchors array
+         * @throws IllegalStateException if a command type is anchored both first and last, or before and after the same command type
+         */
+        @JvmStatic
+        fun of(anchors: Array<CMakeCommandAnchor>): CMakeCommandAnchors {
+            return ourAnchors.computeIfAbsent(anchors) { CMakeCommandAnchors(it) }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Argument;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Command;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CommandBlockIndex;
+import com.vladsch.flexmark.util.ast.Node;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Structural difference between top level commands of two documents
+ * <p>
+ * Commands, other than commented out commands, are matched by key, the lowercase command name and for commands
+ * which name what they define, like set(), the first argument. Commands with the same key are matched in document
+ * order. Matched commands are compared by argument values, so whitespace, comments, line breaks and quoting which
+ * does not change the value of arguments are not changes.
+ * <p>
+ * Changes are removed commands in original order, followed by added and modified commands in modified order.
+ */
+public class CMakeFileDiff {
+    // commands whose first argument identifies what they define
+    final public static Set<String> KEYED_COMMANDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "set",
+            "unset",
+            "option",
+            "function",
+            "macro",
+            "add_executable",
+            "add_library",
+            "add_custom_target",
+            "add_subdirectory"
+    )));
+
+    final public static Function<Command, String> DEFAULT_COMMAND_KEY = command -> {
+        String name = command.getCommand().toString().toLowerCase(Locale.ROOT);
+        if (KEYED_COMMANDS.contains(name)) {
+            Argument arg0 = (Argument) command.getFirstChildAny(Argument.class);
+            if (arg0 != null) return name + "(" + arg0.getText();
+        }
+        return name;
+    };
+
+    public enum ChangeType {
+        ADDED,
+        REMOVED,
+        MODIFIED,
+    }
+
+    public static class ArgumentChange {
+        final public @NotNull ChangeType type;
+        final public int index;
+        final public @NotNull String value;
+
+        /**
+         * @param type  added or removed
+         * @param index index of argument in modified command if added, in original command if removed
+         * @param value argument value
+         */
+        public ArgumentChange(@NotNull ChangeType type, int index, @NotNull String value) {
+            this.type = type;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return (type == ChangeType.ADDED ? "+" : "-") + index + " " + value;
+        }
+    }
+
+    public static class CommandChange {
+        final public @NotNull ChangeType type;
+        final public @Nullable Command original;
+        final public @Nullable Command modified;
+        final public boolean moved;
+        final public @NotNull List<ArgumentChange> argumentChanges;
+
+        public CommandChange(@NotNull ChangeType type, @Nullable Command original, @Nullable Command modified, boolean moved, @NotNull List<ArgumentChange> argumentChanges) {
+            this.type = type;
+            this.original = original;
+            this.modified = modified;
+            this.moved = moved;
+            this.argumentChanges = argumentChanges;
+        }
+
+        @Override
+        public String toString() {
+            Command command = modified != null ? modified : original;
+            assert command != null;
+            StringBuilder sb = new StringBuilder();
+            sb.append(type).append(' ').append(command.getCommand());
+            if (moved) sb.append(" moved");
+            if (!argumentChanges.isEmpty()) sb.append(' ').append(argumentChanges);
+            return sb.toString();
+        }
+    }
+
+    final private List<CommandChange> changes;
+
+    private CMakeFileDiff(@NotNull List<CommandChange> changes) {
+        this.changes = changes;
+    }
+
+    @NotNull
+    public List<CommandChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return true if documents have the same commands with the same argument values in the same order
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (CommandChange change : changes) {
+            sb.append(change).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @NotNull
+    public static CMakeFileDiff of(@NotNull CMakeFile original, @NotNull CMakeFile modified) {
+        return of(original, modified, DEFAULT_COMMAND_KEY);
+    }
+
+    /**
+     * @param original   original document
+     * @param modified   modified document
+     * @param commandKey key of commands, commands are matched only to commands with the same key
+     * @return difference
+     */
+    @NotNull
+    public static CMakeFileDiff of(@NotNull CMakeFile original, @NotNull CMakeFile modified, @NotNull Function<Command, String> commandKey) {
+        List<Command> originalCommands = getCommands(original);
+        List<Command> modifiedCommands = getCommands(modified);
+
+        // queue of unmatched original command indices by key
+        HashMap<String, ArrayList<Integer>> originalByKey = new HashMap<>();
+        for (int i = 0; i < originalCommands.size(); i++) {
+            originalByKey.computeIfAbsent(commandKey.apply(originalCommands.get(i)), key -> new ArrayList<>()).add(i);
+        }
+
+        HashMap<String, Integer> keyUsed = new HashMap<>();
+        int[] matches = new int[modifiedCommands.size()];
+        boolean[] originalMatched = new boolean[originalCommands.size()];
+
+        for (int i = 0; i < modifiedCommands.size(); i++) {
+            String key = commandKey.apply(modifiedCommands.get(i));
+            ArrayList<Integer> candidates = originalByKey.get(key);
+            int used = keyUsed.getOrDefault(key, 0);
+
+            if (candidates != null && used < candidates.size()) {
+                matches[i] = candidates.get(used);
+                originalMatched[matches[i]] = true;
+                keyUsed.put(key, used + 1);
+            } else {
+                matches[i] = -1;
+            }
+        }
+
+        boolean[] inOrder = longestIncreasing(matches);
+        ArrayList<CommandChange> changes = new ArrayList<>();
+
+        for (int i = 0; i < originalCommands.size(); i++) {
+            if (!originalMatched[i]) {
+                changes.add(new CommandChange(ChangeType.REMOVED, originalCommands.get(i), null, false, Collections.emptyList()));
+            }
+        }
+
+        for (int i = 0; i < modifiedCommands.size(); i++) {
+            Command command = modifiedCommands.get(i);
+            if (matches[i] < 0) {
+                changes.add(new CommandChange(ChangeType.ADDED, null, command, false, Collections.emptyList()));
+            } else {
+                Command originalCommand = originalCommands.get(matches[i]);
+                List<ArgumentChange> argumentChanges = diffArguments(getArguments(originalCommand), getArguments(command));
+                boolean moved = !inOrder[i];
+
+                if (moved || !argumentChanges.isEmpty()) {
+                    changes.add(new CommandChange(ChangeType.MODIFIED, originalCommand, command, moved, argumentChanges));
+                }
+            }
+        }
+
+        return new CMakeFileDiff(changes);
+    }
+
+    @NotNull
+    private static List<Command> getCommands(@NotNull CMakeFile document) {
+        CommandBlockIndex blocks = document.getCommandBlocks();
+        ArrayList<Command> commands = new ArrayList<>(blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            commands.add(blocks.getCommand(i));
+        }
+        return commands;
+    }
+
+    /**
+     * Value of argument, quoted and bracket arguments which are empty or could contain ';' are distinguished
+     * from unquoted arguments since only unquoted arguments are split into lists
+     *
+     * @param command command
+     * @return argument values
+     */
+    @NotNull
+    static List<String> getArguments(@NotNull Command command) {
+        ArrayList<String> args = new ArrayList<>();
+        for (Node node = command.getFirstChild(); node != null; node = node.getNext()) {
+            if (node instanceof Argument) {
+                Argument arg = (Argument) node;
+                String text = arg.getText().toString();
+                boolean listValue = text.isEmpty() || text.indexOf(';') >= 0 || text.indexOf('$') >= 0;
+                args.add(arg.getOpeningMarker().isNull() || !listValue ? text : "\"" + text);
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Difference of argument lists as removed and added arguments of a longest common subsequence
+     *
+     * @param original original arguments
+     * @param modified modified arguments
+     * @return changes, removed arguments followed by added arguments
+     */
+    @NotNull
+    static List<ArgumentChange> diffArguments(@NotNull List<String> original, @NotNull List<String> modified) {
+        int prefix = 0;
+        int maxPrefix = Math.min(original.size(), modified.size());
+        while (prefix < maxPrefix && original.get(prefix).equals(modified.get(prefix))) prefix++;
+
+        if (prefix == original.size() && prefix == modified.size()) return Collections.emptyList();
+
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix && original.get(original.size() - 1 - suffix).equals(modified.get(modified.size() - 1 - suffix))) suffix++;
+
+        int n = original.size() - prefix - suffix;
+        int m = modified.size() - prefix - suffix;
+
+        // lengths of common subsequences of remaining suffixes
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lcs[i][j] = original.get(prefix + i).equals(modified.get(prefix + j)) ? lcs[i + 1][j + 1] + 1 : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+
+        ArrayList<ArgumentChange> removed = new ArrayList<>();
+        ArrayList<ArgumentChange> added = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && original.get(prefix + i).equals(modified.get(prefix + j))) {
+                i++;
+                j++;
+            } else if (j == m || i < n && lcs[i + 1][j] >= lcs[i][j + 1]) {
+                removed.add(new ArgumentChange(ChangeType.REMOVED, prefix + i, original.get(prefix + i)));
+                i++;
+            } else {
+                added.add(new ArgumentChange(ChangeType.ADDED, prefix + j, modified.get(prefix + j)));
+                j++;
+            }
+        }
+
+        removed.addAll(added);
+        return removed;
+    }
+
+    /**
+     * Mark elements of a longest increasing subsequence of matched indices, unmatched elements are ignored
+     *
+     * @param matches original index for each modified command, -1 if not matched
+     * @return true for matched elements which keep their relative order
+     */
+    @NotNull
+    private static boolean[] longestIncreasing(@NotNull int[] matches) {
+        int size = matches.length;
+        int[] tails = new int[size];
+        int[] previous = new int[size];
+        int length = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (matches[i] < 0) continue;
+
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (matches[tails[mid]] < matches[i]) lo = mid + 1;
+                else hi = mid;
+            }
+
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) length++;
+        }
+
+        boolean[] inOrder = new boolean[size];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            inOrder[i] = true;
+        }
+        return inOrder;
+    }
+}
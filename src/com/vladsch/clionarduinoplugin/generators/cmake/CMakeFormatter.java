@@ -1,6 +1,8 @@
 package com.vladsch.clionarduinoplugin.generators.cmake;
 
 import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Command;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CommandBlock;
 import com.vladsch.flexmark.formatter.*;
 import com.vladsch.flexmark.formatter.internal.FormatterOptions;
 import com.vladsch.flexmark.html.renderer.HtmlIdGenerator;
@@ -23,9 +25,14 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -61,6 +68,9 @@ public class CMakeFormatter implements IRender {
     final static public DataKey<Boolean> PRESERVE_ARGUMENT_SEPARATOR = new DataKey<>("PRESERVE_ARGUMENT_SEPARATOR", true);
     final static public DataKey<Boolean> PRESERVE_LINE_BREAKS = new DataKey<>("PRESERVE_LINE_BREAKS", true);
 
+    // completed lines rendered before they are written by streaming render
+    final static public int STREAMING_FLUSH_LINES = 256;
+
     // convenience copies
     final static public DataKey<Integer> FORMAT_FLAGS = Formatter.FORMAT_FLAGS;
     final static public DataKey<Integer> MAX_BLANK_LINES = Formatter.MAX_BLANK_LINES;
@@ -68,10 +78,57 @@ public class CMakeFormatter implements IRender {
 
     final private DataHolder options;
     final private CMakeFormatterOptions formatterOptions;
+    final private FormattingHandlers handlers;
 
     private CMakeFormatter(final DataHolder options) {
         this.options = options == null ? new DataSet() : new DataSet(options);
         this.formatterOptions = new CMakeFormatterOptions(options);
+        this.handlers = new FormattingHandlers(this.options);
+    }
+
+    /**
+     * Node formatting handlers for a set of options, computed once per formatter and shared by
+     * the contexts of all its renders. Not modified after construction so it can be used from any thread.
+     */
+    static class FormattingHandlers {
+        final private DataHolder options;
+        final private CMakeFormatterOptions formatterOptions;
+        final private Map<Class<?>, NodeFormattingHandler<?>> renderers;
+        @SuppressWarnings("rawtypes")
+        final private Set<Class> collectNodeTypes;
+        final private Set<FormattingPhase> renderingPhases;
+        final private List<PhasedNodeFormatter> phasedFormatters;
+
+        FormattingHandlers(@Nullable DataHolder options) {
+            this.options = options == null ? new DataSet() : new DataSet(options);
+            this.formatterOptions = new CMakeFormatterOptions(this.options);
+
+            NodeFormatter nodeFormatter = new CMakeNodeFormatter(this.options);
+
+            Map<Class<?>, NodeFormattingHandler<?>> renderers = new HashMap<>(32);
+            for (NodeFormattingHandler<?> nodeType : nodeFormatter.getNodeFormattingHandlers()) {
+                // Overwrite existing renderer
+                renderers.put(nodeType.getNodeType(), nodeType);
+            }
+            this.renderers = Collections.unmodifiableMap(renderers);
+
+            // get nodes of interest
+            //noinspection rawtypes
+            Set<Class> collectNodeTypes = new HashSet<>();
+            Set<Class<?>> nodeClasses = nodeFormatter.getNodeClasses();
+            if (nodeClasses != null) {
+                collectNodeTypes.addAll(nodeClasses);
+            }
+            this.collectNodeTypes = Collections.unmodifiableSet(collectNodeTypes);
+
+            if (nodeFormatter instanceof PhasedNodeFormatter) {
+                this.phasedFormatters = Collections.singletonList((PhasedNodeFormatter) nodeFormatter);
+                this.renderingPhases = Collections.unmodifiableSet(new HashSet<>(((PhasedNodeFormatter) nodeFormatter).getFormattingPhases()));
+            } else {
+                this.phasedFormatters = Collections.emptyList();
+                this.renderingPhases = Collections.emptySet();
+            }
+        }
     }
 
     @Override
@@ -98,7 +155,7 @@ public class CMakeFormatter implements IRender {
 
     @Override
     public void render(final Node node, final Appendable output) {
-        CMakeFormatterContext renderer = new CMakeFormatterContext(options, new MarkdownWriter(formatterOptions.formatFlags), (CMakeFile) node.getDocument());
+        CMakeFormatterContext renderer = new CMakeFormatterContext(handlers, new MarkdownWriter(formatterOptions.formatFlags), (CMakeFile) node.getDocument());
         //renderer.getMarkdown().openPreFormatted(true);
         renderer.render(node);
         //renderer.getMarkdown().closePreFormatted();
@@ -109,6 +166,131 @@ public class CMakeFormatter implements IRender {
         }
     }
 
+    /**
+     * Render node to a writer, writing completed lines while the document's top level nodes are rendered
+     * <p>
+     * Output is the same as {@link #render(Node, Appendable)}. Only the lines rendered since the last write and
+     * the last written non-blank line followed by any blank lines are kept, the blank lines are written only
+     * when followed by a non-blank line, otherwise trailing blank lines are limited by MAX_TRAILING_BLANK_LINES.
+     *
+     * @param node node to render
+     * @param out  output, not flushed or closed
+     * @throws IOException if thrown by output
+     */
+    public void renderStreaming(@NotNull Node node, @NotNull Writer out) throws IOException {
+        renderStreaming(node, out, STREAMING_FLUSH_LINES);
+    }
+
+    /**
+     * Render node to a channel, see {@link #renderStreaming(Node, Writer)}
+     *
+     * @param node    node to render
+     * @param out     output channel, not closed
+     * @param charset charset of output
+     * @throws IOException if thrown by output
+     */
+    public void renderStreaming(@NotNull Node node, @NotNull WritableByteChannel out, @NotNull Charset charset) throws IOException {
+        Writer writer = Channels.newWriter(out, charset.newEncoder(), -1);
+        renderStreaming(node, writer);
+        writer.flush();
+    }
+
+    void renderStreaming(@NotNull Node node, @NotNull Writer out, int flushLines) throws IOException {
+        CMakeFormatterContext renderer = new CMakeFormatterContext(handlers, new MarkdownWriter(formatterOptions.formatFlags), (CMakeFile) node.getDocument());
+
+        // lines at start of markdown which were already written
+        int writtenLines = 0;
+
+        if (node instanceof CMakeFile) {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+                renderer.render(child);
+
+                MarkdownWriter markdown = renderer.getMarkdown();
+                int lineCount = markdown.getLineCount();
+                if (lineCount - writtenLines < flushLines || markdown.column() != 0 || markdown.isPendingSpace()) continue;
+
+                int lastNonBlank = lineCount;
+                while (--lastNonBlank >= writtenLines && markdown.getLineContent(lastNonBlank).toString().trim().isEmpty()) ;
+                if (lastNonBlank < writtenLines) continue;
+
+                markdown.appendTo(out, 0, null, writtenLines, lastNonBlank + 1);
+
+                // continue with last written line and following blank lines, so blank lines are handled as by a single writer
+                MarkdownWriter nextMarkdown = new MarkdownWriter(formatterOptions.formatFlags);
+                nextMarkdown.append(markdown, lastNonBlank, lineCount);
+                renderer.setMarkdown(nextMarkdown);
+                writtenLines = 1;
+            }
+        } else {
+            renderer.render(node);
+        }
+
+        renderer.getMarkdown().appendTo(out, formatterOptions.maxTrailingBlankLines, null, writtenLines, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Format top level commands and command blocks overlapping a range of the document
+     * <p>
+     * Each node is rendered on its own and compared to its text, only changed parts of nodes result in edits.
+     * Text between top level nodes is not changed.
+     *
+     * @param document    document
+     * @param startOffset start offset of range
+     * @param endOffset   end offset of range, if equal to start offset then nodes containing the offset are formatted
+     * @return edits of the document text in order of offsets, empty if formatting makes no changes
+     */
+    @NotNull
+    public List<CMakeTextEdit> formatRange(@NotNull CMakeFile document, int startOffset, int endOffset) {
+        List<CMakeTextEdit> edits = new ArrayList<>();
+        BasedSequence text = document.getChars().getBaseSequence();
+
+        for (Node node = document.getFirstChild(); node != null; node = node.getNext()) {
+            int nodeStart = node.getStartOffset();
+            int nodeEnd = node.getEndOffset();
+            if (nodeStart > endOffset) break;
+
+            if (!(node instanceof Command || node instanceof CommandBlock)) continue;
+            if (startOffset == endOffset ? nodeEnd < startOffset : nodeEnd <= startOffset || nodeStart >= endOffset) continue;
+
+            CMakeTextEdit edit = CMakeTextEdit.of(text, nodeStart, nodeEnd, renderRangeNode(document, text, node));
+            if (edit != null) edits.add(edit);
+        }
+        return edits;
+    }
+
+    @NotNull
+    private String renderRangeNode(@NotNull CMakeFile document, @NotNull BasedSequence text, @NotNull Node node) {
+        MarkdownWriter markdown = new MarkdownWriter(formatterOptions.formatFlags);
+        CMakeFormatterContext renderer = new CMakeFormatterContext(handlers, markdown, document);
+
+        // whitespace before the node on its line affects wrapping of arguments, output as it would be by render
+        int lineStart = node.getStartOffset();
+        while (lineStart > 0 && (text.charAt(lineStart - 1) == ' ' || text.charAt(lineStart - 1) == '\t')) lineStart--;
+
+        int leadingLength = 0;
+        if (formatterOptions.preserveWhitespace && lineStart < node.getStartOffset() && (lineStart == 0 || text.charAt(lineStart - 1) == '\n' || text.charAt(lineStart - 1) == '\r')) {
+            leadingLength = node.getStartOffset() - lineStart;
+            int saved = markdown.getOptions();
+            markdown.setOptions((saved & ~LineFormattingAppendable.COLLAPSE_WHITESPACE) | LineFormattingAppendable.ALLOW_LEADING_WHITESPACE);
+            markdown.append(text.subSequence(lineStart, node.getStartOffset()));
+            markdown.setOptions(saved);
+        }
+
+        renderer.render(node);
+
+        StringBuilder sb = new StringBuilder();
+        try {
+            markdown.appendTo(sb, 0);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // rendered node ends its line, the line ending is outside of node text
+        int end = sb.length();
+        if (end > leadingLength && sb.charAt(end - 1) == '\n' && text.charAt(node.getEndOffset() - 1) != '\n') end--;
+        return sb.substring(Math.min(leadingLength, end), end);
+    }
+
     public static class CMakeFormatterContext extends NodeFormatterSubContext {
         // inner stuff
         final private Map<Class<?>, NodeFormattingHandler<?>> renderers;
@@ -121,37 +303,28 @@ public class CMakeFormatter implements IRender {
         private FormattingPhase phase;
 
         private Node lastRenderedNode = null;
+        private MarkdownWriter currentMarkdown;
 
         CMakeFormatterContext(@Nullable DataHolder options, @NotNull MarkdownWriter out, final CMakeFile document) {
+            this(new FormattingHandlers(options), out, document);
+        }
+
+        CMakeFormatterContext(@NotNull FormattingHandlers handlers, @NotNull MarkdownWriter out, final CMakeFile document) {
             super(out);
-            this.options = options == null ? new MutableDataSet() : new MutableDataSet(options);
+            this.options = handlers.options;
             this.document = document;
-            this.formatterOptions = new CMakeFormatterOptions(options);
-            this.renderers = new HashMap<>(32);
-            NodeFormatter nodeFormatter = new CMakeNodeFormatter(this.options);
-            //noinspection rawtypes
-            final Set<Class> collectNodeTypes = new HashSet<>(20);
-            this.renderingPhases = new HashSet<FormattingPhase>(FormattingPhase.values().length);
-            this.phasedFormatters = new ArrayList<PhasedNodeFormatter>(1);
+            this.formatterOptions = handlers.formatterOptions;
+            this.renderers = handlers.renderers;
+            this.renderingPhases = handlers.renderingPhases;
+            this.phasedFormatters = handlers.phasedFormatters;
 
             //noinspection ThisEscapedInObjectConstruction
             out.setContext(this);
-
-            final Set<NodeFormattingHandler<?>> formattingHandlers = nodeFormatter.getNodeFormattingHandlers();
-            for (NodeFormattingHandler<?> nodeType : formattingHandlers) {
-                // Overwrite existing renderer
-                renderers.put(nodeType.getNodeType(), nodeType);
-            }
-
-            // get nodes of interest
-            Set<Class<?>> nodeClasses = nodeFormatter.getNodeClasses();
-            if (nodeClasses != null) {
-                collectNodeTypes.addAll(nodeClasses);
-            }
+            this.currentMarkdown = out;
 
             // collect nodes of interest from document
-            if (!collectNodeTypes.isEmpty()) {
-                NodeCollectingVisitor collectingVisitor = new NodeCollectingVisitor(collectNodeTypes);
+            if (!handlers.collectNodeTypes.isEmpty()) {
+                NodeCollectingVisitor collectingVisitor = new NodeCollectingVisitor(handlers.collectNodeTypes);
                 collectingVisitor.collect(document);
                 collectedNodes = collectingVisitor.getSubClassingBag();
             } else {
@@ -159,6 +332,21 @@ public class CMakeFormatter implements IRender {
             }
         }
 
+        @Override
+        public MarkdownWriter getMarkdown() {
+            return currentMarkdown;
+        }
+
+        /**
+         * Continue rendering to another writer, used by streaming render after completed lines are written
+         *
+         * @param markdown writer
+         */
+        void setMarkdown(@NotNull MarkdownWriter markdown) {
+            markdown.setContext(this);
+            currentMarkdown = markdown;
+        }
+
         @Override
         public final Iterable<? extends Node> nodesOfType(final Class<?>[] classes) {
             return collectedNodes == null ? NULL_ITERABLE : collectedNodes.itemsOfType(Node.class, classes);
@@ -275,7 +463,7 @@ public class CMakeFormatter implements IRender {
                     subContext.setRenderingNode(node);
 
                     if (formatterOptions.preserveWhitespace) {
-                        appendWhiteSpaceBetween(markdown, lastRenderedNode, node, true, false, false);
+                        appendWhiteSpaceBetween(subContext.getMarkdown(), lastRenderedNode, node, true, false, false);
                     }
 
                     nodeRenderer.render(node, subContext, subContext.getMarkdown());
@@ -0,0 +1,225 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless formatter for CMakeLists.txt and *.cmake files in directory trees, uses only the parser and
+ * formatter so it runs without the IDE, with the plugin classes, flexmark-util, flexmark-formatter and
+ * plugin-util jars on the class path:
+ * <pre>
+ * CMakeFormatterMain [--check] [--threads=N] [--verbose] [--no-preserve-whitespace]
+ *                    [--no-preserve-argument-separator] [--no-preserve-line-breaks] path...
+ * </pre>
+ * Files are formatted in parallel and rewritten if formatting changes them. With --check files are not
+ * written and the exit code is 1 if any file would change. Exit code is 2 for usage or I/O errors.
+ * <p>
+ * By default the formatter keeps whitespace, argument separators and line breaks inside commands as
+ * written, the --no-preserve options normalize them.
+ */
+public class CMakeFormatterMain {
+    final public static int EXIT_OK = 0;
+    final public static int EXIT_CHANGES = 1;
+    final public static int EXIT_ERROR = 2;
+
+    // same as CMakeListsTxtBuilder uses for parsing
+    final public static DataHolder OPTIONS = new DataSet(new MutableDataSet()
+            .set(CMakeParser.AUTO_CONFIG, true)
+            .set(CMakeParser.AST_LINE_END_EOL, true)
+            .set(CMakeParser.AST_COMMENTS, true)
+            .set(CMakeParser.AST_BLANK_LINES, true)
+            .set(CMakeParser.AST_ARGUMENT_SEPARATORS, true)
+            .set(CMakeParser.AST_COMMENTED_OUT_COMMANDS, true));
+
+    private enum Result {
+        UNCHANGED,
+        CHANGED,
+        ERROR,
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * @param args command line arguments
+     * @param out  output for changed files and summary
+     * @param err  output for usage and errors
+     * @return exit code
+     */
+    public static int run(@NotNull String[] args, @NotNull PrintStream out, @NotNull PrintStream err) {
+        boolean check = false;
+        boolean verbose = false;
+        MutableDataSet formatterOptions = new MutableDataSet(OPTIONS);
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> paths = new ArrayList<>();
+
+        for (String arg : args) {
+            if (arg.equals("--check")) {
+                check = true;
+            } else if (arg.equals("--verbose")) {
+                verbose = true;
+            } else if (arg.equals("--no-preserve-whitespace")) {
+                formatterOptions.set(CMakeFormatter.PRESERVE_WHITESPACE, false);
+            } else if (arg.equals("--no-preserve-argument-separator")) {
+                formatterOptions.set(CMakeFormatter.PRESERVE_ARGUMENT_SEPARATOR, false);
+            } else if (arg.equals("--no-preserve-line-breaks")) {
+                formatterOptions.set(CMakeFormatter.PRESERVE_LINE_BREAKS, false);
+            } else if (arg.startsWith("--threads=")) {
+                try {
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                } catch (NumberFormatException ignored) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    err.println("Invalid thread count: " + arg);
+                    return EXIT_ERROR;
+                }
+            } else if (arg.startsWith("--")) {
+                err.println("Unknown option: " + arg);
+                return usage(err);
+            } else {
+                paths.add(Paths.get(arg));
+            }
+        }
+
+        if (paths.isEmpty()) return usage(err);
+
+        long start = System.nanoTime();
+        List<Path> files = new ArrayList<>();
+        for (Path path : paths) {
+            try {
+                collectFiles(path, files);
+            } catch (IOException e) {
+                err.println("Error: " + path + ": " + e.getMessage());
+                return EXIT_ERROR;
+            }
+        }
+
+        CMakeFormatter formatter = CMakeFormatter.build(formatterOptions);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<>(files.size());
+        final boolean checkOnly = check;
+
+        for (Path file : files) {
+            futures.add(executor.submit(() -> formatFile(formatter, file, checkOnly, err)));
+        }
+
+        int changed = 0;
+        int errors = 0;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                Result result = futures.get(i).get();
+                if (result == Result.CHANGED) {
+                    changed++;
+                    out.println((check ? "Needs formatting: " : "Formatted: ") + files.get(i));
+                } else if (result == Result.ERROR) {
+                    errors++;
+                } else if (verbose) {
+                    out.println("Unchanged: " + files.get(i));
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            err.println("Error: " + e);
+            return EXIT_ERROR;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.println(String.format(Locale.US, "%d files, %d %s, %d errors in %.3f s (%.1f files/s, %d threads)",
+                files.size(), changed, check ? "need formatting" : "formatted", errors,
+                seconds, seconds > 0 ? files.size() / seconds : 0.0, threads));
+
+        return errors > 0 ? EXIT_ERROR : check && changed > 0 ? EXIT_CHANGES : EXIT_OK;
+    }
+
+    private static int usage(@NotNull PrintStream err) {
+        err.println("Usage: CMakeFormatterMain [options] path...");
+        err.println("  Formats CMakeLists.txt and *.cmake files in given directories or files");
+        err.println("  --check                            report files needing formatting without changing them, exit code 1 if any");
+        err.println("  --threads=N                        number of formatting threads, default is number of processors");
+        err.println("  --verbose                          also list unchanged files");
+        err.println("  --no-preserve-whitespace           normalize whitespace around command arguments");
+        err.println("  --no-preserve-argument-separator   use a single space between command arguments");
+        err.println("  --no-preserve-line-breaks          join arguments of a command on one line");
+        return EXIT_ERROR;
+    }
+
+    static boolean isCMakeFile(@NotNull Path file) {
+        String name = file.getFileName().toString();
+        return name.equals("CMakeLists.txt") || name.endsWith(".cmake");
+    }
+
+    /**
+     * Add CMake files in a directory tree, skipping hidden directories, or the file itself if not a directory
+     *
+     * @param path  file or directory
+     * @param files files in sorted path order
+     * @throws IOException if directory cannot be read
+     */
+    static void collectFiles(@NotNull Path path, @NotNull List<Path> files) throws IOException {
+        if (!Files.isDirectory(path)) {
+            if (!Files.isRegularFile(path)) throw new IOException("File not found");
+            files.add(path);
+            return;
+        }
+
+        List<Path> found = new ArrayList<>();
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return !dir.equals(path) && dir.getFileName().toString().startsWith(".") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && isCMakeFile(file)) found.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        found.sort(null);
+        files.addAll(found);
+    }
+
+    @NotNull
+    private static Result formatFile(@NotNull CMakeFormatter formatter, @NotNull Path file, boolean check, @NotNull PrintStream err) {
+        try {
+            // checked files are parsed from a mapped buffer if large, a file being rewritten is read into a string
+            // since its mapping is only released when garbage collected and blocks writing the file on Windows
+            CharSequence text = check ? MappedCharSequence.read(file.toFile()) : new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            String formatted = formatter.render(new CMakeParser(BasedSequenceImpl.of(text), OPTIONS).getDocument());
+
+            if (formatted.contentEquals(text)) return Result.UNCHANGED;
+
+            if (!check) {
+                Files.write(file, formatted.getBytes(StandardCharsets.UTF_8));
+            }
+            return Result.CHANGED;
+        } catch (IOException | RuntimeException e) {
+            err.println("Error: " + file + ": " + e);
+            return Result.ERROR;
+        }
+    }
+}
@@ -5,19 +5,21 @@ import com.vladsch.clionarduinoplugin.generators.cmake.ast.Argument
 import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile
 import com.vladsch.clionarduinoplugin.generators.cmake.ast.Command
 import com.vladsch.clionarduinoplugin.generators.cmake.ast.CommentedOutCommand
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CompactCMakeFile
 import com.vladsch.clionarduinoplugin.generators.cmake.commands.*
 import com.vladsch.clionarduinoplugin.resources.TemplateResolver
 import com.vladsch.clionarduinoplugin.resources.resolveRefs
 import com.vladsch.flexmark.util.ast.Node
 import com.vladsch.flexmark.util.data.DataHolder
 import com.vladsch.flexmark.util.data.MutableDataSet
+import com.vladsch.flexmark.util.sequence.BasedSequence
 import com.vladsch.flexmark.util.sequence.BasedSequenceImpl
 import com.vladsch.plugin.util.VariableExpander
-import com.vladsch.plugin.util.ifElse
 import com.vladsch.plugin.util.prefixWith
 import com.vladsch.plugin.util.suffixWith
 import java.io.IOException
 import java.util.*
+import java.util.function.Predicate
 import java.util.regex.Pattern
 import kotlin.collections.ArrayList
 
@@ -32,27 +34,44 @@ import kotlin.collections.ArrayList
 abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors: Array<CMakeCommandAnchor>, val projectNameMacro: String = PROJECT_NAME) {
 
     private val myElements = ArrayList<CMakeElement>()
-    private val myElementNodeMap = HashMap<CMakeElement, Node>()
+    private val myElementTextMap = HashMap<CMakeElement, BasedSequence>()
+
+    // element positions of commands by exact command type, kept in step with myElements by add/set/removeElement
+    private val myCommandPositions = HashMap<CMakeCommandType, CommandPositions>()
+
+    // indexed command types matched by a searched command type, cleared when a command type is first indexed
+    private val myMatchedCommandTypes = HashMap<CMakeCommandType, Array<CMakeCommandType>>()
+
+    // set command first arguments with project name, variables and command parameters replaced, rebuilt when their values change
+    private var mySetCommandsArg0Trie: SetCommandsArg0Trie? = null
     private val myCMakeCommands: MutableMap<String, CMakeCommandType>
     private val myCommands: MutableMap<String, CMakeCommandType>
     private val mySetCommands: MutableMap<String, CMakeCommandType>
     private val mySetCommandsArg0: MutableMap<String, CMakeCommandType>
     private val mySetCommandsArg0Keys: Array<String>
-    private val myAnchorsMap: MutableMap<CMakeCommandType, ArrayList<CMakeCommandAnchor>>
-    private val myFirstAnchors: ArrayList<CMakeCommandType>
-    private val myLastAnchors: ArrayList<CMakeCommandType>
-    private val myBeforeAnchorsMap: HashMap<CMakeCommandType, ArrayList<CMakeCommandType>>
-    private val myAfterAnchorsMap: HashMap<CMakeCommandType, ArrayList<CMakeCommandType>>
-    private var myCMakeFile: CMakeFile? = null
+    private val myCommandAnchors: CMakeCommandAnchors
 
     var canUseUnmodifiedOriginal = true
         private set
 
+    // state before the current batch of edits, null if not in a batch
+    private var myBatchState: BatchState? = null
+
+    val isInBatch: Boolean
+        get() = myBatchState != null
+
     // values set from cmake file not modified commands
     val cMakeVariableValues = VariableExpander()
     var cMakeProjectName = ""
         private set
 
+    /**
+     * variables of the loaded document evaluated in processing order, with list(), string() and if() branches,
+     * null for builders not loaded from a file
+     */
+    var evaluatedVariables: CMakeVariableEvaluator? = null
+        private set
+
     var cMakeProjectNameMacro = ""
         private set
 
@@ -67,7 +86,6 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
     init {
         myCMakeCommands = HashMap()
         myCommands = HashMap()
-        myAnchorsMap = HashMap()
         mySetCommands = HashMap()
         mySetCommandsArg0 = HashMap()
         val setCommandsArg0Keys = ArrayList<String>()
@@ -82,60 +100,40 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
 
         mySetCommandsArg0Keys = setCommandsArg0Keys.toTypedArray()
 
-        myFirstAnchors = ArrayList()
-        myLastAnchors = ArrayList()
-        myBeforeAnchorsMap = HashMap()
-        myAfterAnchorsMap = HashMap()
-
-        for (commandAnchor in anchors) {
-            val commandType = commandAnchor.commandType
-            val commandAnchorType = commandAnchor.commandAnchor
-            val beforeList: ArrayList<CMakeCommandType>?
-            val afterList: ArrayList<CMakeCommandType>?
-
-            when (commandAnchor.anchorType) {
-                AnchorType.FIRST -> {
-                    if (myLastAnchors.contains(commandType)) throw IllegalStateException("CommandType " + commandType.name + " cannot be anchored first and last")
-                    myFirstAnchors.add(commandType)
-                }
-                AnchorType.LAST -> {
-                    if (myFirstAnchors.contains(commandType)) throw IllegalStateException("CommandType " + commandType.name + " cannot be anchored first and last")
-                    myLastAnchors.add(commandType)
-                }
-                AnchorType.BEFORE -> {
-                    beforeList = myBeforeAnchorsMap.computeIfAbsent(commandAnchorType) { ArrayList() }
-                    afterList = myBeforeAnchorsMap[commandAnchorType]
-                    if (afterList != null && afterList.contains(commandType)) throw IllegalStateException("CommandType " + commandType.name + " cannot be anchored before and after " + commandAnchorType.name)
-                    beforeList.add(commandType)
-                }
-                AnchorType.AFTER -> {
-                    afterList = myAfterAnchorsMap.computeIfAbsent(commandAnchorType) { ArrayList() }
-                    beforeList = myBeforeAnchorsMap[commandAnchorType]
-                    if (beforeList != null && beforeList.contains(commandType)) throw IllegalStateException("CommandType " + commandType.name + " cannot be anchored before and after " + commandAnchorType.name)
-                    afterList.add(commandType)
-                }
-            }
-        }
-
-        for (commandAnchor in anchors) {
-            val anchorList = myAnchorsMap.computeIfAbsent(commandAnchor.commandType) { ArrayList() }
-            anchorList.add(commandAnchor)
-        }
+        myCommandAnchors = CMakeCommandAnchors.of(anchors)
     }
 
+    /**
+     * @param evaluator evaluator to use for the file's variables, one kept for the same file evaluates only commands affected
+     * by changes to it, null to use a new evaluator. It is not thread safe, callers synchronize on it while the builder is used.
+     */
     @JvmOverloads
-    constructor(projectNameMacro: String, commands: Array<CMakeCommandType>, anchors: Array<CMakeCommandAnchor>, text: CharSequence, options: DataHolder?, values: Map<String, Any>? = null) : this(commands, anchors, projectNameMacro) {
-        val parser = CMakeParser(BasedSequenceImpl.of(text), options ?: DEFAULT_OPTIONS)
-        myCMakeFile = parser.document
-        loadCMakeFile(values)
-    }
+    constructor(projectNameMacro: String, commands: Array<CMakeCommandType>, anchors: Array<CMakeCommandAnchor>, text: CharSequence, options: DataHolder?, values: Map<String, Any>? = null, evaluator: CMakeVariableEvaluator? = null)
+            : this(projectNameMacro, commands, anchors, CMakeParseCache.getInstance().parse(text, options ?: DEFAULT_OPTIONS), values, evaluator)
 
+    /**
+     * @param evaluator evaluator to use for the file's variables, one kept for the same file evaluates only commands affected
+     * by changes to it, null to use a new evaluator. It is not thread safe, callers synchronize on it while the builder is used.
+     */
     @JvmOverloads
-    constructor(projectNameMacro: String, commands: Array<CMakeCommandType>, anchors: Array<CMakeCommandAnchor>, cMakeFile: CMakeFile, values: Map<String, Any>? = null) : this(commands, anchors, projectNameMacro) {
-        myCMakeFile = cMakeFile
-        loadCMakeFile(values)
+    constructor(projectNameMacro: String, commands: Array<CMakeCommandType>, anchors: Array<CMakeCommandAnchor>, cMakeFile: CMakeFile, values: Map<String, Any>? = null, evaluator: CMakeVariableEvaluator? = null) : this(commands, anchors, projectNameMacro) {
+        val variables = evaluator ?: CMakeVariableEvaluator()
+        variables.evaluate(cMakeFile)
+        evaluatedVariables = variables
+        loadCMakeFile(cMakeFile.children, values, cMakeFile.getCommands("set", "project"), variables)
     }
 
+    /**
+     * load from compact file, the document holds only top level nodes and command arguments so it is not
+     * shared through the parse cache
+     *
+     * @param evaluator evaluator to use for the file's variables, one kept for the same file evaluates only commands affected
+     * by changes to it, null to use a new evaluator. It is not thread safe, callers synchronize on it while the builder is used.
+     */
+    @JvmOverloads
+    constructor(projectNameMacro: String, commands: Array<CMakeCommandType>, anchors: Array<CMakeCommandAnchor>, compactFile: CompactCMakeFile, values: Map<String, Any>? = null, evaluator: CMakeVariableEvaluator? = null)
+            : this(projectNameMacro, commands, anchors, compactFile.toCMakeFile(), values, evaluator)
+
     private fun appendCommands(commands: Array<CMakeCommandType>, setCommandsArg0Keys: ArrayList<String>) {
         for (commandType in commands) {
             if ("set" == commandType.command && commandType.fixedArgs.isNotEmpty()) {
@@ -149,11 +147,13 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
         }
     }
 
-    private fun loadCMakeFile(values: Map<String, Any>?) {
+    /**
+     * @param variableNodes nodes which can set variables or the project name, all nodes if not known
+     * @param evaluator     evaluated variables of the nodes, null if not evaluated
+     */
+    private fun loadCMakeFile(nodes: Iterable<Node>, values: Map<String, Any>?, variableNodes: Iterable<Node> = nodes, evaluator: CMakeVariableEvaluator? = null) {
         val valueSet = HashMap<String, Any>()
         if (values != null) valueSet.putAll(values)
-        var erroneousSetProjectNameMacro = ""
-        var erroneousSetProjectName = ""
 
         // if cmake project var name not given, set it to the
         if (!valueSet.containsValue(PROJECT_VAR_NAME)) {
@@ -161,7 +161,77 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
         }
 
         // first get the variable values
-        for (node in myCMakeFile!!.children) {
+        if (evaluator != null && !hasErroneousSetProjectName(variableNodes)) {
+            loadVariableValues(variableNodes, evaluator)
+        } else {
+            loadVariableValues(variableNodes)
+        }
+
+        // if blank then make sure it is not changed from the macro, maybe it will succeed
+        if (cMakeProjectName.isEmpty()) cMakeProjectName = this.projectNameMacro
+
+        // now we can resolve the commands
+        for (node in nodes) {
+            val element = elementFrom(node, valueSet)
+            addElement(element, node)
+
+            if (element is CMakeCommand) {
+                val typeName = element.commandType.name
+                valueSet[typeName] = element
+            }
+        }
+    }
+
+    /**
+     * set command with a project name variable reference as variable name, before the project command it is probably
+     * a mistake of including ${} around the variable name, which is only resolved by set() values in order
+     */
+    private fun hasErroneousSetProjectName(variableNodes: Iterable<Node>): Boolean {
+        for (node in variableNodes) {
+            if (node is Command && node !is CommentedOutCommand && node.command.equals("set")) {
+                val args = node.children.filterIsInstance<Argument>()
+                if (args.size > 1 && (args[0].text.equals("\${PROJECT_NAME}") || args[0].text.equals("\${CMAKE_PROJECT_NAME}"))) return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * variable values at the end of processing from the evaluator, the project name from the last project command
+     */
+    private fun loadVariableValues(variableNodes: Iterable<Node>, evaluator: CMakeVariableEvaluator) {
+        for ((name, value) in evaluator.values) {
+            cMakeVariableValues[name] = value
+        }
+
+        for (node in variableNodes) {
+            if (node is Command && node !is CommentedOutCommand && node.command.equals("project")) {
+                // get the project name
+                val nameNode = node.getFirstChildAny(Argument::class.java) as Argument?
+                if (nameNode != null) {
+                    val value = nameNode.text.toString()
+                    if (cMakeVariableValues.hasVariableRef(value)) {
+                        cMakeProjectNameMacro = value
+                        cMakeProjectName = cMakeVariableValues.resolve(value)
+                    } else {
+                        cMakeProjectName = value
+                    }
+
+                    // this is set by the command!!!
+                    cMakeVariableValues["PROJECT_NAME"] = cMakeProjectName
+                }
+            }
+        }
+    }
+
+    /**
+     * variable values of set commands in order, ignoring if() branches and other commands
+     */
+    private fun loadVariableValues(variableNodes: Iterable<Node>) {
+        var erroneousSetProjectNameMacro = ""
+        var erroneousSetProjectName = ""
+
+        for (node in variableNodes) {
             if (node is Command && node !is CommentedOutCommand) {
                 if (node.command.equals("set")) {
                     val rawArgs = ArrayList<String>()
@@ -207,20 +277,6 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
                 }
             }
         }
-
-        // if blank then make sure it is not changed from the macro, maybe it will succeed
-        if (cMakeProjectName.isEmpty()) cMakeProjectName = this.projectNameMacro
-
-        // now we can resolve the commands
-        for (node in myCMakeFile!!.children) {
-            val element = elementFrom(node, valueSet)
-            addElement(element, node)
-
-            if (element is CMakeCommand) {
-                val typeName = element.commandType.name
-                valueSet[typeName] = element
-            }
-        }
     }
 
     fun elementFrom(node: Node, valueSet: Map<String, Any>?): CMakeElement {
@@ -259,24 +315,14 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
                         // TODO: check all fixed arguments not just the first one
                     } else {
                         // if the name contains a macro then it won't be expanded but the setCommand is expanded
-                        // need to convert it by expanding dependent names
-                        for (name in mySetCommandsArg0Keys) {
-                            val nameWithProjectName = if (cMakeProjectNameMacro.isNotEmpty()) name.replace(PROJECT_NAME, cMakeProjectNameMacro) else name
-                            val converted = replacedCommandParams(cMakeVariableValues.resolve(nameWithProjectName), valueSet)
-                            if (converted.replace(projectNameMacro, cMakeProjectName) == resolvedSetCommand) {
-                                // it is this
-                                commandType = mySetCommandsArg0[name]
-                                rawArgs[0] = name
-                                break
-                            } else if (converted.indexOf(CMakeCommandType.WILDCARD_ARG_MARKER) >= 0) {
-                                // has wildcard match
-                                val regEx = ("^\\Q" + converted.replace(projectNameMacro, cMakeProjectName).replace(CMakeCommandType.WILDCARD_ARG_MARKER, "\\E.*?\\Q") + "\\E$").toRegex()
-                                if (resolvedSetCommand.matches(regEx)) {
-                                    // use generic set
-                                    commandType = mySetCommandsArg0[name]
-                                    break
-                                }
-                            }
+                        // need to match it against names with dependent names expanded, deepest specialization first
+                        val match = getSetCommandsArg0Trie(valueSet).find(resolvedSetCommand)
+                        if (match != null) {
+                            val name = match.value
+                            commandType = mySetCommandsArg0[name]
+
+                            // wildcard match uses generic set
+                            if (!match.isWildcard) rawArgs[0] = name
                         }
                     }
                 }
@@ -295,14 +341,13 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
                 var j = 0
 
                 // first process fixed args, they may need skipping or extraction of wildcards
-                for (fixedArg in commandType.fixedArgs) {
-                    if (fixedArg.contains(CMakeCommandType.WILDCARD_ARG_MARKER)) {
+                for (k in commandType.fixedArgs.indices) {
+                    val pattern = commandType.getFixedArgPattern(k)
+                    if (pattern != null) {
                         // extract value of wild card
-                        val regEx = Pattern.compile("^\\Q" + fixedArg.replace(CMakeCommandType.WILDCARD_ARG_MARKER, "\\E(.*?)\\Q") + "\\E$")
-                        val matcher = regEx.matcher(rawArgs[i++])
-                        matcher.find()
-                        for (g in 1..matcher.groupCount()) {
-                            makeCommand.setArg(j++, matcher.group(g))
+                        val values = pattern.match(rawArgs[i++]) ?: throw IllegalStateException("No match found")
+                        for (value in values) {
+                            makeCommand.setArg(j++, value)
                         }
                     } else i++
                 }
@@ -326,19 +371,82 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
         return CMakeText(node.chars.toString(), false)
     }
 
+    /**
+     * trie of set command first arguments ranked by specialization, with project name, variables and command parameters replaced
+     *
+     * the trie is reused while the project name and the values of variable and command references in the first arguments are unchanged,
+     * which is for all set commands of a loaded file unless they are matched using values of earlier commands
+     */
+    private fun getSetCommandsArg0Trie(valueSet: Map<String, Any>?): CMakeArgumentTrie<String> {
+        val setCommandsArg0Trie = mySetCommandsArg0Trie
+        if (setCommandsArg0Trie != null && setCommandsArg0Trie.isValid(valueSet)) return setCommandsArg0Trie.trie
+
+        val trie = CMakeArgumentTrie<String>()
+        val variableRefs = LinkedHashSet<String>()
+        val commandRefs = LinkedHashSet<String>()
+
+        for ((rank, name) in mySetCommandsArg0Keys.withIndex()) {
+            val nameWithProjectName = if (cMakeProjectNameMacro.isNotEmpty()) name.replace(PROJECT_NAME, cMakeProjectNameMacro) else name
+            addRefs(nameWithProjectName, VariableExpander.VARIABLE_REF, variableRefs)
+
+            val resolved = cMakeVariableValues.resolve(nameWithProjectName)
+            addRefs(resolved, TemplateResolver.COMMAND_REF, commandRefs)
+
+            val converted = replacedCommandParams(resolved, valueSet)
+            trie.add(converted.replace(projectNameMacro, cMakeProjectName), rank, name)
+        }
+
+        mySetCommandsArg0Trie = SetCommandsArg0Trie(trie, variableRefs.toTypedArray(), commandRefs.toTypedArray(), valueSet)
+        return trie
+    }
+
+    private fun addRefs(text: String, pattern: Pattern, refs: MutableSet<String>) {
+        val matcher = pattern.matcher(text)
+        while (matcher.find()) {
+            refs.add(matcher.group())
+        }
+    }
+
+    /**
+     * set command first argument trie and the values it was built with
+     *
+     * first arguments are resolved one reference at a time, so the trie is valid while each reference resolves to the same value
+     */
+    private inner class SetCommandsArg0Trie(val trie: CMakeArgumentTrie<String>, val variableRefs: Array<String>, val commandRefs: Array<String>, valueSet: Map<String, Any>?) {
+        val projectNameMacro = cMakeProjectNameMacro
+        val projectName = cMakeProjectName
+        val variableValues = Array(variableRefs.size) { cMakeVariableValues.resolve(variableRefs[it]) }
+        val commandValues = Array(commandRefs.size) { replacedCommandParams(commandRefs[it], valueSet) }
+
+        fun isValid(valueSet: Map<String, Any>?): Boolean {
+            if (projectNameMacro != cMakeProjectNameMacro || projectName != cMakeProjectName) return false
+
+            for (i in variableRefs.indices) {
+                if (cMakeVariableValues.resolve(variableRefs[i]) != variableValues[i]) return false
+            }
+
+            for (i in commandRefs.indices) {
+                if (replacedCommandParams(commandRefs[i], valueSet) != commandValues[i]) return false
+            }
+            return true
+        }
+    }
+
     fun elementOriginalText(element: CMakeElement): String {
-        val node = myElementNodeMap[element] ?: return ""
-        return node.chars.toString()
+        val chars = myElementTextMap[element] ?: return ""
+        return chars.toString()
     }
 
     fun addElement(element: CMakeElement, node: Node) {
         // no add eol adjustment, assumed to be done by caller
-        myElementNodeMap[element] = node
+        myElementTextMap[element] = node.chars
         myElements.add(element)
+        indexAdded(myElements.size - 1, element)
     }
 
     fun addElement(element: CMakeElement) {
         myElements.add(element)
+        indexAdded(myElements.size - 1, element)
         fixAddEOL(myElements.size - 1)
     }
 
@@ -362,6 +470,7 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
 
     fun addElement(index: Int, element: CMakeElement) {
         myElements.add(index, element)
+        indexAdded(index, element)
         fixAddEOL(index)
     }
 
@@ -371,12 +480,60 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
         } else {
             element.isAddEOL = true
         }
-        myElements[index] = element
+        val replaced = myElements.set(index, element)
+        indexRemoved(index, replaced, false)
+        indexAdded(index, element, false)
     }
 
     fun removeElement(index: Int) {
         if (index + 1 < myElements.size) myElements[index + 1].isAddEOL = myElements[index].isAddEOL
-        myElements.removeAt(index)
+        val removed = myElements.removeAt(index)
+        indexRemoved(index, removed)
+    }
+
+    private fun indexAdded(index: Int, element: CMakeElement, shift: Boolean = true) {
+        if (shift && index + 1 < myElements.size) {
+            for (positions in myCommandPositions.values) positions.shift(index, 1)
+        }
+
+        if (element is CMakeCommand) {
+            var positions = myCommandPositions[element.commandType]
+            if (positions == null) {
+                positions = CommandPositions()
+                myCommandPositions[element.commandType] = positions
+                myMatchedCommandTypes.clear()
+            }
+            positions.add(index)
+        }
+    }
+
+    private fun indexRemoved(index: Int, element: CMakeElement, shift: Boolean = true) {
+        if (element is CMakeCommand) {
+            myCommandPositions[element.commandType]?.remove(index)
+        }
+
+        if (shift && index < myElements.size) {
+            for (positions in myCommandPositions.values) positions.shift(index + 1, -1)
+        }
+    }
+
+    /**
+     * indexed command types whose commands are of the given type, followed by ancestor types of SET_PROJECT_NAME
+     * whose commands are matched by their first argument
+     */
+    private fun getMatchedCommandTypes(commandType: CMakeCommandType): Array<CMakeCommandType> {
+        return myMatchedCommandTypes.computeIfAbsent(commandType) {
+            val types = ArrayList<CMakeCommandType>()
+            for (indexedType in myCommandPositions.keys) {
+                if (indexedType.isOfType(commandType)) types.add(indexedType)
+            }
+            if (commandType == SET_PROJECT_NAME) {
+                for (indexedType in myCommandPositions.keys) {
+                    if (!indexedType.isOfType(commandType) && commandType.isOfType(indexedType)) types.add(indexedType)
+                }
+            }
+            types.toTypedArray()
+        }
     }
 
     fun removeElement(element: CMakeElement) {
@@ -427,40 +584,51 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
     }
 
     /**
-     * range is [rangeStart, rangeEnd)
+     * range is [rangeStart, rangeEnd), reverse search starts at rangeEnd - 1
+     *
+     * Only positions of matching command types are checked, not every element in the range
      */
     fun getCommandIndex(commandType: CMakeCommandType?, rangeStart: Int = 0, rangeEnd: Int = myElements.size, reverse: Boolean = false): Int {
+        if (commandType == null) return -1
+
+        val start = Math.max(rangeStart, 0)
+        val end = Math.min(rangeEnd, myElements.size)
+        var found = -1
         var firstCommented = -1
-        var i = reverse.ifElse(rangeEnd, rangeStart)
-        val dI = reverse.ifElse(-1, 1)
 
-        if (commandType != null) {
-            while (i >= 0 && i < myElements.size && i >= rangeStart && i < rangeEnd) {
-                val element = myElements[i]
-                if (element is CMakeCommand) {
-                    if (element.isOfType(commandType)) {
-                        if (element.isCommented) {
-                            if (isWantCommented && firstCommented == -1) {
-                                firstCommented = i
-                            }
-                        } else {
-                            return i
-                        }
-                    } else {
-                        // TODO: make it work for other sub-commands
-                        if (commandType == SET_PROJECT_NAME && commandType.isOfType(element.commandType)) {
-                            // specialization, compare first argument to see if a match, for now just set project name
-                            val setCommandMacro = if (outputCMakeProjectNameMacro.isNotEmpty()) outputCMakeProjectNameMacro else cMakeProjectNameMacro
-                            if (element.argCount > 1 && element.arg(0).prefixWith("\${").suffixWith("}") == setCommandMacro) {
-                                return i
-                            }
-                        }
+        // first position in search order of each matched type, closest one wins
+        for (indexedType in getMatchedCommandTypes(commandType)) {
+            val positions = myCommandPositions[indexedType] ?: continue
+            val isOfType = indexedType.isOfType(commandType)
+            var p = if (reverse) positions.lowerBound(end) - 1 else positions.lowerBound(start)
+
+            while (p >= 0 && p < positions.size) {
+                val i = positions[p]
+                if (if (reverse) i < start || i <= found else i >= end || found in 0..i) break
+
+                val element = myElements[i] as CMakeCommand
+                if (isOfType) {
+                    if (!element.isCommented) {
+                        found = i
+                        break
+                    }
+
+                    if (isWantCommented && (firstCommented == -1 || (if (reverse) i > firstCommented else i < firstCommented))) {
+                        firstCommented = i
+                    }
+                } else {
+                    // TODO: make it work for other sub-commands
+                    // specialization, compare first argument to see if a match, for now just set project name
+                    val setCommandMacro = if (outputCMakeProjectNameMacro.isNotEmpty()) outputCMakeProjectNameMacro else cMakeProjectNameMacro
+                    if (element.argCount > 1 && element.arg(0).prefixWith("\${").suffixWith("}") == setCommandMacro) {
+                        found = i
+                        break
                     }
                 }
-                i += dI
+                p += if (reverse) -1 else 1
             }
         }
-        return firstCommented
+        return if (found != -1) found else firstCommented
     }
 
     fun getCommand(name: String): CMakeCommand? {
@@ -484,6 +652,16 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
         return list
     }
 
+    /**
+     * resolve variable values across the files of the project, included modules and subdirectories
+     *
+     * Values are evaluated in CMake processing order of the project files, starting from the project's CMakeLists.txt,
+     * values set by the loaded file are replaced by values at the end of processing.
+     */
+    fun loadProjectVariables(project: CMakeProjectLoader.Project) {
+        project.evaluateVariables(cMakeVariableValues)
+    }
+
     fun getCommandType(name: String): CMakeCommandType? {
         var commandType: CMakeCommandType? = mySetCommands[name]
         if (commandType == null) {
@@ -510,6 +688,94 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
         }
     }
 
+    /**
+     * sorted element positions
+     */
+    private class CommandPositions {
+        private var positions = IntArray(4)
+        var size = 0
+            private set
+
+        operator fun get(index: Int): Int = positions[index]
+
+        /**
+         * @return index of first position &gt;= value, size if none
+         */
+        fun lowerBound(value: Int): Int {
+            var low = 0
+            var high = size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (positions[mid] < value) low = mid + 1 else high = mid
+            }
+            return low
+        }
+
+        fun add(position: Int) {
+            val index = lowerBound(position)
+            if (size == positions.size) positions = positions.copyOf(size * 2)
+            System.arraycopy(positions, index, positions, index + 1, size - index)
+            positions[index] = position
+            size++
+        }
+
+        fun remove(position: Int) {
+            val index = lowerBound(position)
+            if (index < size && positions[index] == position) {
+                System.arraycopy(positions, index + 1, positions, index, size - index - 1)
+                size--
+            }
+        }
+
+        /**
+         * add delta to positions &gt;= from
+         */
+        fun shift(from: Int, delta: Int) {
+            for (i in lowerBound(from) until size) positions[i] += delta
+        }
+    }
+
+    /**
+     * builder state at start of a batch, elements are modified in place so their state is saved with them
+     */
+    private inner class BatchState {
+        private val elements = ArrayList(myElements)
+        private val elementStates = Array(myElements.size) { ElementState(myElements[it]) }
+        private val elementTextMap = HashMap(myElementTextMap)
+        private val outputCMakeProjectNameMacro = this@CMakeListsTxtBuilder.outputCMakeProjectNameMacro
+
+        fun rollback() {
+            myElements.clear()
+            myElements.addAll(elements)
+            for (elementState in elementStates) elementState.restore()
+
+            myElementTextMap.clear()
+            myElementTextMap.putAll(elementTextMap)
+            this@CMakeListsTxtBuilder.outputCMakeProjectNameMacro = outputCMakeProjectNameMacro
+
+            myCommandPositions.clear()
+            myMatchedCommandTypes.clear()
+            for (i in myElements.indices) indexAdded(i, myElements[i], false)
+        }
+    }
+
+    private class ElementState(val element: CMakeElement) {
+        val isAddEOL = element.isAddEOL
+        val args = (element as? CMakeCommandBase)?.args?.toList()
+        val isCommented = (element as? CMakeCommandBase)?.isCommented ?: false
+        val isSuppressibleCommented = (element as? CMakeCommandBase)?.isSuppressibleCommented ?: false
+
+        fun restore() {
+            element.isAddEOL = isAddEOL
+            if (element is CMakeCommandBase && args != null) {
+                element.clearArgs()
+                for (arg in args) element.addArg(arg)
+                element.commentOut(isCommented)
+                element.isSuppressibleCommented = isSuppressibleCommented
+            }
+        }
+    }
+
     private class IndexRange(val originalBefore: Int, val originalAfter: Int) {
         var beforeIndex: Int = 0
         var afterIndex: Int = 0
@@ -537,129 +803,27 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
         }
     }
 
-    private fun adjustIndexRange(command: CMakeCommand, range: IndexRange, siblings: Collection<CMakeCommandType>?, siblingsAnchorType: AnchorType, isMember: Boolean) {
-        if (siblings == null) return
-
-        var isAfter: Boolean
-        val isOnSelfAfter: Boolean
-        var hadSelf = false
-
-        when (siblingsAnchorType) {
-            AnchorType.LAST -> if (isMember) {
-                isAfter = true
-                isOnSelfAfter = false
-            } else {
-                isAfter = false
-                isOnSelfAfter = false
-            }
-
-            AnchorType.FIRST -> if (isMember) {
-                isAfter = true
-                isOnSelfAfter = false
-            } else {
-                isAfter = true
-                isOnSelfAfter = true
-            }
-
-            AnchorType.AFTER, AnchorType.BEFORE -> {
-                isAfter = true
-                isOnSelfAfter = false
-            }
-        }
-
-        for (siblingType in siblings) {
-            if (siblingType === command.commandType) {
-                isAfter = isOnSelfAfter
-                hadSelf = true
-            } else {
-                if (isAfter) {
-                    afterAnchorIndex(range, siblingType)
-                } else {
-                    beforeAnchorIndex(range, siblingType)
-                }
-            }
-        }
-
-        when (siblingsAnchorType) {
-            AnchorType.FIRST -> if (hadSelf) {
-                if (range.isUnmodified) {
-                    range.beforeIndex = 0
-                }
-            }
-
-            AnchorType.LAST -> if (hadSelf) {
-                if (range.isUnmodified) {
-                    range.afterIndex = myElements.size
-                }
-            }
-            else -> {
-
-            }
-        }
-    }
-
     /**
      * Place according to anchors or at the end if no anchors for this command
      *
      *
-     * Heuristic, Not efficient but does the job
+     * Heuristic, anchor placement steps of the command type are computed once for the builder's anchors,
+     * each step looks up the position of an anchor command
      *
      * @param command command to place in the file
      */
     fun addCommand(command: CMakeCommand) {
-        val anchors = myAnchorsMap[command.commandType]
-        // go through the list and try to satisfy conditions
+        // go through the anchor placement steps and try to satisfy conditions
         val range = IndexRange(myElements.size, 0)
         var afterHasPriority = false
 
-        if (anchors == null) {
-            // make respect firsts, lasts, and any of its own dependents
-            adjustIndexRange(command, range, myFirstAnchors, AnchorType.FIRST, false)
-            adjustIndexRange(command, range, myLastAnchors, AnchorType.LAST, false)
-            val beforeDependents = myBeforeAnchorsMap[command.commandType]
-            val afterDependents = myAfterAnchorsMap[command.commandType]
-            if (beforeDependents != null) {
-                // treat them as first (ie. before this node)
-                adjustIndexRange(command, range, beforeDependents, AnchorType.FIRST, false)
-            }
-            if (afterDependents != null) {
-                // treat them as last (ie. after this node)
-                adjustIndexRange(command, range, afterDependents, AnchorType.LAST, false)
-            }
-        } else {
-            for (anchor in anchors) {
-                when (anchor.anchorType) {
-                    AnchorType.FIRST -> adjustIndexRange(command, range, myFirstAnchors, AnchorType.FIRST, true)
-
-                    AnchorType.BEFORE -> {
-                        adjustIndexRange(command, range, myFirstAnchors, AnchorType.FIRST, false)
-                        adjustIndexRange(command, range, myBeforeAnchorsMap[anchor.commandAnchor], AnchorType.BEFORE, true)
-
-                        beforeAnchorIndex(range, anchor.commandAnchor)
-
-                        // treat any of the after of the same parent as last so this command will come before
-                        adjustIndexRange(command, range, myAfterAnchorsMap[anchor.commandAnchor], AnchorType.LAST, false)
-                        adjustIndexRange(command, range, myLastAnchors, AnchorType.LAST, false)
-                    }
-
-                    AnchorType.AFTER -> {
-                        adjustIndexRange(command, range, myFirstAnchors, AnchorType.FIRST, false)
-                        // treat any of the before of the same parent as firsts so this command will come after
-                        adjustIndexRange(command, range, myBeforeAnchorsMap[anchor.commandAnchor], AnchorType.FIRST, false)
-
-                        if (afterAnchorIndex(range, anchor.commandAnchor)) {
-                            // found true anchor, use the afterIndex for placement, the before may be too low in the file
-                            afterHasPriority = true
-                        }
-
-                        adjustIndexRange(command, range, myAfterAnchorsMap[anchor.commandAnchor], AnchorType.AFTER, true)
-                        adjustIndexRange(command, range, myLastAnchors, AnchorType.LAST, false)
-                    }
-
-                    AnchorType.LAST ->
-                        //adjustIndexRange(command, range, myFirstAnchors, AnchorType.FIRST, false);
-                        adjustIndexRange(command, range, myLastAnchors, AnchorType.LAST, true)
-                } //adjustIndexRange(command, range, myLastAnchors, AnchorType.LAST, false);
+        for (step in myCommandAnchors.getPlacement(command.commandType)) {
+            when (step.stepType) {
+                CMakeCommandAnchors.StepType.AFTER -> afterAnchorIndex(range, step.commandType)
+                CMakeCommandAnchors.StepType.AFTER_PRIORITY -> if (afterAnchorIndex(range, step.commandType)) afterHasPriority = true
+                CMakeCommandAnchors.StepType.BEFORE -> beforeAnchorIndex(range, step.commandType)
+                CMakeCommandAnchors.StepType.FIRST_IF_UNMODIFIED -> if (range.isUnmodified) range.beforeIndex = 0
+                CMakeCommandAnchors.StepType.LAST_IF_UNMODIFIED -> if (range.isUnmodified) range.afterIndex = myElements.size
             }
         }
 
@@ -754,7 +918,7 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
             val argList = args?.toList() ?: listOf()
 
             if (!commandType!!.isMultiple && commandType.maxArgs == CMakeCommandType.INF_MAX_ARGS) {
-                if (myElementNodeMap[command] != null) {
+                if (myElementTextMap[command] != null) {
                     // original command, replace it with new
                     newCommand = CMakeCommand(command)
                     newCommand.commentOut(false)
@@ -783,7 +947,7 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
                         outputCMakeProjectNameMacro = argList[0]
                     }
 
-                    if (myElementNodeMap[command] != null) {
+                    if (myElementTextMap[command] != null) {
                         // original command, replace it with new
                         if (command.isOfType(commandType)) {
                             newCommand = CMakeCommand(command)
@@ -807,6 +971,32 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
         return newCommand
     }
 
+    /**
+     * Apply edits as one transaction, all edits are rolled back if the block throws
+     *
+     * Edits are applied as they are made, with anchor placement and EOL fixes done for each edit, so edits in the block
+     * see each other as usual. To reject the result of the edits throw from the block, for example with `check()`, the
+     * elements, their arguments, comment and EOL state and the output project name macro are restored to what they were
+     * before the batch and the exception is rethrown. A batch inside a batch is part of the outer batch.
+     *
+     * @param edits edits to apply
+     * @return result of edits
+     */
+    fun <T> batch(edits: CMakeListsTxtBuilder.() -> T): T {
+        if (myBatchState != null) return edits()
+
+        val batchState = BatchState()
+        myBatchState = batchState
+        try {
+            return edits()
+        } catch (e: Throwable) {
+            batchState.rollback()
+            throw e
+        } finally {
+            myBatchState = null
+        }
+    }
+
     fun getCMakeContents(values: Map<String, Any>?, suppressCommentedCommands: Boolean, unmodifiedOriginalText: Boolean): String {
         val sb = StringBuilder()
         val valueSet = HashMap<String, Any>()
@@ -845,10 +1035,10 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
                     }
                 }
 
-                val node: Node? = if (unmodifiedOriginalText) myElementNodeMap[element] else null
+                val chars: BasedSequence? = if (unmodifiedOriginalText) myElementTextMap[element] else null
 
-                if (node != null) {
-                    sb.append(node.chars)
+                if (chars != null) {
+                    sb.append(chars)
                 } else {
                     element.appendTo(sb, outputCMakeProjectNameMacro, valueSet, suppressCommentedCommands)
                 }
@@ -1023,6 +1213,32 @@ abstract class CMakeListsTxtBuilder(commands: Array<CMakeCommandType>, anchors:
             }
             return result
         }
+
+        /**
+         * read text into a compact file, with the builder's default options if none are given
+         *
+         * @param commandFilter test of lowercase command name, only commands passing it are kept, null to keep all nodes
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun compactFile(text: CharSequence, options: DataHolder? = null, commandFilter: Predicate<String>? = null): CompactCMakeFile {
+            return CompactCMakeFile(BasedSequenceImpl.of(text), options ?: DEFAULT_OPTIONS, commandFilter)
+        }
+
+        /**
+         * structural difference of commands between two cmake file texts, parsed with the builder's default options if none are given
+         *
+         * @param originalText cmake file text
+         * @param modifiedText changed cmake file text
+         * @param options      parser options, null for the builder's default options
+         * @return difference, empty if commands and their argument values are the same
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun diff(originalText: CharSequence, modifiedText: CharSequence, options: DataHolder? = null): CMakeFileDiff {
+            val cache = CMakeParseCache.getInstance()
+            return CMakeFileDiff.of(cache.parse(originalText, options ?: DEFAULT_OPTIONS), cache.parse(modifiedText, options ?: DEFAULT_OPTIONS))
+        }
     }
 }
 
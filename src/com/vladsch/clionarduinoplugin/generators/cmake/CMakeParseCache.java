@@ -0,0 +1,140 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of parsed documents keyed by text content and parser options
+ * <p>
+ * Bounded by total characters of cached text, least recently used documents are evicted first.
+ * Cached documents are shared between callers and must not be modified, use {@link CMakeParser}
+ * for a document which will be modified. Documents are parsed with only the parser options
+ * so that all texts parsed with the same parser options share a document.
+ */
+public class CMakeParseCache {
+    final public static int DEFAULT_MAX_CHARACTERS = 4 * 1024 * 1024;
+
+    private static final CMakeParseCache ourInstance = new CMakeParseCache(DEFAULT_MAX_CHARACTERS);
+
+    public static CMakeParseCache getInstance() {
+        return ourInstance;
+    }
+
+    private static class Key {
+        final String text;
+        final CMakeParserOptions options;
+        final int hashCode;
+
+        Key(@NotNull String text, @NotNull CMakeParserOptions options) {
+            this.text = text;
+            this.options = options;
+            this.hashCode = 31 * text.hashCode() + options.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key other = (Key) o;
+            return hashCode == other.hashCode && options.equals(other.options) && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    final private int maxCharacters;
+    final private LinkedHashMap<Key, CMakeFile> documents;
+    private long characterCount;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxCharacters maximum total characters of cached texts, larger texts are parsed but not cached
+     */
+    public CMakeParseCache(int maxCharacters) {
+        this.maxCharacters = maxCharacters;
+        this.documents = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get cached document for text or parse it
+     *
+     * @param text    text to parse
+     * @param options parser options, only options of {@link CMakeParser} are used
+     * @return shared document, must not be modified
+     */
+    @NotNull
+    public CMakeFile parse(@NotNull CharSequence text, @Nullable DataHolder options) {
+        CMakeParserOptions parserOptions = new CMakeParserOptions(options);
+        Key key = new Key(text.toString(), parserOptions);
+
+        synchronized (this) {
+            CMakeFile document = documents.get(key);
+            if (document != null) {
+                hitCount++;
+                return document;
+            }
+            missCount++;
+        }
+
+        CMakeFile document = new CMakeParser(BasedSequenceImpl.of(key.text), parserOptions.setIn(new MutableDataSet())).getDocument();
+        if (key.text.length() > maxCharacters) return document;
+
+        synchronized (this) {
+            // another thread may have parsed the same text
+            CMakeFile cached = documents.putIfAbsent(key, document);
+            if (cached != null) return cached;
+
+            characterCount += key.text.length();
+            Iterator<Map.Entry<Key, CMakeFile>> iterator = documents.entrySet().iterator();
+            while (characterCount > maxCharacters && iterator.hasNext()) {
+                Map.Entry<Key, CMakeFile> entry = iterator.next();
+                characterCount -= entry.getKey().text.length();
+                iterator.remove();
+            }
+            return document;
+        }
+    }
+
+    public synchronized void clear() {
+        documents.clear();
+        characterCount = 0;
+    }
+
+    public synchronized void resetCounts() {
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    public int getMaxCharacters() {
+        return maxCharacters;
+    }
+
+    public synchronized int getSize() {
+        return documents.size();
+    }
+
+    public synchronized long getCharacterCount() {
+        return characterCount;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
@@ -8,12 +8,12 @@ import com.vladsch.flexmark.util.data.MutableDataSet;
 import com.vladsch.plugin.util.SemanticVersion;
 import com.vladsch.flexmark.util.data.DataHolder;
 import com.vladsch.flexmark.util.sequence.BasedSequence;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,6 +49,10 @@ public class CMakeParser {
     final static public DataKey<Boolean> BRACKET_COMMENTS = new DataKey<>("BRACKET_COMMENTS", false);
     final static public DataKey<Boolean> LINE_CONTINUATION = new DataKey<>("LINE_CONTINUATION", false);
 
+    // use CMakeScanner character dispatch instead of regex matching, both produce identical results
+    // bracket, quoted and legacy unquoted arguments always use the scanner, their regex matching is not linear time
+    final static public DataKey<Boolean> CHARACTER_SCANNER = new DataKey<>("CHARACTER_SCANNER", true);
+
     // optional ast node inclusion
     final static public DataKey<Boolean> AST_COMMAND_BLOCKS = new DataKey<>("AST_COMMAND_BLOCKS", false);
     final static public DataKey<Boolean> AST_COMMENTS = new DataKey<>("AST_COMMENTS", false);
@@ -61,16 +65,37 @@ public class CMakeParser {
     final private BasedSequence input;
     final private List<Pair<String, BasedSequence>> errors;
     final private CMakeParserOptions options;
+    final private ElementBoundaries boundaries;
+    final private CMakeScanner.ScanMemo scanMemo;
 
     private int index;
+    private int maxExamined;
+    private int autoConfigs;
+    private int nodeCount;
+    private Node lastCountedNode;
+
+    // boundaries of previous document used to stop incremental parsing
+    private ElementBoundaries resyncBoundaries;
+    private int resyncIndex;
+    private int resyncDelta;
+    private boolean resynced;
 
     public CMakeParser(@NotNull final BasedSequence input, @Nullable DataHolder options) {
+        this(input, new CMakeFile(options == null ? new MutableDataSet() : new MutableDataSet(options), input, new ArrayList<>()), new CMakeParserOptions(options), new ElementBoundaries(options));
+        parse();
+        boundaries.setAutoConfigCount(autoConfigs);
+    }
+
+    private CMakeParser(@NotNull final BasedSequence input, @NotNull CMakeFile document, @NotNull CMakeParserOptions options, @NotNull ElementBoundaries boundaries) {
         this.input = input;
+        this.document = document;
+        this.errors = document.getErrors();
+        this.options = options;
+        this.boundaries = boundaries;
+        this.scanMemo = new CMakeScanner.ScanMemo();
+        document.setElementBoundaries(boundaries);
         index = 0;
-        errors = new ArrayList<>();
-        document = new CMakeFile(options == null ? new MutableDataSet() : new MutableDataSet(options), input, errors);
-        this.options = new CMakeParserOptions(options);
-        parse();
+        maxExamined = -1;
     }
 
     public CMakeFile getDocument() {
@@ -82,38 +107,189 @@ public class CMakeParser {
     }
 
     public static @NotNull CharSequence getArgText(@NotNull CharSequence arg) {
-        // wrap in quotes or brackets as needed
-        if (NEEDS_QUOTING.matcher(arg).find()) {
-            StringBuffer sb = new StringBuffer();
-            sb.append("\"");
-
-            Matcher matcher = NEEDS_ESCAPING.matcher(arg);
-            while (matcher.find()) {
-                char c = arg.charAt(matcher.start());
-                switch (c) {
-                    case '\t':
-                        matcher.appendReplacement(sb, "\\\\t");
-                        break;
-                    case '\r':
-                        matcher.appendReplacement(sb, "\\\\r");
-                        break;
-                    case '\n':
-                        matcher.appendReplacement(sb, "\\\\n");
-                        break;
-                    default:
-                        matcher.appendReplacement(sb, "");
-                        sb.append("\\").append(matcher.group());
-                        break;
-                }
+        // wrap in quotes as needed
+        return CMakeArgumentWriter.getArgText(arg);
+    }
+
+    /**
+     * Parse document text with a range replaced, reusing top level nodes of the previous document
+     * which are outside the elements affected by the change.
+     * <p>
+     * The result is identical to parsing the full changed text, the previous document is not modified.
+     *
+     * @param document    previously parsed document
+     * @param startOffset start of replaced range in document text
+     * @param endOffset   end of replaced range in document text
+     * @param text        replacement text
+     * @return document for changed text
+     */
+    @NotNull
+    public static CMakeFile reparse(@NotNull CMakeFile document, int startOffset, int endOffset, @NotNull CharSequence text) {
+        BasedSequence chars = document.getChars();
+        if (startOffset < 0 || startOffset > endOffset || endOffset > chars.length()) {
+            throw new IllegalArgumentException("Invalid range [" + startOffset + ", " + endOffset + ") for text length " + chars.length());
+        }
+
+        String previousText = chars.toString();
+        BasedSequence input = BasedSequenceImpl.of(new StringBuilder(previousText.length() - endOffset + startOffset + text.length())
+                .append(previousText, 0, startOffset)
+                .append(text)
+                .append(previousText, endOffset, previousText.length())
+                .toString());
+
+        ElementBoundaries previous = document.getElementBoundaries();
+        if (previous == null) {
+            return new CMakeParser(input, document).getDocument();
+        }
+
+        CMakeParserOptions options = new CMakeParserOptions(previous.getOptions());
+        CMakeFile file = new CMakeFile(new MutableDataSet(document), input, new ArrayList<>());
+        CMakeParser parser = new CMakeParser(input, file, options, new ElementBoundaries(previous.getOptions()));
+
+        // restart at last boundary not after the change, all elements before it must not have examined changed text
+        int restart = previous.indexOf(startOffset + 1) - 1;
+        for (int i = 0; i <= restart; i++) {
+            if (previous.getExamined(i) >= startOffset) {
+                restart = i - 1;
+                break;
+            }
+        }
+
+        if (restart >= 0) {
+            int offset = previous.getOffset(restart);
+            int flags = previous.getFlags(restart);
+
+            for (int i = 0; i < restart; i++) {
+                parser.boundaries.add(previous.getOffset(i), previous.getExamined(i), previous.getFlags(i), previous.getAutoConfigs(i), previous.getNodeCount(i), previous.getErrorCount(i));
+            }
+
+            copyNodes(document, file, 0, previous.getNodeCount(restart), 0);
+            copyErrors(document, file, 0, previous.getErrorCount(restart), 0);
+            parser.nodeCount = previous.getNodeCount(restart);
+            parser.lastCountedNode = file.getLastChild();
+
+            options.lineContinuation = (flags & ElementBoundaries.LINE_CONTINUATION) != 0;
+            options.blockComments = (flags & ElementBoundaries.BLOCK_COMMENTS) != 0;
+            parser.index = offset;
+            parser.maxExamined = previous.getExamined(restart);
+            parser.autoConfigs = previous.getAutoConfigs(restart);
+        }
+
+        int delta = text.length() - (endOffset - startOffset);
+        int startAutoConfigs = parser.autoConfigs;
+
+        parser.resyncBoundaries = previous;
+        parser.resyncIndex = previous.indexOf(endOffset);
+        parser.resyncDelta = delta;
+        parser.parse();
+
+        int resyncIndex = parser.resynced ? parser.resyncIndex : previous.size();
+        int replacedAutoConfigs = (parser.resynced ? previous.getAutoConfigs(resyncIndex) : previous.getAutoConfigCount()) - startAutoConfigs;
+
+        if (parser.autoConfigs != startAutoConfigs || replacedAutoConfigs != 0) {
+            // options changed by cmake_minimum_required in replaced or reparsed elements, need full parse
+            return new CMakeParser(input, previous.getOptions()).getDocument();
+        }
+
+        if (parser.resynced) {
+            int nodeCount = parser.countNodes();
+            int errorCount = parser.errors.size();
+
+            copyNodes(document, file, previous.getNodeCount(resyncIndex), Integer.MAX_VALUE, delta);
+            copyErrors(document, file, previous.getErrorCount(resyncIndex), Integer.MAX_VALUE, delta);
+
+            for (int i = resyncIndex; i < previous.size(); i++) {
+                parser.boundaries.add(previous.getOffset(i) + delta,
+                        i == resyncIndex ? parser.maxExamined : previous.getExamined(i) + delta,
+                        previous.getFlags(i),
+                        previous.getAutoConfigs(i) - previous.getAutoConfigs(resyncIndex) + parser.autoConfigs,
+                        previous.getNodeCount(i) - previous.getNodeCount(resyncIndex) + nodeCount,
+                        previous.getErrorCount(i) - previous.getErrorCount(resyncIndex) + errorCount);
             }
-            matcher.appendTail(sb);
 
-            sb.append("\"");
+            parser.boundaries.setAutoConfigCount(previous.getAutoConfigCount() - previous.getAutoConfigs(resyncIndex) + parser.autoConfigs);
+        } else {
+            parser.boundaries.setAutoConfigCount(parser.autoConfigs);
+        }
+
+        return file;
+    }
+
+    private static void copyNodes(@NotNull CMakeFile document, @NotNull CMakeFile file, int startIndex, int endIndex, int delta) {
+        BasedSequence input = file.getChars();
+        int index = 0;
+        for (Node node : document.getChildren()) {
+            if (index >= endIndex) break;
+            if (index >= startIndex) {
+                file.appendChild(copyNode(node, input, delta));
+            }
+            index++;
+        }
+    }
+
+    private static void copyErrors(@NotNull CMakeFile document, @NotNull CMakeFile file, int startIndex, int endIndex, int delta) {
+        BasedSequence input = file.getChars();
+        List<Pair<String, BasedSequence>> errors = document.getErrors();
+        for (int i = startIndex; i < endIndex && i < errors.size(); i++) {
+            Pair<String, BasedSequence> error = errors.get(i);
+            file.getErrors().add(Pair.of(error.getFirst(), shifted(error.getSecond(), input, delta)));
+        }
+    }
+
+    private static BasedSequence shifted(@NotNull BasedSequence chars, @NotNull BasedSequence input, int delta) {
+        return chars.isNull() ? BasedSequence.NULL : input.subSequence(chars.getStartOffset() + delta, chars.getEndOffset() + delta);
+    }
 
-            return sb;
+    @NotNull
+    private static Node copyNode(@NotNull Node node, @NotNull BasedSequence input, int delta) {
+        BasedSequence chars = shifted(node.getChars(), input, delta);
+        Node copy;
+
+        if (node instanceof Command) {
+            Command command = (Command) node;
+            Command commandCopy;
+            if (node instanceof CommentedOutCommand) {
+                CommentedOutCommand commentedOutCopy = new CommentedOutCommand(chars);
+                commentedOutCopy.setCommentMarker(shifted(((CommentedOutCommand) node).getCommentMarker(), input, delta));
+                commandCopy = commentedOutCopy;
+            } else {
+                commandCopy = new Command(chars);
+            }
+            commandCopy.setLeadingSpaces(shifted(command.getLeadingSpaces(), input, delta));
+            commandCopy.setCommand(shifted(command.getCommand(), input, delta));
+            commandCopy.setOpeningMarker(shifted(command.getOpeningMarker(), input, delta));
+            commandCopy.setArguments(shifted(command.getArguments(), input, delta));
+            commandCopy.setClosingMarker(shifted(command.getClosingMarker(), input, delta));
+            copy = commandCopy;
+        } else if (node instanceof Argument) {
+            Argument argument = (Argument) node;
+            copy = new Argument(chars, shifted(argument.getOpeningMarker(), input, delta), shifted(argument.getText(), input, delta), shifted(argument.getClosingMarker(), input, delta));
+        } else if (node instanceof BracketComment) {
+            BracketComment comment = (BracketComment) node;
+            copy = new BracketComment(chars, shifted(comment.getOpeningMarker(), input, delta), shifted(comment.getText(), input, delta), shifted(comment.getClosingMarker(), input, delta));
+        } else if (node instanceof LineComment) {
+            LineComment comment = (LineComment) node;
+            LineComment commentCopy = new LineComment(chars, shifted(comment.getOpeningMarker(), input, delta), shifted(comment.getText(), input, delta));
+            commentCopy.setLeadingSpaces(shifted(comment.getLeadingSpaces(), input, delta));
+            copy = commentCopy;
+        } else if (node instanceof BlankLine) {
+            copy = new BlankLine(chars);
+        } else if (node instanceof LineEnding) {
+            copy = new LineEnding(chars);
+        } else if (node instanceof Separator) {
+            copy = new Separator(chars);
+        } else if (node instanceof UnrecognizedInput) {
+            copy = new UnrecognizedInput(chars);
+        } else if (node instanceof CommandBlock) {
+            copy = new CommandBlock(chars);
         } else {
-            return arg;
+            throw new IllegalStateException("Unexpected node " + node.getClass().getSimpleName());
+        }
+
+        for (Node child : node.getChildren()) {
+            copy.appendChild(copyNode(child, input, delta));
         }
+        return copy;
     }
 
     protected void addError(final Node parent, @NotNull String message) {
@@ -136,8 +312,8 @@ public class CMakeParser {
         boolean res;
 
         do {
-            res = parseElement();
-            if (!res) {
+            res = parseBoundaryElement(true);
+            if (!res && !resynced) {
                 // see if parsed the whole file
                 if (peek() != '\0') {
                     // try to continue by removing lines until we succeed up to a max count
@@ -150,7 +326,8 @@ public class CMakeParser {
                             break;
                         }
 
-                        res = parseElement();
+                        res = parseBoundaryElement(false);
+                        if (resynced) break;
                     }
 
                     if (!res) break;
@@ -161,6 +338,62 @@ public class CMakeParser {
         return errors.isEmpty();
     }
 
+    /**
+     * Parse top level element, recording its boundary if it starts a line and was parsed without errors.
+     * When incrementally parsing, stop if the element is at a boundary of the previous document
+     * with the same parser state.
+     *
+     * @param boundary false while recovering from errors, element cannot be a boundary
+     * @return false on failure or resync, true on success
+     */
+    private boolean parseBoundaryElement(boolean boundary) {
+        int start = index;
+        int examined = maxExamined;
+        int startAutoConfigs = autoConfigs;
+        int flags = 0;
+        if (options.lineContinuation) flags |= ElementBoundaries.LINE_CONTINUATION;
+        if (options.blockComments) flags |= ElementBoundaries.BLOCK_COMMENTS;
+        if (document.getLastChild() instanceof LineEnding) flags |= ElementBoundaries.AFTER_LINE_ENDING;
+
+        boundary = boundary && (start == 0 || input.charAt(start - 1) == '\n');
+
+        if (resyncBoundaries != null && boundary) {
+            while (resyncIndex < resyncBoundaries.size() && resyncBoundaries.getOffset(resyncIndex) + resyncDelta < start) resyncIndex++;
+            if (resyncIndex < resyncBoundaries.size() && resyncBoundaries.getOffset(resyncIndex) + resyncDelta == start && resyncBoundaries.getFlags(resyncIndex) == flags) {
+                // rest of the file will parse the same as in previous document
+                resynced = true;
+                return false;
+            }
+        }
+
+        int count = countNodes();
+        int errorCount = errors.size();
+
+        maxExamined = -1;
+        boolean res = parseElement();
+        if (res && boundary) {
+            boundaries.add(start, examined, flags, startAutoConfigs, count, errorCount);
+        } else if (maxExamined < examined) {
+            maxExamined = examined;
+        }
+        return res;
+    }
+
+    /**
+     * Count document child nodes, only called between top level elements when all child nodes are final
+     *
+     * @return number of document child nodes
+     */
+    private int countNodes() {
+        Node node = lastCountedNode == null ? document.getFirstChild() : lastCountedNode.getNext();
+        while (node != null) {
+            nodeCount++;
+            lastCountedNode = node;
+            node = node.getNext();
+        }
+        return nodeCount;
+    }
+
     /**
      * Parse the next inline element in subject, advancing input index.
      * On success, add the result to block's children and return true.
@@ -219,7 +452,7 @@ public class CMakeParser {
         sp();
 
         int saved = index;
-        BasedSequence command = match(COMMAND);
+        BasedSequence command = options.characterScanner ? scanned(CMakeScanner.command(input, index)) : match(COMMAND);
         if (command != null) {
             int start = index;
 
@@ -282,6 +515,7 @@ public class CMakeParser {
 
                                             // save options
                                             options.setIn(document);
+                                            autoConfigs++;
                                         }
                                     }
                                 }
@@ -379,23 +613,32 @@ public class CMakeParser {
 
         if (c == '"') {
             // quoted argument
-            BasedSequence arg = match(options.lineContinuation ? QUOTED_ARGUMENT_LINE_CONT : QUOTED_ARGUMENT_NO_LINE_CONT);
+            BasedSequence arg = scanned(CMakeScanner.quotedArgument(input, index, options.lineContinuation, scanMemo));
             if (arg != null) {
                 Argument node = new Argument(arg, arg.subSequence(0, 1), arg.subSequence(1, arg.length() - 1), arg.subSequence(arg.length() - 1));
                 parent.appendChild(node);
                 return true;
             }
+
+            // unterminated quoted argument may have been scanned to end of input
+            examined(input.length());
         }
 
         // legacy unquoted
-        BasedSequence arg = match(UNQUOTED_LEGACY);
+        BasedSequence arg = scanned(CMakeScanner.unquotedLegacy(input, index, scanMemo));
         if (arg != null) {
+            char c1 = peek();
+            if (c1 == '"' || c1 == '(') {
+                // stopped on unterminated quoted argument or unmatched parentheses which may extend beyond the argument
+                examined(input.length());
+            }
+
             Argument node = new Argument(arg, BasedSequence.NULL, arg, BasedSequence.NULL);
             parent.appendChild(node);
             return true;
         }
 
-        arg = match(UNQUOTED_ARGUMENT);
+        arg = options.characterScanner ? scanned(CMakeScanner.unquotedArgument(input, index)) : match(UNQUOTED_ARGUMENT);
         if (arg != null) {
             Argument node = new Argument(arg, BasedSequence.NULL, arg, BasedSequence.NULL);
             parent.appendChild(node);
@@ -407,7 +650,7 @@ public class CMakeParser {
 
     @Nullable
     protected Node parseBracketArgument() {
-        BasedSequence[] arg = matchWithGroups(BRACKET_ARGUMENT);
+        BasedSequence[] arg = matchBracketArgument();
         if (arg != null) {
             Argument node = new Argument(arg[0], arg[1], arg[3], arg[4]);
             return node;
@@ -435,7 +678,7 @@ public class CMakeParser {
         if (peek(1) == '[' && options.blockComments) {
             int saved = index++;
 
-            BasedSequence[] arg = matchWithGroups(BRACKET_ARGUMENT);
+            BasedSequence[] arg = matchBracketArgument();
             if (arg != null) {
                 // block comment
                 if (options.astComments) {
@@ -471,7 +714,7 @@ public class CMakeParser {
             return true;        // valid end of line for the file
         } else {
             int start = index;
-            chars = match(EOL);
+            chars = options.characterScanner ? scanned(CMakeScanner.eol(input, index)) : match(EOL);
             if (chars != null) {
                 if (options.astBlankLines || options.astLineEndEol) {
                     // only blank line if did not have input before
@@ -496,18 +739,81 @@ public class CMakeParser {
         return false;
     }
 
+    /**
+     * Advance index to end of scanned match and return the match
+     *
+     * @param end end offset returned by CMakeScanner or -1 if no match
+     * @return sequence matched or null
+     */
+    private BasedSequence scanned(int end) {
+        if (end == -1) {
+            examined(index + 1);
+            return null;
+        }
+        BasedSequence chars = input.subSequence(index, end);
+        index = end;
+        examinedTo(end);
+        return chars;
+    }
+
+    /**
+     * Record offset of input examined by the parser, an offset at or past end of input means the end was reached
+     *
+     * @param offset offset examined
+     */
+    private void examined(int offset) {
+        if (maxExamined < offset) maxExamined = offset;
+    }
+
+    /**
+     * Record input examined by a successful match, including an escape following it
+     *
+     * @param end end of match
+     */
+    private void examinedTo(int end) {
+        examined(end < input.length() && input.charAt(end) == '\\' ? end + 1 : end);
+    }
+
+    /**
+     * Bracket argument with same groups as {@link #BRACKET_ARGUMENT} would give
+     *
+     * @return sequences for the match and groups or null
+     */
+    private BasedSequence[] matchBracketArgument() {
+        int end = CMakeScanner.bracketArgument(input, index, scanMemo);
+        if (end == -1) {
+            // searched for closing marker to end of input
+            examined(input.length());
+            return null;
+        }
+
+        int markerLength = CMakeScanner.bracketMarkerLength(input, index, end);
+        BasedSequence[] results = new BasedSequence[] {
+                input.subSequence(index, end),
+                input.subSequence(index, index + markerLength),
+                input.subSequence(index + 1, index + markerLength - 1),
+                input.subSequence(index + markerLength, end - markerLength),
+                input.subSequence(end - markerLength, end),
+        };
+        index = end;
+        examinedTo(end);
+        return results;
+    }
+
     public BasedSequence match(Pattern re) {
         if (index >= input.length()) {
+            examined(index);
             return null;
         }
         Matcher matcher = re.matcher(input);
         matcher.region(index, input.length());
-        boolean m = matcher.find();
+        boolean m = matcher.lookingAt();
         if (m) {
             index = matcher.end();
-            MatchResult result = matcher.toMatchResult();
-            return input.subSequence(result.start(), result.end());
+            examinedTo(index);
+            return input.subSequence(matcher.start(), matcher.end());
         } else {
+            examined(index + 1);
             return null;
         }
     }
@@ -520,20 +826,21 @@ public class CMakeParser {
      */
     public BasedSequence[] matchWithGroups(Pattern re) {
         if (index >= input.length()) {
+            examined(index);
             return null;
         }
         Matcher matcher = re.matcher(input);
         matcher.region(index, input.length());
-        boolean m = matcher.find();
+        boolean m = matcher.lookingAt();
         if (m) {
             index = matcher.end();
-            MatchResult result = matcher.toMatchResult();
+            examinedTo(index);
             final int iMax = matcher.groupCount() + 1;
             BasedSequence[] results = new BasedSequence[iMax];
-            results[0] = input.subSequence(result.start(), result.end());
+            results[0] = input.subSequence(matcher.start(), matcher.end());
             for (int i = 1; i < iMax; i++) {
-                if (matcher.group(i) != null) {
-                    results[i] = input.subSequence(result.start(i), result.end(i));
+                if (matcher.start(i) != -1) {
+                    results[i] = input.subSequence(matcher.start(i), matcher.end(i));
                 } else {
                     results[i] = BasedSequence.NULL;
                 }
@@ -556,7 +863,7 @@ public class CMakeParser {
         }
         Matcher matcher = re.matcher(input);
         matcher.region(index, input.length());
-        boolean m = matcher.find();
+        boolean m = matcher.lookingAt();
         if (m) {
             index = matcher.end();
             return matcher;
@@ -571,10 +878,13 @@ public class CMakeParser {
      * @return characters parsed or null if no end of line
      */
     public BasedSequence toEOL() {
-        return match(REST_OF_LINE);
+        BasedSequence chars = options.characterScanner ? scanned(CMakeScanner.restOfLine(input, index)) : match(REST_OF_LINE);
+        if (chars == null) examined(input.length());
+        return chars;
     }
 
     public char peek() {
+        examined(index);
         if (index < input.length()) {
             return input.charAt(index);
         } else {
@@ -583,6 +893,7 @@ public class CMakeParser {
     }
 
     public char peek(int ahead) {
+        examined(index + ahead);
         if (index + ahead < input.length()) {
             return input.charAt(index + ahead);
         } else {
@@ -594,6 +905,11 @@ public class CMakeParser {
      * Parse zero or more spaces
      */
     public void sp() {
-        match(SP);
+        if (options.characterScanner) {
+            index = CMakeScanner.spaces(input, index);
+            examined(index);
+        } else {
+            match(SP);
+        }
     }
 }
@@ -8,6 +8,7 @@ public class CMakeParserOptions implements MutableDataSetter {
     public boolean autoConfig;
     public boolean blockComments;
     public boolean lineContinuation;
+    public boolean characterScanner;
     public boolean astLineEndEol;
     public boolean astComments;
     public boolean astCommandBlocks;
@@ -24,6 +25,7 @@ public class CMakeParserOptions implements MutableDataSetter {
         autoConfig = other.autoConfig;
         blockComments = other.blockComments;
         lineContinuation = other.lineContinuation;
+        characterScanner = other.characterScanner;
         astLineEndEol = other.astLineEndEol;
         astComments = other.astComments;
         astCommandBlocks = other.astCommandBlocks;
@@ -37,6 +39,7 @@ public class CMakeParserOptions implements MutableDataSetter {
         autoConfig = CMakeParser.AUTO_CONFIG.getFrom(options);
         blockComments = CMakeParser.BRACKET_COMMENTS.getFrom(options);
         lineContinuation = CMakeParser.LINE_CONTINUATION.getFrom(options);
+        characterScanner = CMakeParser.CHARACTER_SCANNER.getFrom(options);
         astLineEndEol = CMakeParser.AST_LINE_END_EOL.getFrom(options);
         astComments = CMakeParser.AST_COMMENTS.getFrom(options);
         astCommandBlocks = CMakeParser.AST_COMMAND_BLOCKS.getFrom(options);
@@ -51,6 +54,7 @@ public class CMakeParserOptions implements MutableDataSetter {
         dataHolder.set(CMakeParser.AUTO_CONFIG, autoConfig);
         dataHolder.set(CMakeParser.BRACKET_COMMENTS, blockComments);
         dataHolder.set(CMakeParser.LINE_CONTINUATION, lineContinuation);
+        dataHolder.set(CMakeParser.CHARACTER_SCANNER, characterScanner);
         dataHolder.set(CMakeParser.AST_LINE_END_EOL, astLineEndEol);
         dataHolder.set(CMakeParser.AST_COMMENTS, astComments);
         dataHolder.set(CMakeParser.AST_COMMAND_BLOCKS, astCommandBlocks);
@@ -60,4 +64,39 @@ public class CMakeParserOptions implements MutableDataSetter {
         dataHolder.set(CMakeParser.MAX_ERROR_LINE_RECOVERIES, maxErrorLineRecoveries);
         return dataHolder;
     }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CMakeParserOptions)) return false;
+
+        CMakeParserOptions other = (CMakeParserOptions) o;
+        return autoConfig == other.autoConfig
+                && blockComments == other.blockComments
+                && lineContinuation == other.lineContinuation
+                && characterScanner == other.characterScanner
+                && astLineEndEol == other.astLineEndEol
+                && astComments == other.astComments
+                && astCommandBlocks == other.astCommandBlocks
+                && astBlankLines == other.astBlankLines
+                && astArgumentSeparators == other.astArgumentSeparators
+                && astCommentedOutCommands == other.astCommentedOutCommands
+                && maxErrorLineRecoveries == other.maxErrorLineRecoveries;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = autoConfig ? 1 : 0;
+        result = 31 * result + (blockComments ? 1 : 0);
+        result = 31 * result + (lineContinuation ? 1 : 0);
+        result = 31 * result + (characterScanner ? 1 : 0);
+        result = 31 * result + (astLineEndEol ? 1 : 0);
+        result = 31 * result + (astComments ? 1 : 0);
+        result = 31 * result + (astCommandBlocks ? 1 : 0);
+        result = 31 * result + (astBlankLines ? 1 : 0);
+        result = 31 * result + (astArgumentSeparators ? 1 : 0);
+        result = 31 * result + (astCommentedOutCommands ? 1 : 0);
+        result = 31 * result + maxErrorLineRecoveries;
+        return result;
+    }
 }
@@ -0,0 +1,521 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Argument;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Command;
+import com.vladsch.clionarduinoplugin.resources.Strings;
+import com.vladsch.flexmark.util.Pair;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import com.vladsch.plugin.util.VariableExpander;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Matcher;
+
+/**
+ * Loads a project's CMakeLists.txt with the files it references through include() and add_subdirectory()
+ * <p>
+ * Referenced files are loaded in parallel on a fork/join pool, each file once per load. Parsed files are
+ * cached by the loader and parsed again only if their modification time or length changed, so a change to
+ * one module only causes that module to be parsed again. Files large enough to be memory mapped are not cached.
+ * <p>
+ * Reference paths can use CMAKE_CURRENT_SOURCE_DIR, CMAKE_CURRENT_LIST_DIR, CMAKE_SOURCE_DIR and
+ * PROJECT_SOURCE_DIR, references using other variables are not followed. include() of a module name
+ * looks for the module in {@link #MODULE_DIRS} of the project directory.
+ * <p>
+ * A file is loaded once for each directory it is processed in, an included file is processed in the
+ * directory of the including file, so its references are resolved separately for each including directory.
+ */
+public class CMakeProjectLoader {
+    final public static DataHolder DEFAULT_OPTIONS = new DataSet(new MutableDataSet()
+            .set(CMakeParser.AUTO_CONFIG, true));
+
+    // directories relative to project directory searched for include() modules
+    final public static String[] MODULE_DIRS = { "cmake", "cmake/Modules" };
+
+    private static final CMakeProjectLoader ourInstance = new CMakeProjectLoader();
+
+    public static CMakeProjectLoader getInstance() {
+        return ourInstance;
+    }
+
+    public enum ReferenceType {
+        INCLUDE,
+        ADD_SUBDIRECTORY,
+    }
+
+    /**
+     * Reference to another file by an include() or add_subdirectory() command
+     */
+    public static class Reference {
+        final public @NotNull ReferenceType type;
+        final public @NotNull Command command;
+        final public @NotNull File file;
+
+        // directory the referenced file is processed in, CMAKE_CURRENT_SOURCE_DIR of the file
+        final public @NotNull File sourceDir;
+
+        public Reference(@NotNull ReferenceType type, @NotNull Command command, @NotNull File file, @NotNull File sourceDir) {
+            this.type = type;
+            this.command = command;
+            this.file = file;
+            this.sourceDir = sourceDir;
+        }
+    }
+
+    private static class FileEntry {
+        final long modified;
+        final long length;
+        final @NotNull CMakeFile document;
+
+        FileEntry(long modified, long length, @NotNull CMakeFile document) {
+            this.modified = modified;
+            this.length = length;
+            this.document = document;
+        }
+    }
+
+    private static class LoadedFile {
+        final @NotNull CMakeFile document;
+        final @NotNull List<Reference> references;
+        final @NotNull IdentityHashMap<Command, Reference> commandReferences;
+
+        LoadedFile(@NotNull CMakeFile document, @NotNull List<Reference> references) {
+            this.document = document;
+            this.references = references;
+            this.commandReferences = new IdentityHashMap<>(references.size());
+            for (Reference reference : references) {
+                commandReferences.put(reference.command, reference);
+            }
+        }
+    }
+
+    /**
+     * Files of a project loaded from its CMakeLists.txt
+     */
+    public static class Project {
+        final private @NotNull File projectDir;
+        final private @NotNull File rootFile;
+        final private Map<File, CMakeFile> documents;
+        final private Map<Pair<File, File>, LoadedFile> files;
+        final private Set<File> missingFiles;
+
+        Project(@NotNull File projectDir, @NotNull File rootFile) {
+            this.projectDir = projectDir;
+            this.rootFile = rootFile;
+            this.documents = new ConcurrentHashMap<>();
+            this.files = new ConcurrentHashMap<>();
+            this.missingFiles = ConcurrentHashMap.newKeySet();
+        }
+
+        @NotNull
+        public File getProjectDir() {
+            return projectDir;
+        }
+
+        @NotNull
+        public File getRootFile() {
+            return rootFile;
+        }
+
+        /**
+         * @return loaded files, ordered by path
+         */
+        @NotNull
+        public List<File> getFiles() {
+            List<File> list = new ArrayList<>(documents.keySet());
+            list.sort(Comparator.comparing(File::getPath));
+            return list;
+        }
+
+        /**
+         * @return referenced files which could not be read, ordered by path
+         */
+        @NotNull
+        public List<File> getMissingFiles() {
+            List<File> list = new ArrayList<>(missingFiles);
+            list.sort(Comparator.comparing(File::getPath));
+            return list;
+        }
+
+        /**
+         * @param file file
+         * @return document of file or null if file is not part of the project
+         */
+        @Nullable
+        public CMakeFile getDocument(@NotNull File file) {
+            return documents.get(file);
+        }
+
+        /**
+         * @param file file
+         * @return references of file in each directory it is processed in, ordered by directory path and in document order
+         * for each directory, resolved references only
+         */
+        @NotNull
+        public List<Reference> getReferences(@NotNull File file) {
+            List<Pair<File, File>> keys = new ArrayList<>();
+            for (Pair<File, File> key : files.keySet()) {
+                if (key.getFirst().equals(file)) keys.add(key);
+            }
+            if (keys.size() == 1) return files.get(keys.get(0)).references;
+
+            keys.sort(Comparator.comparing(key -> key.getSecond().getPath()));
+            List<Reference> references = new ArrayList<>();
+            for (Pair<File, File> key : keys) {
+                references.addAll(files.get(key).references);
+            }
+            return references;
+        }
+
+        /**
+         * @param file      file
+         * @param sourceDir directory the file is processed in
+         * @return references of file in document order, resolved references only
+         */
+        @NotNull
+        public List<Reference> getReferences(@NotNull File file, @NotNull File sourceDir) {
+            LoadedFile loadedFile = files.get(Pair.of(file, sourceDir));
+            return loadedFile == null ? Collections.emptyList() : loadedFile.references;
+        }
+
+        /**
+         * Evaluate set() and project() commands of the project in CMake processing order, included files and
+         * subdirectories are evaluated at the point of the command referencing them
+         * <p>
+         * Included files are evaluated in the scope of the including file. A subdirectory is evaluated in a copy
+         * of the scope of its parent directory, only values set with PARENT_SCOPE or CACHE are visible after add_subdirectory().
+         *
+         * @param values variable values of the project directory, updated with values set by the project files
+         */
+        public void evaluateVariables(@NotNull VariableExpander values) {
+            evaluateVariables(Pair.of(rootFile, projectDir), new Scope(null, values), new HashSet<>());
+        }
+
+        private void evaluateVariables(@NotNull Pair<File, File> key, @NotNull Scope scope, @NotNull Set<Pair<File, File>> evaluating) {
+            LoadedFile loadedFile = files.get(key);
+            if (loadedFile == null || !evaluating.add(key)) return;
+
+            for (Command command : loadedFile.document.getCommands("set", "project", "include", "add_subdirectory")) {
+                String name = command.getCommand().toString().toLowerCase(Locale.ROOT);
+                List<String> args = getArguments(command);
+
+                switch (name) {
+                    case "set":
+                        if (!args.isEmpty()) {
+                            List<String> resolved = new ArrayList<>(args.size() - 1);
+                            boolean isCache = false;
+                            boolean isParentScope = false;
+                            for (int i = 1; i < args.size(); i++) {
+                                String arg = args.get(i);
+                                if (arg.equals("CACHE")) {
+                                    isCache = true;
+                                    break;
+                                }
+                                if (arg.equals("PARENT_SCOPE") && i == args.size() - 1) {
+                                    isParentScope = true;
+                                    break;
+                                }
+                                resolved.add(scope.resolve(arg));
+                            }
+
+                            String variable = scope.resolve(args.get(0));
+                            if (isCache) scope.setCache(variable, resolved);
+                            else if (isParentScope) scope.setParentScope(variable, resolved);
+                            else scope.set(variable, resolved);
+                        }
+                        break;
+
+                    case "project":
+                        if (!args.isEmpty()) {
+                            scope.set("PROJECT_NAME", Collections.singletonList(scope.resolve(args.get(0))));
+                        }
+                        break;
+
+                    default:
+                        Reference reference = loadedFile.commandReferences.get(command);
+                        if (reference != null) {
+                            Scope referenceScope = reference.type == ReferenceType.INCLUDE ? scope : new Scope(scope, new VariableExpander());
+                            evaluateVariables(Pair.of(reference.file, reference.sourceDir), referenceScope, evaluating);
+                        }
+                        break;
+                }
+            }
+
+            evaluating.remove(key);
+        }
+    }
+
+    /**
+     * Variable scope of a directory, a subdirectory's scope starts as a copy of its parent's scope,
+     * a value is copied from the parent the first time it is used
+     */
+    private static class Scope {
+        final private @Nullable Scope parent;
+        final private @NotNull VariableExpander values;
+        final private @NotNull Set<String> copied;
+
+        Scope(@Nullable Scope parent, @NotNull VariableExpander values) {
+            this.parent = parent;
+            this.values = values;
+            this.copied = new HashSet<>();
+        }
+
+        private void copy(@NotNull String name) {
+            if (parent != null && copied.add(name)) setValue(values, name, parent.get(name));
+        }
+
+        @NotNull
+        List<String> get(@NotNull String name) {
+            copy(name);
+            return values.get(name);
+        }
+
+        @NotNull
+        String resolve(@NotNull String text) {
+            if (parent != null) {
+                Matcher matcher = VariableExpander.Companion.getVARIABLE_REF().matcher(text);
+                while (matcher.find()) {
+                    copy(matcher.group(1));
+                }
+            }
+            return values.resolve(text);
+        }
+
+        void set(@NotNull String name, @NotNull List<String> value) {
+            copied.add(name);
+            setValue(values, name, value);
+        }
+
+        void setParentScope(@NotNull String name, @NotNull List<String> value) {
+            // the project directory has no parent scope, the value is not set
+            if (parent != null) {
+                copy(name);
+                parent.set(name, value);
+            }
+        }
+
+        void setCache(@NotNull String name, @NotNull List<String> value) {
+            for (Scope scope = this; scope != null; scope = scope.parent) {
+                scope.set(name, value);
+            }
+        }
+
+        private static void setValue(@NotNull VariableExpander values, @NotNull String name, @NotNull List<String> value) {
+            if (value.isEmpty()) values.set(name, (String) null);
+            else values.set(name, value);
+        }
+    }
+
+    final private ForkJoinPool pool;
+    final private DataHolder options;
+    final private ConcurrentHashMap<File, FileEntry> entries;
+
+    public CMakeProjectLoader() {
+        this(ForkJoinPool.commonPool(), DEFAULT_OPTIONS);
+    }
+
+    public CMakeProjectLoader(@NotNull ForkJoinPool pool, @NotNull DataHolder options) {
+        this.pool = pool;
+        this.options = options;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Documents of files of at least {@link MappedCharSequence#MIN_MAPPED_SIZE} bytes are parsed from a memory mapped
+     * buffer and are not cached, the project keeps the mapping until it is no longer used.
+     *
+     * @param projectDir directory containing the project's CMakeLists.txt
+     * @return project or null if CMakeLists.txt could not be read
+     */
+    @Nullable
+    public Project load(@NotNull File projectDir) {
+        File dir = normalized(projectDir);
+        Project project = new Project(dir, new File(dir, Strings.CMAKE_LISTS_FILENAME));
+        Set<Pair<File, File>> visited = ConcurrentHashMap.newKeySet();
+
+        visited.add(Pair.of(project.rootFile, dir));
+        pool.invoke(new LoadTask(this, project, project.rootFile, dir, visited));
+
+        return project.documents.containsKey(project.rootFile) ? project : null;
+    }
+
+    /**
+     * Parse file again on next load
+     *
+     * @param file changed file
+     */
+    public void invalidate(@NotNull File file) {
+        entries.remove(normalized(file));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return number of cached parsed files
+     */
+    public int getCachedCount() {
+        return entries.size();
+    }
+
+    /**
+     * @param file file
+     * @return cached document if file is unchanged, otherwise file is read and parsed, null if it cannot be read
+     */
+    @Nullable
+    CMakeFile getDocument(@NotNull File file) {
+        long modified = file.lastModified();
+        long length = file.length();
+
+        FileEntry entry = entries.get(file);
+        if (entry != null && entry.modified == modified && entry.length == length && modified != 0) {
+            return entry.document;
+        }
+
+        if (!file.isFile()) {
+            entries.remove(file);
+            return null;
+        }
+
+        try {
+            // large generated modules are parsed from a mapped buffer, which is not cached since a mapping
+            // blocks changes to the file on Windows and fails on access after the file is truncated
+            CharSequence text = MappedCharSequence.read(file);
+            CMakeFile document = new CMakeParser(BasedSequenceImpl.of(text), options).getDocument();
+            if (text instanceof MappedCharSequence && ((MappedCharSequence) text).isMapped()) {
+                entries.remove(file);
+            } else {
+                entries.put(file, new FileEntry(modified, length, document));
+            }
+            return document;
+        } catch (IOException e) {
+            entries.remove(file);
+            return null;
+        }
+    }
+
+    private static class LoadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final private transient @NotNull CMakeProjectLoader loader;
+        final private transient @NotNull Project project;
+        final private @NotNull File file;
+        final private @NotNull File sourceDir;
+        final private transient @NotNull Set<Pair<File, File>> visited;
+
+        LoadTask(@NotNull CMakeProjectLoader loader, @NotNull Project project, @NotNull File file, @NotNull File sourceDir, @NotNull Set<Pair<File, File>> visited) {
+            this.loader = loader;
+            this.project = project;
+            this.file = file;
+            this.sourceDir = sourceDir;
+            this.visited = visited;
+        }
+
+        @Override
+        protected void compute() {
+            CMakeFile document = loader.getDocument(file);
+            if (document == null) {
+                project.missingFiles.add(file);
+                return;
+            }
+
+            List<Reference> references = new ArrayList<>();
+            List<LoadTask> tasks = new ArrayList<>();
+
+            for (Command command : document.getCommands("include", "add_subdirectory")) {
+                List<String> args = getArguments(command);
+                if (args.isEmpty()) continue;
+
+                boolean isInclude = command.getCommand().toString().equalsIgnoreCase("include");
+                File referenced = isInclude ? resolveInclude(args.get(0)) : resolveSubdirectory(args.get(0));
+                if (referenced == null) continue;
+
+                // included files are processed in the including directory, subdirectories in their own
+                File referencedSourceDir = isInclude ? sourceDir : referenced.getParentFile();
+                references.add(new Reference(isInclude ? ReferenceType.INCLUDE : ReferenceType.ADD_SUBDIRECTORY, command, referenced, referencedSourceDir));
+
+                if (visited.add(Pair.of(referenced, referencedSourceDir))) {
+                    tasks.add(new LoadTask(loader, project, referenced, referencedSourceDir, visited));
+                }
+            }
+
+            project.documents.put(file, document);
+            project.files.put(Pair.of(file, sourceDir), new LoadedFile(document, Collections.unmodifiableList(references)));
+            invokeAll(tasks);
+        }
+
+        @Nullable
+        private File resolveInclude(@NotNull String arg) {
+            String path = expandPath(arg);
+            if (path == null) return null;
+
+            if (path.indexOf('/') < 0 && !path.endsWith(".cmake")) {
+                // module name
+                for (String moduleDir : MODULE_DIRS) {
+                    File module = new File(new File(project.projectDir, moduleDir), path + ".cmake");
+                    if (module.isFile()) return normalized(module);
+                }
+                return null;
+            }
+            return resolved(path);
+        }
+
+        @Nullable
+        private File resolveSubdirectory(@NotNull String arg) {
+            String path = expandPath(arg);
+            return path == null ? null : new File(resolved(path), Strings.CMAKE_LISTS_FILENAME);
+        }
+
+        @Nullable
+        private String expandPath(@NotNull String arg) {
+            String path = arg
+                    .replace("${CMAKE_CURRENT_SOURCE_DIR}", sourceDir.getPath())
+                    .replace("${CMAKE_CURRENT_LIST_DIR}", file.getParent())
+                    .replace("${CMAKE_SOURCE_DIR}", project.projectDir.getPath())
+                    .replace("${PROJECT_SOURCE_DIR}", project.projectDir.getPath());
+            return path.isEmpty() || path.contains("${") ? null : path;
+        }
+
+        @NotNull
+        private File resolved(@NotNull String path) {
+            File resolved = new File(path);
+            return normalized(resolved.isAbsolute() ? resolved : new File(sourceDir, path));
+        }
+    }
+
+    @NotNull
+    static List<String> getArguments(@NotNull Command command) {
+        List<String> args = new ArrayList<>();
+        for (Node node = command.getFirstChild(); node != null; node = node.getNext()) {
+            if (node instanceof Argument) {
+                args.add(((Argument) node).getText().toString());
+            }
+        }
+        return args;
+    }
+
+    @NotNull
+    private static File normalized(@NotNull File file) {
+        return file.getAbsoluteFile().toPath().normalize().toFile();
+    }
+}
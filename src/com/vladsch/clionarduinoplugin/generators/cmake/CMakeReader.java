@@ -0,0 +1,655 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CompactCMakeFile;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import com.vladsch.plugin.util.SemanticVersion;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Streaming CMake reader which reports commands to a handler without building an AST
+ * <p>
+ * Recognizes the same commands, arguments and errors as {@link CMakeParser} for the same options,
+ * including auto config by cmake_minimum_required. Arguments are the ones the parser would add
+ * as {@link com.vladsch.clionarduinoplugin.generators.cmake.ast.Argument} children of the command node,
+ * including parentheses of nested argument lists, and are kept as offsets into the input in arrays reused
+ * for all commands. Arguments of commands rejected by {@link CMakeReaderHandler#wantCommand(CMakeReader)}
+ * are scanned but not kept.
+ * <p>
+ * A reader can be reused for any number of inputs but not concurrently.
+ */
+public class CMakeReader {
+    final private CMakeParserOptions parserOptions;
+
+    private CMakeParserOptions options;
+    private CharSequence input;
+    private CMakeReaderHandler handler;
+    final private CMakeScanner.ScanMemo scanMemo = new CMakeScanner.ScanMemo();
+    private int index;
+    private int errorCount;
+    private boolean stopped;
+    private boolean lastTopLineEnding;
+
+    // top level node after a command is reported after the command
+    private boolean commandPending;
+    private int pendingKind;
+    private int pendingStart;
+    private int pendingEnd;
+
+    // current command
+    private int elementStart;
+    private int commentMarker;
+    private int startOffset;
+    private int endOffset;
+    private int nameStart;
+    private int nameEnd;
+    private int argumentsStart;
+    private int argumentsEnd;
+    private boolean commentedOut;
+    private boolean inCommand;
+    private boolean recording;
+    private boolean lastLineEnding;
+
+    // node following first argument, used for cmake_minimum_required auto config
+    private int nextStart;
+    private int nextEnd;
+
+    private int argumentCount;
+    private int[] argumentStarts;
+    private int[] argumentEnds;
+    private int[] textStarts;
+    private int[] textEnds;
+
+    public CMakeReader(@Nullable DataHolder options) {
+        parserOptions = new CMakeParserOptions(options);
+        argumentStarts = new int[16];
+        argumentEnds = new int[16];
+        textStarts = new int[16];
+        textEnds = new int[16];
+    }
+
+    /**
+     * Read commands from input
+     *
+     * @param input   input text
+     * @param handler handler for commands and errors
+     * @return true if there were no errors
+     */
+    public boolean read(@NotNull CharSequence input, @NotNull CMakeReaderHandler handler) {
+        this.input = input;
+        this.handler = handler;
+        options = new CMakeParserOptions(parserOptions);
+        index = 0;
+        errorCount = 0;
+        stopped = false;
+        inCommand = false;
+        lastTopLineEnding = false;
+        commandPending = false;
+        pendingKind = 0;
+        scanMemo.clear();
+
+        try {
+            parse();
+        } finally {
+            this.input = null;
+            this.handler = null;
+        }
+        return errorCount == 0;
+    }
+
+    /**
+     * Stop reading after the current command, used by handlers when they have all they need
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    @NotNull
+    public CharSequence getInput() {
+        return input;
+    }
+
+    public boolean isCommentedOut() {
+        return commentedOut;
+    }
+
+    /**
+     * @return start of command, including leading spaces and comment marker of a commented out command
+     */
+    public int getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * @return end of command after the closing parenthesis
+     */
+    public int getEndOffset() {
+        return endOffset;
+    }
+
+    public int getNameStart() {
+        return nameStart;
+    }
+
+    public int getNameEnd() {
+        return nameEnd;
+    }
+
+    @NotNull
+    public CharSequence getName() {
+        return input.subSequence(nameStart, nameEnd);
+    }
+
+    /**
+     * @param name command name
+     * @return true if current command has given name, case sensitive like the builder's command lookup
+     */
+    public boolean isCommand(@NotNull CharSequence name) {
+        return regionMatches(name, false);
+    }
+
+    public boolean isCommandIgnoreCase(@NotNull CharSequence name) {
+        return regionMatches(name, true);
+    }
+
+    /**
+     * @return start of text between the command parentheses, only valid in {@link CMakeReaderHandler#command(CMakeReader)}
+     */
+    public int getArgumentsStart() {
+        return argumentsStart;
+    }
+
+    /**
+     * @return end of text between the command parentheses, only valid in {@link CMakeReaderHandler#command(CMakeReader)}
+     */
+    public int getArgumentsEnd() {
+        return argumentsEnd;
+    }
+
+    public int getArgumentCount() {
+        return argumentCount;
+    }
+
+    /**
+     * @param index argument index
+     * @return start of argument including opening quote or bracket
+     */
+    public int getArgumentStart(int index) {
+        return argumentStarts[index];
+    }
+
+    /**
+     * @param index argument index
+     * @return end of argument including closing quote or bracket
+     */
+    public int getArgumentEnd(int index) {
+        return argumentEnds[index];
+    }
+
+    /**
+     * @param index argument index
+     * @return start of argument text
+     */
+    public int getTextStart(int index) {
+        return textStarts[index];
+    }
+
+    /**
+     * @param index argument index
+     * @return end of argument text
+     */
+    public int getTextEnd(int index) {
+        return textEnds[index];
+    }
+
+    /**
+     * @param index argument index
+     * @return argument text without quotes or brackets, same as {@link com.vladsch.clionarduinoplugin.generators.cmake.ast.Argument#getText()}
+     */
+    @NotNull
+    public CharSequence getText(int index) {
+        return input.subSequence(textStarts[index], textEnds[index]);
+    }
+
+    private boolean regionMatches(@NotNull CharSequence name, boolean ignoreCase) {
+        int length = name.length();
+        if (nameEnd - nameStart != length) return false;
+
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(nameStart + i);
+            char n = name.charAt(i);
+            if (c != n && !(ignoreCase && Character.toLowerCase(c) == Character.toLowerCase(n))) return false;
+        }
+        return true;
+    }
+
+    private void addError(@NotNull String message) {
+        // take from input to end of line
+        int start = index;
+        int end = CMakeScanner.restOfLine(input, index);
+        if (end == -1) {
+            start = end = input.length();
+        } else {
+            index = end;
+        }
+
+        other(CompactCMakeFile.UNRECOGNIZED_INPUT, start, end);
+        errorCount++;
+        handler.error(this, message, start, end);
+    }
+
+    private void argument(int start, int end, int textStart, int textEnd) {
+        lastLineEnding = false;
+        if (!recording) return;
+
+        if (argumentCount == argumentStarts.length) {
+            int capacity = argumentCount * 2;
+            argumentStarts = Arrays.copyOf(argumentStarts, capacity);
+            argumentEnds = Arrays.copyOf(argumentEnds, capacity);
+            textStarts = Arrays.copyOf(textStarts, capacity);
+            textEnds = Arrays.copyOf(textEnds, capacity);
+        }
+
+        argumentStarts[argumentCount] = start;
+        argumentEnds[argumentCount] = end;
+        textStarts[argumentCount] = textStart;
+        textEnds[argumentCount] = textEnd;
+        argumentCount++;
+
+        if (argumentCount == 2 && nextStart == -1) {
+            nextStart = start;
+            nextEnd = end;
+        }
+    }
+
+    /**
+     * Non argument node the parser would add to the command or the document
+     *
+     * @param kind  node kind, one of the {@link CompactCMakeFile} node kinds
+     * @param start start offset
+     * @param end   end offset
+     */
+    private void other(int kind, int start, int end) {
+        boolean lineEnding = kind == CompactCMakeFile.LINE_ENDING;
+
+        if (inCommand) {
+            lastLineEnding = lineEnding;
+            if (recording && argumentCount == 1 && nextStart == -1) {
+                nextStart = start;
+                nextEnd = end;
+            }
+        } else {
+            lastTopLineEnding = lineEnding;
+            if (commandPending) {
+                pendingKind = kind;
+                pendingStart = start;
+                pendingEnd = end;
+            } else {
+                handler.node(this, kind, start, end);
+            }
+        }
+    }
+
+    private void flushPending() {
+        commandPending = false;
+        if (pendingKind != 0) {
+            int kind = pendingKind;
+            pendingKind = 0;
+            handler.node(this, kind, pendingStart, pendingEnd);
+        }
+    }
+
+    private void parse() {
+        boolean res;
+
+        do {
+            res = parseElement();
+            if (!res) {
+                // see if parsed the whole file
+                if (peek() != '\0') {
+                    // try to continue by removing lines until we succeed up to a max count
+                    int errorLines = options.maxErrorLineRecoveries;
+
+                    while (!res && errorLines-- > 0) {
+                        addError("Unrecognized input");
+
+                        if (peek() == '\0') {
+                            break;
+                        }
+
+                        res = parseElement();
+                    }
+
+                    if (!res) break;
+                }
+            }
+        } while (res && !stopped);
+    }
+
+    private boolean parseElement() {
+        int start = index;
+
+        sp();
+
+        char c = peek();
+        if (c == '\0') {
+            return false;
+        }
+
+        switch (c) {
+            case '#':
+                if (options.astCommentedOutCommands) {
+                    // possible commented out command
+                    int saved = index;
+                    elementStart = start;
+                    commentMarker = saved;
+                    index++;
+                    if (parseCommandInvocation(true)) {
+                        return true;
+                    }
+                    index = saved;
+                }
+                return parseLineEnding(start);
+
+            case '\r':
+            case '\n':
+                return parseEOL();
+
+            default:
+                // must be command invocation
+                return parseCommandInvocation(false);
+        }
+    }
+
+    private boolean parseCommandInvocation(final boolean isCommentedOut) {
+        sp();
+
+        int saved = index;
+        int end = CMakeScanner.command(input, index);
+        if (end != -1) {
+            int start = index;
+            index = end;
+
+            sp();
+            if (peek() == '(') {
+                // possible command
+                nameStart = start;
+                nameEnd = end;
+                commentedOut = isCommentedOut;
+                argumentCount = 0;
+                nextStart = -1;
+                lastLineEnding = false;
+
+                boolean minimumRequired = options.autoConfig && isCommandIgnoreCase("cmake_minimum_required");
+                boolean wanted = handler.wantCommand(this);
+                recording = wanted || minimumRequired;
+
+                int open = index;
+                index++;
+
+                sp();
+
+                boolean topLineEnding = lastTopLineEnding;
+                inCommand = true;
+                parseArguments();
+
+                // if we have ) lineEnding then all good
+                sp();
+                if (peek() == ')') {
+                    int close = index;
+                    index++;
+
+                    inCommand = false;
+                    lastTopLineEnding = false;
+                    commandPending = true;
+                    if (parseLineEnding(index)) {
+                        // we are good
+                        argumentsStart = open + 1;
+                        argumentsEnd = close;
+                        startOffset = !isCommentedOut ? start : elementStart < commentMarker ? elementStart : commentMarker;
+                        endOffset = close + 1;
+
+                        if (minimumRequired) {
+                            autoConfig();
+                        }
+
+                        if (wanted) {
+                            handler.command(this);
+                        }
+                        flushPending();
+                        return true;
+                    } else {
+                        flushPending();
+                        if (!isCommentedOut) {
+                            addError("Line Ending expected");
+                        }
+                    }
+                } else {
+                    inCommand = false;
+                    if (!isCommentedOut) {
+                        addError("Closing ) expected");
+                    }
+                }
+
+                if (isCommentedOut) {
+                    // not a command, parser removes it without adding anything in its place
+                    lastTopLineEnding = topLineEnding;
+                }
+            }
+        }
+
+        index = saved;
+        return false;
+    }
+
+    /**
+     * Configure parser flags for cmake_minimum_required(VERSION v.v.v) the same way as the parser
+     */
+    private void autoConfig() {
+        if (argumentCount > 0 && nextStart != -1 && regionEquals(argumentStarts[0], argumentEnds[0], "VERSION")) {
+            BasedSequence version = BasedSequenceImpl.of(input).subSequence(nextStart, nextEnd);
+            BasedSequence[] minMaxVersions = version.split("...", 2);
+
+            // use max version if given
+            SemanticVersion minVersion = new SemanticVersion(minMaxVersions[0]);
+            SemanticVersion maxVersion = new SemanticVersion(minMaxVersions.length > 1 ? minMaxVersions[1] : minMaxVersions[0]);
+            if (minVersion.compareTo(maxVersion) < 0) minVersion = maxVersion;
+
+            if (minVersion.compareTo("3.0.0") >= 0) {
+                options.lineContinuation = true;
+                options.blockComments = true;
+            } else {
+                options.lineContinuation = false;
+                options.blockComments = false;
+            }
+        }
+    }
+
+    private boolean regionEquals(int start, int end, @NotNull String text) {
+        if (end - start != text.length()) return false;
+        for (int i = start; i < end; i++) {
+            if (input.charAt(i) != text.charAt(i - start)) return false;
+        }
+        return true;
+    }
+
+    private void parseArguments() {
+        while (true) {
+            int start = index;
+            sp();
+
+            char c = peek();
+            if (c == '\0') {
+                break;
+            }
+
+            if (c == ';') {
+                // separator
+                index++;
+                if (options.astArgumentSeparators) {
+                    other(CompactCMakeFile.SEPARATOR, index - 1, index);
+                }
+            } else if (c == '#') {
+                // could be comment
+                parseComment(index);
+            } else if (c == '(') {
+                // could be arguments if matching )
+                int count = argumentCount;
+                int next = nextStart;
+                int nextEnd = this.nextEnd;
+                argument(index, index + 1, index, index + 1);
+                index++;
+
+                parseArguments();
+
+                // see if we have )
+                sp();
+                if (peek() == ')') {
+                    argument(index, index + 1, index, index + 1);
+                    index++;
+                } else {
+                    // parenthesis and its arguments are not added
+                    if (recording) {
+                        argumentCount = count;
+                        nextStart = next;
+                        this.nextEnd = nextEnd;
+                    }
+                    addError("Closing ) expected");
+                    break;
+                }
+            } else if (!parseLineEnding(start)) {
+                if (!parseArgument()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean parseArgument() {
+        char c = peek();
+
+        if (c == '[') {
+            // possible bracket argument
+            int end = CMakeScanner.bracketArgument(input, index, scanMemo);
+            if (end != -1) {
+                int markerLength = CMakeScanner.bracketMarkerLength(input, index, end);
+                argument(index, end, index + markerLength, end - markerLength);
+                index = end;
+                return true;
+            }
+        }
+
+        if (c == '"') {
+            // quoted argument
+            int end = CMakeScanner.quotedArgument(input, index, options.lineContinuation, scanMemo);
+            if (end != -1) {
+                argument(index, end, index + 1, end - 1);
+                index = end;
+                return true;
+            }
+        }
+
+        // legacy unquoted
+        int end = CMakeScanner.unquotedLegacy(input, index, scanMemo);
+        if (end == -1) {
+            end = CMakeScanner.unquotedArgument(input, index);
+        }
+
+        if (end != -1) {
+            argument(index, end, index, end);
+            index = end;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean parseLineEnding(final int start) {
+        sp();
+
+        char c = peek();
+        if (c == '\0') {
+            return true;        // valid end of line for the file
+        } else if (c == '#') {
+            return parseComment(start);
+        } else {
+            return parseEOL();
+        }
+    }
+
+    private boolean parseComment(final int start) {
+        if (peek(1) == '[' && options.blockComments) {
+            int saved = index++;
+
+            int end = CMakeScanner.bracketArgument(input, index, scanMemo);
+            if (end != -1) {
+                // block comment
+                index = end;
+                if (options.astComments) {
+                    other(CompactCMakeFile.BRACKET_COMMENT, saved, end);
+                }
+                return true;
+            }
+
+            index--;
+        }
+
+        int eolStart = index;
+        index = CMakeScanner.restOfLine(input, index);
+
+        if (options.astComments) {
+            other(CompactCMakeFile.LINE_COMMENT, start, index);
+        } else if (options.astLineEndEol && index > eolStart && input.charAt(index - 1) == '\n' && !(inCommand ? lastLineEnding : lastTopLineEnding)) {
+            // parser adds trailing EOL of comment as a line ending
+            other(CompactCMakeFile.LINE_ENDING, index - 1, index);
+        }
+        return true;
+    }
+
+    private boolean parseEOL() {
+        char c = peek();
+
+        if (c == '\0') {
+            return true;        // valid end of line for the file
+        } else {
+            int start = index;
+            int end = CMakeScanner.eol(input, index);
+            if (end != -1) {
+                index = end;
+                if (options.astBlankLines || options.astLineEndEol) {
+                    // only blank line if did not have input before
+                    boolean blankLine = isBlankBefore(start);
+                    if (blankLine ? options.astBlankLines : options.astLineEndEol) {
+                        other(blankLine ? CompactCMakeFile.BLANK_LINE : CompactCMakeFile.LINE_ENDING, start, end);
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isBlankBefore(int offset) {
+        for (int i = offset; i-- > 0; ) {
+            char c = input.charAt(i);
+            if (c == '\n') break;
+            if (c != ' ' && c != '\t' && c != '\r') return false;
+        }
+        return true;
+    }
+
+    private char peek() {
+        return index < input.length() ? input.charAt(index) : '\0';
+    }
+
+    private char peek(int ahead) {
+        return index + ahead < input.length() ? input.charAt(index + ahead) : '\0';
+    }
+
+    private void sp() {
+        index = CMakeScanner.spaces(input, index);
+    }
+}
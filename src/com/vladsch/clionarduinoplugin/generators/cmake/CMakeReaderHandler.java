@@ -0,0 +1,51 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives commands from {@link CMakeReader}
+ * <p>
+ * Command name, arguments and offsets are available from the reader only for the duration of the call.
+ */
+public interface CMakeReaderHandler {
+    /**
+     * Command filter, called after the command name and opening parenthesis are read
+     * and before its arguments. The command may still turn out to be invalid.
+     *
+     * @param reader reader positioned at the command
+     * @return true to read the arguments and receive {@link #command(CMakeReader)}, false to skip the command
+     */
+    default boolean wantCommand(@NotNull CMakeReader reader) {
+        return true;
+    }
+
+    /**
+     * Command which the parser would add to the document
+     *
+     * @param reader reader positioned at the command
+     */
+    void command(@NotNull CMakeReader reader);
+
+    /**
+     * Top level node other than a command which the parser would add to the document,
+     * depends on the parser AST options
+     *
+     * @param reader      reader
+     * @param kind        node kind, one of the {@link com.vladsch.clionarduinoplugin.generators.cmake.ast.CompactCMakeFile} node kinds
+     * @param startOffset start of node
+     * @param endOffset   end of node
+     */
+    default void node(@NotNull CMakeReader reader, int kind, int startOffset, int endOffset) {
+    }
+
+    /**
+     * Error which the parser would add to the document errors
+     *
+     * @param reader      reader
+     * @param message     error message
+     * @param startOffset start of error location
+     * @param endOffset   end of error location
+     */
+    default void error(@NotNull CMakeReader reader, @NotNull String message, int startOffset, int endOffset) {
+    }
+}
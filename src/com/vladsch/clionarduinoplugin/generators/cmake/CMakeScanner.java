@@ -0,0 +1,352 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Character dispatch equivalents of the CMakeParser patterns
+ * <p>
+ * Each method takes the start offset and returns the end offset of the match or -1 if there is no match,
+ * matching exactly what the corresponding regex in CMakeParser would match at the same offset.
+ * <p>
+ * All scans take time linear in the characters examined. Bracket and quoted argument scans which fail
+ * examine input to the end of the file or to the first character which cannot be part of the argument.
+ * Passing a {@link ScanMemo} for the input makes repeated failing scans take linear time overall.
+ */
+public class CMakeScanner {
+    private CMakeScanner() {
+    }
+
+    /**
+     * Ranges of start offsets where bracket or quoted argument scans of one input are known to fail
+     * <p>
+     * A scan starting at p which fails at offset t examined every possible end of the argument in between,
+     * so a scan of the same kind starting anywhere in [p, t) also fails. Bracket scans are kept
+     * by the number of '=' in the marker, quoted scans by line continuation.
+     */
+    public static class ScanMemo {
+        private int[] bracketStarts = new int[0];
+        private int[] bracketEnds = new int[0];
+        final private int[] quotedStarts = new int[2];
+        final private int[] quotedEnds = new int[2];
+
+        public ScanMemo() {
+            clear();
+        }
+
+        /**
+         * Clear failed ranges, must be called before scanning a different input
+         */
+        public void clear() {
+            Arrays.fill(bracketEnds, -1);
+            quotedEnds[0] = -1;
+            quotedEnds[1] = -1;
+        }
+
+        boolean isBracketFailed(int equals, int index) {
+            return equals < bracketEnds.length && index >= bracketStarts[equals] && index < bracketEnds[equals];
+        }
+
+        void bracketFailed(int equals, int index, int end) {
+            if (equals >= bracketEnds.length) {
+                int length = bracketEnds.length;
+                int capacity = Math.max(equals + 1, length * 2);
+                bracketStarts = Arrays.copyOf(bracketStarts, capacity);
+                bracketEnds = Arrays.copyOf(bracketEnds, capacity);
+                Arrays.fill(bracketEnds, length, capacity, -1);
+            }
+            bracketStarts[equals] = index;
+            bracketEnds[equals] = end;
+        }
+
+        boolean isQuotedFailed(boolean lineContinuation, int index) {
+            int i = lineContinuation ? 1 : 0;
+            return index >= quotedStarts[i] && index < quotedEnds[i];
+        }
+
+        void quotedFailed(boolean lineContinuation, int index, int end) {
+            int i = lineContinuation ? 1 : 0;
+            quotedStarts[i] = index;
+            quotedEnds[i] = end;
+        }
+    }
+
+    /**
+     * Java regex line terminators which are not matched by '.'
+     *
+     * @param c character
+     * @return true if line terminator
+     */
+    public static boolean isLineTerminator(final char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    public static boolean isEscapable(final char c) {
+        switch (c) {
+            case '(':
+            case ')':
+            case '#':
+            case '"':
+            case '\\':
+            case ' ':
+            case '$':
+            case '@':
+            case '^':
+            case 't':
+            case 'r':
+            case 'n':
+            case ';':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public static boolean isUnquotedChar(final char c) {
+        switch (c) {
+            case '(':
+            case ')':
+            case '#':
+            case '"':
+            case '\\':
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\n':
+            case ';':
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    public static boolean isLegacyChar(final char c) {
+        switch (c) {
+            case ' ':
+            case '\\':
+            case '\t':
+            case '\r':
+            case '\n':
+            case '"':
+            case ';':
+            case '(':
+            case ')':
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * SP: [ \t]*
+     */
+    public static int spaces(@NotNull CharSequence input, int index) {
+        final int iMax = input.length();
+        while (index < iMax) {
+            char c = input.charAt(index);
+            if (c != ' ' && c != '\t') break;
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * COMMAND: [A-Za-z_][A-Za-z0-9_]*
+     */
+    public static int command(@NotNull CharSequence input, int index) {
+        final int iMax = input.length();
+        if (index >= iMax) return -1;
+
+        char c = input.charAt(index);
+        if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c == '_')) return -1;
+        index++;
+
+        while (index < iMax) {
+            c = input.charAt(index);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '_')) break;
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * EOL: \r\n|\r|\n|$
+     */
+    public static int eol(@NotNull CharSequence input, int index) {
+        final int iMax = input.length();
+        if (index >= iMax) return -1;
+
+        char c = input.charAt(index);
+        if (c == '\r') {
+            return index + 1 < iMax && input.charAt(index + 1) == '\n' ? index + 2 : index + 1;
+        } else if (c == '\n') {
+            return index + 1;
+        } else if (index + 1 == iMax && isLineTerminator(c)) {
+            // $ matches before a final line terminator
+            return index;
+        }
+        return -1;
+    }
+
+    /**
+     * REST_OF_LINE: .*EOL
+     */
+    public static int restOfLine(@NotNull CharSequence input, int index) {
+        final int iMax = input.length();
+        if (index >= iMax) return -1;
+
+        while (index < iMax && !isLineTerminator(input.charAt(index))) index++;
+        if (index == iMax) return index;
+
+        char c = input.charAt(index);
+        if (c == '\r' || c == '\n') return eol(input, index);
+        return index + 1 == iMax ? index : -1;
+    }
+
+    /**
+     * QUOTED_ARGUMENT_LINE_CONT or QUOTED_ARGUMENT_NO_LINE_CONT
+     */
+    public static int quotedArgument(@NotNull CharSequence input, int index, boolean lineContinuation) {
+        return quotedArgument(input, index, lineContinuation, null);
+    }
+
+    public static int quotedArgument(@NotNull CharSequence input, int index, boolean lineContinuation, @Nullable ScanMemo memo) {
+        final int iMax = input.length();
+        if (index >= iMax || input.charAt(index) != '"') return -1;
+        if (memo != null && memo.isQuotedFailed(lineContinuation, index)) return -1;
+
+        int pos = index + 1;
+        while (pos < iMax) {
+            char c = input.charAt(pos);
+            if (c == '"') {
+                return pos + 1;
+            } else if (c == '\\') {
+                if (pos + 1 >= iMax) break;
+                char next = input.charAt(pos + 1);
+                if (isEscapable(next) || lineContinuation && (next == '\r' || next == '\n')) {
+                    pos += 2;
+                } else {
+                    break;
+                }
+            } else if (c == '\0') {
+                break;
+            } else {
+                pos++;
+            }
+        }
+
+        if (memo != null) memo.quotedFailed(lineContinuation, index, pos);
+        return -1;
+    }
+
+    /**
+     * UNQUOTED_ARGUMENT: (?:[^()#"\\ \t\r\n;]|ESCAPED_CHAR)+
+     */
+    public static int unquotedArgument(@NotNull CharSequence input, int index) {
+        final int iMax = input.length();
+        final int start = index;
+
+        while (index < iMax) {
+            char c = input.charAt(index);
+            if (isUnquotedChar(c)) {
+                index++;
+            } else if (c == '\\' && index + 1 < iMax && isEscapable(input.charAt(index + 1))) {
+                index += 2;
+            } else {
+                break;
+            }
+        }
+        return index > start ? index : -1;
+    }
+
+    /**
+     * UNQUOTED_LEGACY: LEGACY_CHARS(?:QUOTED_ARGUMENT_NO_LINE_CONT|ESCAPED_CHAR|LEGACY_CHARS|\(LEGACY_CHARS+\))*
+     */
+    public static int unquotedLegacy(@NotNull CharSequence input, int index) {
+        return unquotedLegacy(input, index, null);
+    }
+
+    public static int unquotedLegacy(@NotNull CharSequence input, int index, @Nullable ScanMemo memo) {
+        final int iMax = input.length();
+        if (index >= iMax || !isLegacyChar(input.charAt(index))) return -1;
+        index++;
+
+        while (index < iMax) {
+            char c = input.charAt(index);
+            if (isLegacyChar(c)) {
+                index++;
+            } else if (c == '"') {
+                int end = quotedArgument(input, index, false, memo);
+                if (end == -1) break;
+                index = end;
+            } else if (c == '\\') {
+                if (index + 1 < iMax && isEscapable(input.charAt(index + 1))) index += 2;
+                else break;
+            } else if (c == '(') {
+                int end = index + 1;
+                while (end < iMax && isLegacyChar(input.charAt(end))) end++;
+                if (end == index + 1 || end >= iMax || input.charAt(end) != ')') break;
+                index = end + 1;
+            } else {
+                break;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * BRACKET_ARGUMENT: (\[(=*)\[)((?:.|[\r\n])*?)(\]\2])
+     * <p>
+     * open marker length is 2 + number of '=' in the marker, the closing marker has the same length
+     */
+    public static int bracketArgument(@NotNull CharSequence input, int index) {
+        return bracketArgument(input, index, null);
+    }
+
+    public static int bracketArgument(@NotNull CharSequence input, int index, @Nullable ScanMemo memo) {
+        final int iMax = input.length();
+        if (index >= iMax || input.charAt(index) != '[') return -1;
+
+        int pos = index + 1;
+        while (pos < iMax && input.charAt(pos) == '=') pos++;
+        if (pos >= iMax || input.charAt(pos) != '[') return -1;
+
+        final int equals = pos - index - 1;
+        if (memo != null && memo.isBracketFailed(equals, index)) return -1;
+        pos++;
+
+        while (pos < iMax) {
+            char c = input.charAt(pos);
+            if (c == ']') {
+                int end = pos + 1;
+                while (end < iMax && end - pos - 1 < equals && input.charAt(end) == '=') end++;
+                if (end - pos - 1 == equals && end < iMax && input.charAt(end) == ']') {
+                    return end + 1;
+                }
+                pos = end;
+            } else if (c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                // not matched by .|[\r\n]
+                break;
+            } else {
+                pos++;
+            }
+        }
+
+        if (memo != null) memo.bracketFailed(equals, index, pos);
+        return -1;
+    }
+
+    /**
+     * @param input  input
+     * @param index  start of bracket argument
+     * @param end    end of bracket argument as returned by {@link #bracketArgument(CharSequence, int)}
+     * @return length of open or close marker
+     */
+    public static int bracketMarkerLength(@NotNull CharSequence input, int index, int end) {
+        int pos = index + 1;
+        while (pos < end && input.charAt(pos) == '=') pos++;
+        return pos - index + 1;
+    }
+}
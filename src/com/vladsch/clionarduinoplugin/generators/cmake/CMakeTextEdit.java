@@ -0,0 +1,97 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Replacement of a range of text
+ */
+public class CMakeTextEdit {
+    final public int startOffset;
+    final public int endOffset;
+    final public @NotNull String replacement;
+
+    public CMakeTextEdit(int startOffset, int endOffset, @NotNull String replacement) {
+        if (startOffset < 0 || endOffset < startOffset) {
+            throw new IllegalArgumentException("Invalid edit range [" + startOffset + ", " + endOffset + ")");
+        }
+
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.replacement = replacement;
+    }
+
+    /**
+     * Edit replacing only the part of the range which differs from replacement
+     *
+     * @param text        text containing the range
+     * @param startOffset start of range
+     * @param endOffset   end of range
+     * @param replacement replacement text of the range
+     * @return edit or null if range text equals the replacement
+     */
+    @Nullable
+    public static CMakeTextEdit of(@NotNull CharSequence text, int startOffset, int endOffset, @NotNull CharSequence replacement) {
+        int length = replacement.length();
+        int prefix = 0;
+        int maxPrefix = Math.min(endOffset - startOffset, length);
+
+        while (prefix < maxPrefix && text.charAt(startOffset + prefix) == replacement.charAt(prefix)) prefix++;
+
+        if (prefix == length && startOffset + prefix == endOffset) return null;
+
+        int suffix = 0;
+        int maxSuffix = Math.min(endOffset - startOffset, length) - prefix;
+        while (suffix < maxSuffix && text.charAt(endOffset - 1 - suffix) == replacement.charAt(length - 1 - suffix)) suffix++;
+
+        return new CMakeTextEdit(startOffset + prefix, endOffset - suffix, replacement.subSequence(prefix, length - suffix).toString());
+    }
+
+    /**
+     * Apply edits to text
+     *
+     * @param text  text
+     * @param edits non-overlapping edits in order of offsets
+     * @return edited text
+     */
+    @NotNull
+    public static String apply(@NotNull CharSequence text, @NotNull List<CMakeTextEdit> edits) {
+        StringBuilder sb = new StringBuilder(text.length());
+        int lastOffset = 0;
+
+        for (CMakeTextEdit edit : edits) {
+            if (edit.startOffset < lastOffset) {
+                throw new IllegalArgumentException("Edits overlap or are out of order at " + edit.startOffset);
+            }
+            sb.append(text, lastOffset, edit.startOffset).append(edit.replacement);
+            lastOffset = edit.endOffset;
+        }
+
+        sb.append(text, lastOffset, text.length());
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CMakeTextEdit)) return false;
+
+        CMakeTextEdit edit = (CMakeTextEdit) o;
+        return startOffset == edit.startOffset && endOffset == edit.endOffset && replacement.equals(edit.replacement);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = startOffset;
+        result = 31 * result + endOffset;
+        result = 31 * result + replacement.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CMakeTextEdit{[" + startOffset + ", " + endOffset + "), \"" + replacement.replace("\n", "\\n") + "\"}";
+    }
+}
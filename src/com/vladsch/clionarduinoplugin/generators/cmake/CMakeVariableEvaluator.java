@@ -0,0 +1,980 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Argument;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Command;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CommandBlockIndex;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Variable values of a CMake document evaluated in processing order
+ * <p>
+ * Evaluates set(), unset(), option(), project(), list() and string() commands and follows if()/elseif()/else()
+ * branches. foreach(), while(), function() and macro() bodies are not evaluated, other commands do not change
+ * variables. Cache variables are treated as normal variables which are only set if not already defined.
+ * <p>
+ * Argument text is compiled once into literal and ${} reference segments. Each evaluated command is memoized
+ * with the values of the variables it read and the values it wrote. When the same evaluator evaluates a
+ * changed document, only commands whose text changed or which read a changed variable are evaluated again,
+ * the memoized values of the others are reused.
+ * <p>
+ * $ENV{} and $CACHE{} references resolve to an empty string, escape sequences are not processed. Instances
+ * are not thread safe.
+ */
+public class CMakeVariableEvaluator {
+    // compiled argument text cache is cleared when it reaches this size
+    final private static int MAX_TEMPLATES = 4096;
+
+    final private static Set<String> EVALUATED_COMMANDS = new HashSet<>(Arrays.asList(
+            "set",
+            "unset",
+            "option",
+            "project",
+            "list",
+            "string"
+    ));
+
+    final private HashMap<String, List<String>> initialValues = new HashMap<>();
+    final private HashMap<String, Template> templates = new HashMap<>();
+
+    private HashMap<String, List<String>> values = new HashMap<>();
+    private HashMap<String, Step> steps = new HashMap<>();
+    private HashMap<String, Set<String>> dependencies = new HashMap<>();
+    private HashMap<String, Set<String>> dependents = null;
+    private int evaluatedCount;
+    private int reusedCount;
+
+    // state of evaluation in progress
+    private HashMap<String, Step> previousSteps;
+    private HashMap<String, Integer> occurrences;
+    private ArrayList<String[]> conditionReads;
+
+    public CMakeVariableEvaluator() {
+
+    }
+
+    /**
+     * @param name lowercase command name
+     * @return true if the command is evaluated or is a block command, a document with only these commands evaluates to the same values
+     */
+    public static boolean isEvaluatedCommand(@NotNull String name) {
+        return EVALUATED_COMMANDS.contains(name) || CommandBlockIndex.getKind(name) != CommandBlockIndex.NONE;
+    }
+
+    /**
+     * Set value of variable defined before the document is evaluated, takes effect on next evaluation
+     *
+     * @param name   variable name
+     * @param values variable value list, null to remove
+     */
+    public void setInitialValue(@NotNull String name, @Nullable Collection<String> values) {
+        if (values == null) initialValues.remove(name);
+        else initialValues.put(name, toList(String.join(";", values)));
+    }
+
+    /**
+     * Evaluate variables of document, replacing values of previous evaluation
+     *
+     * @param document document
+     */
+    public void evaluate(@NotNull CMakeFile document) {
+        CommandBlockIndex blocks = document.getCommandBlocks();
+
+        previousSteps = steps;
+        occurrences = new HashMap<>();
+        conditionReads = new ArrayList<>();
+
+        values = new HashMap<>(initialValues);
+        steps = new HashMap<>();
+        dependencies = new HashMap<>();
+        dependents = null;
+        evaluatedCount = 0;
+        reusedCount = 0;
+
+        try {
+            evaluate(blocks, 0, blocks.size());
+        } finally {
+            previousSteps = null;
+            occurrences = null;
+            conditionReads = null;
+        }
+    }
+
+    /**
+     * @return number of commands evaluated by last evaluation
+     */
+    public int getEvaluatedCount() {
+        return evaluatedCount;
+    }
+
+    /**
+     * @return number of commands whose memoized values were reused by last evaluation
+     */
+    public int getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * @param name variable name
+     * @return value list of variable, empty if the value is an empty string, null if not defined
+     */
+    @Nullable
+    public List<String> get(@NotNull String name) {
+        return values.get(name);
+    }
+
+    /**
+     * @param name variable name
+     * @return value of variable, list items separated by ;, null if not defined
+     */
+    @Nullable
+    public String getValue(@NotNull String name) {
+        List<String> value = values.get(name);
+        return value == null ? null : String.join(";", value);
+    }
+
+    public boolean isDefined(@NotNull String name) {
+        return values.containsKey(name);
+    }
+
+    /**
+     * @return all defined variables and their value lists
+     */
+    @NotNull
+    public Map<String, List<String>> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Resolve variable references using values of last evaluation
+     *
+     * @param text text with ${} references
+     * @return resolved text
+     */
+    @NotNull
+    public String resolve(@NotNull CharSequence text) {
+        return getTemplate(text.toString()).resolve(values::get);
+    }
+
+    /**
+     * @param name variable name
+     * @return variables read by commands which set the variable, including variables of enclosing if() conditions
+     */
+    @NotNull
+    public Set<String> getDependencies(@NotNull String name) {
+        Set<String> names = dependencies.get(name);
+        return names == null ? Collections.emptySet() : Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @param name variable name
+     * @return variables whose value depends directly or indirectly on the variable
+     */
+    @NotNull
+    public Set<String> getDependents(@NotNull String name) {
+        if (dependents == null) {
+            dependents = new HashMap<>();
+            for (Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+                for (String dependency : entry.getValue()) {
+                    dependents.computeIfAbsent(dependency, k -> new LinkedHashSet<>()).add(entry.getKey());
+                }
+            }
+        }
+
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        ArrayList<String> pending = new ArrayList<>();
+        pending.add(name);
+
+        while (!pending.isEmpty()) {
+            Set<String> direct = dependents.get(pending.remove(pending.size() - 1));
+            if (direct == null) continue;
+
+            for (String dependent : direct) {
+                if (!dependent.equals(name) && names.add(dependent)) pending.add(dependent);
+            }
+        }
+        return names;
+    }
+
+    private void evaluate(@NotNull CommandBlockIndex blocks, int start, int end) {
+        int i = start;
+        while (i < end) {
+            Command command = blocks.getCommand(i);
+            String name = command.getCommand().toString().toLowerCase(Locale.ROOT);
+            int kind = CommandBlockIndex.getKind(name);
+
+            if (kind == CommandBlockIndex.OPEN) {
+                int closer = blocks.getCloserIndex(i);
+                int blockEnd = closer < 0 ? end : closer;
+                if (name.equals("if")) evaluateIf(blocks, i, blockEnd);
+                i = blockEnd + 1;
+            } else {
+                if (kind == CommandBlockIndex.NONE && EVALUATED_COMMANDS.contains(name)) step(command, name);
+                i++;
+            }
+        }
+    }
+
+    private void evaluateIf(@NotNull CommandBlockIndex blocks, int opener, int end) {
+        int depth = conditionReads.size();
+        int branch = opener;
+
+        while (branch < end) {
+            int next = branch + 1;
+            while (next < end && blocks.getOpenerIndex(next) != opener) next++;
+
+            Command command = blocks.getCommand(branch);
+            String name = command.getCommand().toString().toLowerCase(Locale.ROOT);
+            boolean taken = true;
+
+            if (!name.equals("else")) {
+                Step step = step(command, name);
+                conditionReads.add(step.readNames);
+                taken = step.result;
+            }
+
+            if (taken) {
+                evaluate(blocks, branch + 1, next);
+                break;
+            }
+            branch = next;
+        }
+
+        while (conditionReads.size() > depth) conditionReads.remove(conditionReads.size() - 1);
+    }
+
+    @NotNull
+    private Step step(@NotNull Command command, @NotNull String name) {
+        String text = command.getChars().toString();
+        Integer occurrence = occurrences.merge(text, 1, Integer::sum) - 1;
+        String key = occurrence == 0 ? text : text + '\u0000' + occurrence;
+
+        Step step = previousSteps.get(key);
+        if (step != null && step.isCurrent(values)) {
+            step.apply(values);
+            reusedCount++;
+        } else {
+            Scope scope = new Scope();
+            boolean result = execute(command, name, scope);
+            step = scope.toStep(result);
+            evaluatedCount++;
+        }
+
+        steps.put(key, step);
+
+        for (String written : step.writeNames) {
+            Set<String> names = dependencies.computeIfAbsent(written, k -> new LinkedHashSet<>());
+            for (String read : step.readNames) {
+                if (!read.equals(written)) names.add(read);
+            }
+            for (String[] reads : conditionReads) {
+                for (String read : reads) {
+                    if (!read.equals(written)) names.add(read);
+                }
+            }
+        }
+        return step;
+    }
+
+    private boolean execute(@NotNull Command command, @NotNull String name, @NotNull Scope scope) {
+        switch (name) {
+            case "if":
+            case "elseif":
+                return new Condition(getTokens(command, scope), scope).evaluate();
+
+            case "set":
+                set(getArguments(command, scope), scope);
+                break;
+
+            case "unset": {
+                List<String> args = getArguments(command, scope);
+                if (!args.isEmpty()) scope.set(args.get(0), null);
+                break;
+            }
+
+            case "option": {
+                List<String> args = getArguments(command, scope);
+                if (!args.isEmpty() && !scope.isDefined(args.get(0))) {
+                    scope.set(args.get(0), toList(args.size() > 2 ? args.get(2) : "OFF"));
+                }
+                break;
+            }
+
+            case "project": {
+                List<String> args = getArguments(command, scope);
+                if (!args.isEmpty()) {
+                    List<String> projectName = toList(args.get(0));
+                    scope.set("PROJECT_NAME", projectName);
+                    if (!scope.isDefined("CMAKE_PROJECT_NAME")) scope.set("CMAKE_PROJECT_NAME", projectName);
+                }
+                break;
+            }
+
+            case "list":
+                list(getArguments(command, scope), scope);
+                break;
+
+            case "string":
+                string(getArguments(command, scope), scope);
+                break;
+        }
+        return false;
+    }
+
+    private static void set(@NotNull List<String> args, @NotNull Scope scope) {
+        if (args.isEmpty() || args.get(0).isEmpty()) return;
+
+        String name = args.get(0);
+        List<String> value = args.subList(1, args.size());
+        int cache = value.indexOf("CACHE");
+
+        if (cache >= 0) {
+            boolean force = value.subList(cache, value.size()).contains("FORCE");
+            if (!force && scope.isDefined(name)) return;
+            value = value.subList(0, cache);
+        } else if (!value.isEmpty() && value.get(value.size() - 1).equals("PARENT_SCOPE")) {
+            value = value.subList(0, value.size() - 1);
+        }
+
+        scope.set(name, value.isEmpty() ? null : toList(String.join(";", value)));
+    }
+
+    private static void list(@NotNull List<String> args, @NotNull Scope scope) {
+        if (args.size() < 2) return;
+
+        String name = args.get(1);
+        List<String> rest = args.subList(2, args.size());
+        List<String> current = scope.get(name);
+        ArrayList<String> items = current == null ? new ArrayList<>() : new ArrayList<>(current);
+
+        switch (args.get(0)) {
+            case "APPEND":
+                if (rest.isEmpty()) return;
+                items.addAll(rest);
+                break;
+
+            case "PREPEND":
+                if (rest.isEmpty()) return;
+                items.addAll(0, rest);
+                break;
+
+            case "INSERT": {
+                if (rest.size() < 2) return;
+                int index = toIndex(rest.get(0), items.size() + 1);
+                if (index < 0) return;
+                items.addAll(index, rest.subList(1, rest.size()));
+                break;
+            }
+
+            case "REMOVE_ITEM":
+                if (current == null) return;
+                items.removeAll(rest);
+                break;
+
+            case "REMOVE_AT": {
+                if (current == null) return;
+                boolean[] removed = new boolean[items.size()];
+                for (String arg : rest) {
+                    int index = toIndex(arg, items.size());
+                    if (index < 0) return;
+                    removed[index] = true;
+                }
+                ArrayList<String> kept = new ArrayList<>();
+                for (int i = 0; i < removed.length; i++) {
+                    if (!removed[i]) kept.add(items.get(i));
+                }
+                items = kept;
+                break;
+            }
+
+            case "REMOVE_DUPLICATES":
+                if (current == null) return;
+                items = new ArrayList<>(new LinkedHashSet<>(items));
+                break;
+
+            case "REVERSE":
+                if (current == null) return;
+                Collections.reverse(items);
+                break;
+
+            case "SORT":
+                if (current == null) return;
+                Collections.sort(items);
+                break;
+
+            case "LENGTH":
+                if (rest.size() != 1) return;
+                scope.set(rest.get(0), toList(String.valueOf(items.size())));
+                return;
+
+            case "GET": {
+                if (rest.size() < 2) return;
+                ArrayList<String> found = new ArrayList<>();
+                for (String arg : rest.subList(0, rest.size() - 1)) {
+                    int index = toIndex(arg, items.size());
+                    if (index < 0) return;
+                    found.add(items.get(index));
+                }
+                scope.set(rest.get(rest.size() - 1), toList(String.join(";", found)));
+                return;
+            }
+
+            case "FIND":
+                if (rest.size() != 2) return;
+                scope.set(rest.get(1), toList(String.valueOf(items.indexOf(rest.get(0)))));
+                return;
+
+            case "JOIN":
+                if (rest.size() != 2) return;
+                scope.set(rest.get(1), toList(String.join(rest.get(0), items)));
+                return;
+
+            default:
+                return;
+        }
+
+        scope.set(name, toList(String.join(";", items)));
+    }
+
+    private static void string(@NotNull List<String> args, @NotNull Scope scope) {
+        if (args.size() < 2) return;
+
+        List<String> rest = args.subList(1, args.size());
+        String last = rest.get(rest.size() - 1);
+
+        switch (args.get(0)) {
+            case "APPEND":
+            case "PREPEND": {
+                String name = rest.get(0);
+                String current = scope.isDefined(name) ? String.join(";", scope.get(name)) : "";
+                String text = String.join("", rest.subList(1, rest.size()));
+                scope.set(name, toList(args.get(0).equals("APPEND") ? current + text : text + current));
+                break;
+            }
+
+            case "CONCAT":
+                scope.set(rest.get(0), toList(String.join("", rest.subList(1, rest.size()))));
+                break;
+
+            case "JOIN":
+                if (rest.size() < 2) return;
+                scope.set(rest.get(1), toList(String.join(rest.get(0), rest.subList(2, rest.size()))));
+                break;
+
+            case "TOUPPER":
+            case "TOLOWER":
+            case "STRIP":
+            case "LENGTH": {
+                if (rest.size() != 2) return;
+                String input = rest.get(0);
+                String result;
+                switch (args.get(0)) {
+                    case "TOUPPER":
+                        result = input.toUpperCase(Locale.ROOT);
+                        break;
+                    case "TOLOWER":
+                        result = input.toLowerCase(Locale.ROOT);
+                        break;
+                    case "STRIP":
+                        result = input.trim();
+                        break;
+                    default:
+                        result = String.valueOf(input.length());
+                        break;
+                }
+                scope.set(last, toList(result));
+                break;
+            }
+
+            case "REPLACE":
+                if (rest.size() < 3) return;
+                scope.set(rest.get(2), toList(String.join("", rest.subList(3, rest.size())).replace(rest.get(0), rest.get(1))));
+                break;
+
+            case "SUBSTRING": {
+                if (rest.size() != 4) return;
+                String input = rest.get(0);
+                try {
+                    int begin = Integer.parseInt(rest.get(1));
+                    int length = Integer.parseInt(rest.get(2));
+                    if (begin < 0 || begin > input.length() || length < -1) return;
+                    int end = length == -1 ? input.length() : Math.min(input.length(), begin + length);
+                    scope.set(last, toList(input.substring(begin, end)));
+                } catch (NumberFormatException ignored) {
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return index in [0, size), negative indices count from end, -1 if not an index or out of range
+     */
+    private static int toIndex(@NotNull String text, int size) {
+        try {
+            int index = Integer.parseInt(text);
+            if (index < 0) index += size;
+            return index >= 0 && index < size ? index : -1;
+        } catch (NumberFormatException ignored) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return value list of text, empty for empty text
+     */
+    @NotNull
+    static List<String> toList(@NotNull String text) {
+        if (text.isEmpty()) return Collections.emptyList();
+        if (text.indexOf(';') < 0) return Collections.singletonList(text);
+        return Collections.unmodifiableList(Arrays.asList(text.split(";", -1)));
+    }
+
+    @NotNull
+    private Template getTemplate(@NotNull String text) {
+        Template template = templates.get(text);
+        if (template == null) {
+            if (templates.size() >= MAX_TEMPLATES) templates.clear();
+            template = Template.compile(text);
+            templates.put(text, template);
+        }
+        return template;
+    }
+
+    /**
+     * Expanded arguments of a command, unquoted arguments are split into list items and empty items are removed
+     */
+    @NotNull
+    private List<String> getArguments(@NotNull Command command, @NotNull Lookup lookup) {
+        ArrayList<String> args = new ArrayList<>();
+        for (Node node = command.getFirstChild(); node != null; node = node.getNext()) {
+            if (node instanceof Argument) {
+                Argument arg = (Argument) node;
+                BasedSequence openingMarker = arg.getOpeningMarker();
+                String text = arg.getText().toString();
+
+                if (openingMarker.isNotNull()) {
+                    args.add(openingMarker.startsWith("[") ? text : getTemplate(text).resolve(lookup));
+                } else {
+                    String value = getTemplate(text).resolve(lookup);
+                    if (value.indexOf(';') < 0) {
+                        if (!value.isEmpty()) args.add(value);
+                    } else {
+                        for (String item : value.split(";")) {
+                            if (!item.isEmpty()) args.add(item);
+                        }
+                    }
+                }
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Expanded if() arguments, one token per argument
+     */
+    @NotNull
+    private List<Token> getTokens(@NotNull Command command, @NotNull Lookup lookup) {
+        ArrayList<Token> tokens = new ArrayList<>();
+        for (Node node = command.getFirstChild(); node != null; node = node.getNext()) {
+            if (node instanceof Argument) {
+                Argument arg = (Argument) node;
+                BasedSequence openingMarker = arg.getOpeningMarker();
+                String text = arg.getText().toString();
+                boolean bracket = openingMarker.isNotNull() && openingMarker.startsWith("[");
+                tokens.add(new Token(bracket ? text : getTemplate(text).resolve(lookup), openingMarker.isNotNull()));
+            }
+        }
+        return tokens;
+    }
+
+    private interface Lookup {
+        @Nullable
+        List<String> get(@NotNull String name);
+    }
+
+    /**
+     * Argument text compiled into segments
+     */
+    static class Template {
+        final private static Template EMPTY = new Template(new Object[0]);
+
+        // literal String or Template of a referenced variable name
+        final private Object[] segments;
+
+        private Template(Object[] segments) {
+            this.segments = segments;
+        }
+
+        @NotNull
+        static Template compile(@NotNull String text) {
+            if (text.indexOf('$') < 0) return new Template(new Object[] { text });
+
+            ArrayList<Object> segments = new ArrayList<>();
+            int length = text.length();
+            int literalStart = 0;
+            int i = 0;
+
+            while (i < length) {
+                int start = text.indexOf('$', i);
+                if (start < 0) break;
+
+                int nameStart;
+                if (text.startsWith("${", start)) nameStart = start + 2;
+                else if (text.startsWith("$ENV{", start)) nameStart = start + 5;
+                else if (text.startsWith("$CACHE{", start)) nameStart = start + 7;
+                else {
+                    i = start + 1;
+                    continue;
+                }
+
+                int nameEnd = findClose(text, nameStart);
+                if (nameEnd < 0) break;
+
+                if (literalStart < start) segments.add(text.substring(literalStart, start));
+                if (nameStart == start + 2) segments.add(compile(text.substring(nameStart, nameEnd)));
+                literalStart = i = nameEnd + 1;
+            }
+
+            if (literalStart < length) segments.add(text.substring(literalStart));
+            return segments.isEmpty() ? EMPTY : new Template(segments.toArray());
+        }
+
+        private static int findClose(@NotNull String text, int start) {
+            int open = 0;
+            for (int i = start; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '{') open++;
+                else if (c == '}' && open-- == 0) return i;
+            }
+            return -1;
+        }
+
+        @NotNull
+        String resolve(@NotNull Lookup lookup) {
+            if (segments.length == 1 && segments[0] instanceof String) return (String) segments[0];
+
+            StringBuilder sb = new StringBuilder();
+            for (Object segment : segments) {
+                if (segment instanceof String) {
+                    sb.append((String) segment);
+                } else {
+                    List<String> value = lookup.get(((Template) segment).resolve(lookup));
+                    if (value != null) {
+                        String sep = "";
+                        for (String item : value) {
+                            sb.append(sep).append(item);
+                            sep = ";";
+                        }
+                    }
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Variables read and written by a command, reads are recorded with their value before the first write
+     */
+    private class Scope implements Lookup {
+        final LinkedHashMap<String, List<String>> reads = new LinkedHashMap<>();
+        final LinkedHashMap<String, List<String>> writes = new LinkedHashMap<>();
+
+        @Nullable
+        @Override
+        public List<String> get(@NotNull String name) {
+            List<String> value = values.get(name);
+            if (!writes.containsKey(name) && !reads.containsKey(name)) reads.put(name, value);
+            return value;
+        }
+
+        boolean isDefined(@NotNull String name) {
+            return get(name) != null;
+        }
+
+        void set(@NotNull String name, @Nullable List<String> value) {
+            if (value == null) values.remove(name);
+            else values.put(name, value);
+            writes.put(name, value);
+        }
+
+        @NotNull
+        Step toStep(boolean result) {
+            return new Step(reads.keySet().toArray(new String[0]), new ArrayList<>(reads.values()),
+                    writes.keySet().toArray(new String[0]), new ArrayList<>(writes.values()), result);
+        }
+    }
+
+    /**
+     * Memoized result of a command evaluation
+     */
+    private static class Step {
+        final String[] readNames;
+        final List<List<String>> readValues;
+        final String[] writeNames;
+        final List<List<String>> writeValues;
+        final boolean result;
+
+        Step(String[] readNames, List<List<String>> readValues, String[] writeNames, List<List<String>> writeValues, boolean result) {
+            this.readNames = readNames;
+            this.readValues = readValues;
+            this.writeNames = writeNames;
+            this.writeValues = writeValues;
+            this.result = result;
+        }
+
+        boolean isCurrent(@NotNull Map<String, List<String>> values) {
+            for (int i = 0; i < readNames.length; i++) {
+                List<String> value = values.get(readNames[i]);
+                List<String> readValue = readValues.get(i);
+                if (value != readValue && !Objects.equals(value, readValue)) return false;
+            }
+            return true;
+        }
+
+        void apply(@NotNull Map<String, List<String>> values) {
+            for (int i = 0; i < writeNames.length; i++) {
+                List<String> value = writeValues.get(i);
+                if (value == null) values.remove(writeNames[i]);
+                else values.put(writeNames[i], value);
+            }
+        }
+    }
+
+    private static class Token {
+        final String value;
+        final boolean quoted;
+
+        Token(String value, boolean quoted) {
+            this.value = value;
+            this.quoted = quoted;
+        }
+    }
+
+    /**
+     * if() condition with NOT, AND, OR, parentheses, DEFINED, IS_ABSOLUTE, string, numeric and version comparisons,
+     * MATCHES and IN_LIST. Other tests, EXISTS, COMMAND, TARGET and the like, are false.
+     */
+    private static class Condition {
+        final private static Set<String> UNARY = new HashSet<>(Arrays.asList(
+                "DEFINED", "EXISTS", "COMMAND", "POLICY", "TARGET", "TEST", "IS_DIRECTORY", "IS_SYMLINK", "IS_ABSOLUTE"
+        ));
+
+        final private static Set<String> BINARY = new HashSet<>(Arrays.asList(
+                "STREQUAL", "STRLESS", "STRGREATER", "STRLESS_EQUAL", "STRGREATER_EQUAL",
+                "EQUAL", "LESS", "GREATER", "LESS_EQUAL", "GREATER_EQUAL",
+                "VERSION_EQUAL", "VERSION_LESS", "VERSION_GREATER", "VERSION_LESS_EQUAL", "VERSION_GREATER_EQUAL",
+                "MATCHES", "IN_LIST"
+        ));
+
+        final private static Set<String> TRUE_CONSTANTS = new HashSet<>(Arrays.asList("1", "ON", "YES", "TRUE", "Y"));
+        final private static Set<String> FALSE_CONSTANTS = new HashSet<>(Arrays.asList("0", "OFF", "NO", "FALSE", "N", "IGNORE", "NOTFOUND", ""));
+
+        final private List<Token> tokens;
+        final private Scope scope;
+        private int pos;
+
+        Condition(List<Token> tokens, Scope scope) {
+            this.tokens = tokens;
+            this.scope = scope;
+        }
+
+        boolean evaluate() {
+            return !tokens.isEmpty() && or();
+        }
+
+        private boolean isKeyword(@NotNull String keyword) {
+            if (pos >= tokens.size()) return false;
+            Token token = tokens.get(pos);
+            return !token.quoted && token.value.equals(keyword);
+        }
+
+        private boolean or() {
+            boolean result = and();
+            while (isKeyword("OR")) {
+                pos++;
+                boolean operand = and();
+                result = result || operand;
+            }
+            return result;
+        }
+
+        private boolean and() {
+            boolean result = not();
+            while (isKeyword("AND")) {
+                pos++;
+                boolean operand = not();
+                result = result && operand;
+            }
+            return result;
+        }
+
+        private boolean not() {
+            if (isKeyword("NOT")) {
+                pos++;
+                return !not();
+            }
+            return primary();
+        }
+
+        private boolean primary() {
+            if (pos >= tokens.size()) return false;
+
+            if (isKeyword("(")) {
+                pos++;
+                boolean result = or();
+                if (isKeyword(")")) pos++;
+                return result;
+            }
+
+            Token token = tokens.get(pos++);
+
+            if (!token.quoted && UNARY.contains(token.value) && pos < tokens.size()) {
+                Token operand = tokens.get(pos++);
+                switch (token.value) {
+                    case "DEFINED":
+                        return !operand.value.startsWith("ENV{") && !operand.value.startsWith("CACHE{") && scope.isDefined(operand.value);
+                    case "IS_ABSOLUTE":
+                        return new File(operand.value).isAbsolute();
+                    default:
+                        return false;
+                }
+            }
+
+            if (pos + 1 < tokens.size()) {
+                Token operator = tokens.get(pos);
+                if (!operator.quoted && BINARY.contains(operator.value)) {
+                    Token right = tokens.get(pos + 1);
+                    pos += 2;
+                    return compare(operator.value, token, right);
+                }
+            }
+
+            return isTrue(token);
+        }
+
+        @NotNull
+        private String valueOf(@NotNull Token token) {
+            if (!token.quoted) {
+                List<String> value = scope.get(token.value);
+                if (value != null) return String.join(";", value);
+            }
+            return token.value;
+        }
+
+        private boolean isTrue(@NotNull Token token) {
+            String upper = token.value.toUpperCase(Locale.ROOT);
+            if (TRUE_CONSTANTS.contains(upper)) return true;
+            if (FALSE_CONSTANTS.contains(upper) || upper.endsWith("-NOTFOUND")) return false;
+
+            Double number = toNumber(token.value);
+            if (number != null) return number != 0;
+            if (token.quoted) return false;
+
+            List<String> value = scope.get(token.value);
+            if (value == null) return false;
+
+            String text = String.join(";", value).toUpperCase(Locale.ROOT);
+            return !FALSE_CONSTANTS.contains(text) && !text.endsWith("-NOTFOUND");
+        }
+
+        private boolean compare(@NotNull String operator, @NotNull Token left, @NotNull Token right) {
+            switch (operator) {
+                case "MATCHES":
+                    try {
+                        return Pattern.compile(right.value).matcher(valueOf(left)).find();
+                    } catch (PatternSyntaxException ignored) {
+                        return false;
+                    }
+
+                case "IN_LIST": {
+                    List<String> list = scope.get(right.value);
+                    return list != null && list.contains(valueOf(left));
+                }
+            }
+
+            String leftValue = valueOf(left);
+            String rightValue = valueOf(right);
+            int compared;
+
+            if (operator.startsWith("STR")) {
+                compared = leftValue.compareTo(rightValue);
+                operator = operator.substring(3);
+            } else if (operator.startsWith("VERSION_")) {
+                compared = compareVersions(leftValue, rightValue);
+                operator = operator.substring(8);
+            } else {
+                Double leftNumber = toNumber(leftValue);
+                Double rightNumber = toNumber(rightValue);
+                if (leftNumber == null || rightNumber == null) return false;
+                compared = leftNumber.compareTo(rightNumber);
+            }
+
+            switch (operator) {
+                case "EQUAL":
+                    return compared == 0;
+                case "LESS":
+                    return compared < 0;
+                case "GREATER":
+                    return compared > 0;
+                case "LESS_EQUAL":
+                    return compared <= 0;
+                case "GREATER_EQUAL":
+                    return compared >= 0;
+                default:
+                    return false;
+            }
+        }
+
+        @Nullable
+        private static Double toNumber(@NotNull String text) {
+            if (text.isEmpty() || !(Character.isDigit(text.charAt(0)) || text.charAt(0) == '-' || text.charAt(0) == '+' || text.charAt(0) == '.')) return null;
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException ignored) {
+                return null;
+            }
+        }
+
+        static int compareVersions(@NotNull String left, @NotNull String right) {
+            String[] leftParts = left.split("\\.");
+            String[] rightParts = right.split("\\.");
+            int count = Math.max(leftParts.length, rightParts.length);
+
+            for (int i = 0; i < count; i++) {
+                long leftPart = i < leftParts.length ? versionPart(leftParts[i]) : 0;
+                long rightPart = i < rightParts.length ? versionPart(rightParts[i]) : 0;
+                if (leftPart != rightPart) return leftPart < rightPart ? -1 : 1;
+            }
+            return 0;
+        }
+
+        private static long versionPart(@NotNull String part) {
+            long value = 0;
+            for (int i = 0; i < part.length() && Character.isDigit(part.charAt(i)) && value < Integer.MAX_VALUE; i++) {
+                value = value * 10 + part.charAt(i) - '0';
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * UTF-8 file contents as a character sequence backed by a memory mapped buffer, without a copy of the text on the heap
+ * <p>
+ * Can be parsed directly with {@code BasedSequenceImpl.of(sequence)}. ASCII characters are read from the buffer,
+ * for mostly ASCII text the non-ASCII characters are decoded once into a table ordered by character index.
+ * Text with many non-ASCII characters is decoded into a char array instead. Malformed UTF-8 bytes are
+ * decoded as U+FFFD, one per byte.
+ * <p>
+ * The file must not be changed while the sequence is in use, the mapping is released when the sequence is
+ * garbage collected.
+ */
+public class MappedCharSequence implements CharSequence {
+    // files smaller than this are read into a String by read(), mapping has a higher setup cost
+    final public static int MIN_MAPPED_SIZE = 256 * 1024;
+
+    // decode to char array if non-ASCII characters are more than 1 / DECODE_RATIO of the text
+    final private static int DECODE_RATIO = 8;
+    final private static char REPLACEMENT = '\uFFFD';
+
+    final private ByteBuffer bytes;
+    final private char[] chars;
+
+    // non-ASCII characters: character index, character and byte offset following its code point
+    final private int[] exceptionIndices;
+    final private char[] exceptionChars;
+    final private int[] exceptionNextBytes;
+    final private int exceptionCount;
+
+    final private int startIndex;
+    final private int length;
+
+    // index of last exception used, hint for sequential access, any value is valid
+    private int lastException;
+
+    private MappedCharSequence(ByteBuffer bytes, char[] chars, int[] exceptionIndices, char[] exceptionChars, int[] exceptionNextBytes, int exceptionCount, int startIndex, int length) {
+        this.bytes = bytes;
+        this.chars = chars;
+        this.exceptionIndices = exceptionIndices;
+        this.exceptionChars = exceptionChars;
+        this.exceptionNextBytes = exceptionNextBytes;
+        this.exceptionCount = exceptionCount;
+        this.startIndex = startIndex;
+        this.length = length;
+    }
+
+    /**
+     * Map file
+     *
+     * @param file file
+     * @return file contents
+     * @throws IOException if file cannot be read or is larger than 2GB
+     */
+    @NotNull
+    public static MappedCharSequence of(@NotNull File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file + ", " + size + " bytes");
+            }
+            return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * @param file file
+     * @return file contents, memory mapped if the file has at least {@link #MIN_MAPPED_SIZE} bytes
+     * @throws IOException if file cannot be read
+     */
+    @NotNull
+    public static CharSequence read(@NotNull File file) throws IOException {
+        if (file.length() >= MIN_MAPPED_SIZE) return of(file);
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param buffer UTF-8 bytes, from position to limit, the buffer must not be changed while the sequence is in use
+     * @return sequence of decoded bytes
+     */
+    @NotNull
+    public static MappedCharSequence of(@NotNull ByteBuffer buffer) {
+        ByteBuffer bytes = buffer.slice();
+        int size = bytes.limit();
+
+        int[] indices = new int[16];
+        char[] values = new char[16];
+        int[] nextBytes = new int[16];
+        int count = 0;
+        int maxCount = size / DECODE_RATIO;
+        int charIndex = 0;
+        int i = 0;
+
+        while (i < size) {
+            int b = bytes.get(i);
+            if (b >= 0) {
+                i++;
+                charIndex++;
+                continue;
+            }
+
+            if (count + 2 > maxCount) return decoded(bytes);
+
+            if (count + 2 > indices.length) {
+                int capacity = Math.min(indices.length * 2, maxCount);
+                indices = Arrays.copyOf(indices, capacity);
+                values = Arrays.copyOf(values, capacity);
+                nextBytes = Arrays.copyOf(nextBytes, capacity);
+            }
+
+            int codePoint = decode(bytes, i, size);
+            int next = i + (codePoint < 0 ? 1 : codePointBytes(codePoint));
+
+            if (codePoint < 0) {
+                indices[count] = charIndex++;
+                values[count] = REPLACEMENT;
+                nextBytes[count++] = next;
+            } else if (Character.isBmpCodePoint(codePoint)) {
+                indices[count] = charIndex++;
+                values[count] = (char) codePoint;
+                nextBytes[count++] = next;
+            } else {
+                indices[count] = charIndex++;
+                values[count] = Character.highSurrogate(codePoint);
+                nextBytes[count++] = next;
+                indices[count] = charIndex++;
+                values[count] = Character.lowSurrogate(codePoint);
+                nextBytes[count++] = next;
+            }
+            i = next;
+        }
+
+        return new MappedCharSequence(bytes, null, indices, values, nextBytes, count, 0, charIndex);
+    }
+
+    @NotNull
+    private static MappedCharSequence decoded(@NotNull ByteBuffer bytes) {
+        char[] chars = new char[bytes.limit()];
+        int size = bytes.limit();
+        int length = 0;
+        int i = 0;
+
+        while (i < size) {
+            int b = bytes.get(i);
+            if (b >= 0) {
+                chars[length++] = (char) b;
+                i++;
+                continue;
+            }
+
+            int codePoint = decode(bytes, i, size);
+            if (codePoint < 0) {
+                chars[length++] = REPLACEMENT;
+                i++;
+            } else {
+                length += Character.toChars(codePoint, chars, length);
+                i += codePointBytes(codePoint);
+            }
+        }
+
+        return new MappedCharSequence(null, length == chars.length ? chars : Arrays.copyOf(chars, length), null, null, null, 0, 0, length);
+    }
+
+    private static int codePointBytes(int codePoint) {
+        return codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+    }
+
+    /**
+     * @return code point of multi byte sequence at index or -1 if malformed
+     */
+    private static int decode(@NotNull ByteBuffer bytes, int index, int size) {
+        int b = bytes.get(index) & 0xff;
+        int count;
+        int codePoint;
+        int min;
+
+        if (b >= 0xC2 && b <= 0xDF) {
+            count = 1;
+            codePoint = b & 0x1F;
+            min = 0x80;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            count = 2;
+            codePoint = b & 0x0F;
+            min = 0x800;
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            count = 3;
+            codePoint = b & 0x07;
+            min = 0x10000;
+        } else {
+            return -1;
+        }
+
+        if (index + count >= size) return -1;
+
+        for (int i = 1; i <= count; i++) {
+            int c = bytes.get(index + i) & 0xff;
+            if ((c & 0xC0) != 0x80) return -1;
+            codePoint = (codePoint << 6) | (c & 0x3F);
+        }
+
+        if (codePoint < min || codePoint > Character.MAX_CODE_POINT || codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) return -1;
+        return codePoint;
+    }
+
+    /**
+     * @return true if text is read from a mapped buffer, false if it was decoded into a char array
+     */
+    public boolean isMapped() {
+        return chars == null;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range [0, " + length + ")");
+        }
+
+        int charIndex = startIndex + index;
+        if (chars != null) return chars[charIndex];
+        if (exceptionCount == 0) return (char) bytes.get(charIndex);
+
+        int exception = findException(charIndex);
+        if (exception < 0) return (char) bytes.get(charIndex);
+        if (exceptionIndices[exception] == charIndex) return exceptionChars[exception];
+
+        // ASCII characters between exceptions
+        return (char) bytes.get(exceptionNextBytes[exception] + charIndex - exceptionIndices[exception] - 1);
+    }
+
+    /**
+     * @return index of last exception at or before char index, -1 if none
+     */
+    private int findException(int charIndex) {
+        int hint = lastException;
+        if (hint < exceptionCount && exceptionIndices[hint] <= charIndex) {
+            if (hint + 1 == exceptionCount || exceptionIndices[hint + 1] > charIndex) return hint;
+            if (hint + 2 == exceptionCount || exceptionIndices[hint + 2] > charIndex) {
+                lastException = hint + 1;
+                return hint + 1;
+            }
+        }
+
+        int found = Arrays.binarySearch(exceptionIndices, 0, exceptionCount, charIndex);
+        if (found < 0) found = -found - 2;
+        if (found >= 0) lastException = found;
+        return found;
+    }
+
+    @NotNull
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of range [0, " + length + ")");
+        }
+        return new MappedCharSequence(bytes, chars, exceptionIndices, exceptionChars, exceptionNextBytes, exceptionCount, startIndex + start, end - start);
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        if (chars != null) return new String(chars, startIndex, length);
+
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(charAt(i));
+        }
+        return sb.toString();
+    }
+}
@@ -4,11 +4,17 @@ import com.vladsch.flexmark.util.ast.Document;
 import com.vladsch.flexmark.util.Pair;
 import com.vladsch.flexmark.util.data.DataHolder;
 import com.vladsch.flexmark.util.sequence.BasedSequence;
+import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
 
 public class CMakeFile extends Document {
     final private List<Pair<String, BasedSequence>> errors;
+    private ElementBoundaries elementBoundaries;
+
+    // built on first use, documents are shared between threads by the parse cache
+    private volatile CommandBlockIndex commandBlocks;
+    private volatile CommandNameIndex commandNames;
 
     public CMakeFile(final DataHolder options, final BasedSequence chars, List<Pair<String, BasedSequence>> errors) {
         super(options, chars);
@@ -18,4 +24,66 @@ public class CMakeFile extends Document {
     public List<Pair<String, BasedSequence>> getErrors() {
         return errors;
     }
+
+    public ElementBoundaries getElementBoundaries() {
+        return elementBoundaries;
+    }
+
+    public void setElementBoundaries(final ElementBoundaries elementBoundaries) {
+        this.elementBoundaries = elementBoundaries;
+    }
+
+    /**
+     * Block structure of top level commands
+     * <p>
+     * The index is not built by the parser, it is built on the first call and the same index is returned
+     * after that. It is not updated if the document's nodes are changed after the first call.
+     *
+     * @return block structure of top level commands
+     */
+    public CommandBlockIndex getCommandBlocks() {
+        CommandBlockIndex commandBlocks = this.commandBlocks;
+        if (commandBlocks == null) {
+            synchronized (this) {
+                commandBlocks = this.commandBlocks;
+                if (commandBlocks == null) {
+                    commandBlocks = CommandBlockIndex.of(this);
+                    this.commandBlocks = commandBlocks;
+                }
+            }
+        }
+        return commandBlocks;
+    }
+
+    /**
+     * Top level commands by case-insensitive name, used by {@link #getCommands(String...)}
+     * <p>
+     * The index is not built during parsing, it is built on the first call, so documents which are only
+     * rendered do not pay for it. The same index is returned after that and it is not updated if the
+     * document's nodes are changed after the first call.
+     *
+     * @return top level commands by case-insensitive name
+     */
+    public CommandNameIndex getCommandNames() {
+        CommandNameIndex commandNames = this.commandNames;
+        if (commandNames == null) {
+            synchronized (this) {
+                commandNames = this.commandNames;
+                if (commandNames == null) {
+                    commandNames = CommandNameIndex.of(this);
+                    this.commandNames = commandNames;
+                }
+            }
+        }
+        return commandNames;
+    }
+
+    /**
+     * @param names command names, any case
+     * @return top level commands, other than commented out commands, with any of the names in document order
+     */
+    @NotNull
+    public List<Command> getCommands(@NotNull String... names) {
+        return getCommandNames().getCommands(names);
+    }
 }
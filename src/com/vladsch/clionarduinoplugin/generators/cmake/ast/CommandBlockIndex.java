@@ -0,0 +1,277 @@
+package com.vladsch.clionarduinoplugin.generators.cmake.ast;
+
+import com.vladsch.flexmark.util.ast.Node;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+
+/**
+ * Block structure of top level commands of a document: if/elseif/else/endif, foreach/endforeach,
+ * while/endwhile, function/endfunction and macro/endmacro, built in a single pass on first use
+ * <p>
+ * Commands are indexed in document order, commented out commands are not included. For each command
+ * the index has its nesting depth, the command opening the block it belongs to, the command closing
+ * that block and the block enclosing it. Block commands, openers, elseif/else and closers, have the depth
+ * of the block and belong to it, commands in the block body are one level deeper and are enclosed by it.
+ * <p>
+ * Unterminated blocks have no closing command, unmatched closers and elseif/else outside an if block
+ * are not part of any block. A closer without a matching opener on top of the stack closes the innermost
+ * matching block, blocks nested in it are left unterminated.
+ */
+public class CommandBlockIndex {
+    // block command kinds
+    final public static int NONE = 0;
+    final public static int OPEN = 1;
+    final public static int ELSE = 2;
+    final public static int CLOSE = 3;
+
+    final private Command[] commands;
+    final private IdentityHashMap<Node, Integer> indices;
+    final private int[] depths;
+    final private int[] openers;
+    final private int[] closers;
+    final private int[] parents;
+    final private int maxDepth;
+
+    private CommandBlockIndex(Command[] commands, int[] depths, int[] openers, int[] closers, int[] parents, int maxDepth) {
+        this.commands = commands;
+        this.depths = depths;
+        this.openers = openers;
+        this.closers = closers;
+        this.parents = parents;
+        this.maxDepth = maxDepth;
+        this.indices = new IdentityHashMap<>(commands.length);
+
+        for (int i = 0; i < commands.length; i++) {
+            indices.put(commands[i], i);
+        }
+    }
+
+    /**
+     * Build index of top level commands of document
+     *
+     * @param document document
+     * @return block index
+     */
+    @NotNull
+    public static CommandBlockIndex of(@NotNull Node document) {
+        int count = 0;
+        for (Node node = document.getFirstChild(); node != null; node = node.getNext()) {
+            if (isIndexed(node)) count++;
+        }
+
+        Command[] commands = new Command[count];
+        int[] depths = new int[count];
+        int[] openers = new int[count];
+        int[] closers = new int[count];
+        int[] parents = new int[count];
+        Arrays.fill(openers, -1);
+        Arrays.fill(closers, -1);
+
+        // stack of open block command indices
+        int[] stack = new int[16];
+        int top = 0;
+        int maxDepth = 0;
+        int i = 0;
+
+        for (Node node = document.getFirstChild(); node != null; node = node.getNext()) {
+            if (!isIndexed(node)) continue;
+
+            Command command = (Command) node;
+            commands[i] = command;
+            String name = command.getCommand().toString().toLowerCase(Locale.ROOT);
+
+            switch (getKind(name)) {
+                case OPEN:
+                    depths[i] = top;
+                    openers[i] = i;
+                    parents[i] = top > 0 ? stack[top - 1] : -1;
+                    if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                    stack[top++] = i;
+                    if (maxDepth < top) maxDepth = top;
+                    break;
+
+                case ELSE:
+                    if (top > 0 && getOpenerName(name).equals(commands[stack[top - 1]].getCommand().toString().toLowerCase(Locale.ROOT))) {
+                        int opener = stack[top - 1];
+                        depths[i] = top - 1;
+                        openers[i] = opener;
+                        parents[i] = parents[opener];
+                    } else {
+                        depths[i] = top;
+                        parents[i] = top > 0 ? stack[top - 1] : -1;
+                    }
+                    break;
+
+                case CLOSE: {
+                    String openerName = getOpenerName(name);
+                    int level = top;
+                    while (level > 0 && !openerName.equals(commands[stack[level - 1]].getCommand().toString().toLowerCase(Locale.ROOT))) level--;
+
+                    if (level > 0) {
+                        top = level - 1;
+                        int opener = stack[top];
+                        depths[i] = top;
+                        openers[i] = opener;
+                        parents[i] = parents[opener];
+                        closers[opener] = i;
+                    } else {
+                        depths[i] = top;
+                        parents[i] = top > 0 ? stack[top - 1] : -1;
+                    }
+                    break;
+                }
+
+                default:
+                    depths[i] = top;
+                    parents[i] = top > 0 ? stack[top - 1] : -1;
+                    break;
+            }
+            i++;
+        }
+
+        return new CommandBlockIndex(commands, depths, openers, closers, parents, maxDepth);
+    }
+
+    private static boolean isIndexed(@NotNull Node node) {
+        return node instanceof Command && !(node instanceof CommentedOutCommand);
+    }
+
+    /**
+     * @param name lowercase command name
+     * @return block command kind of the name
+     */
+    public static int getKind(@NotNull String name) {
+        switch (name) {
+            case "if":
+            case "foreach":
+            case "while":
+            case "function":
+            case "macro":
+                return OPEN;
+
+            case "elseif":
+            case "else":
+                return ELSE;
+
+            case "endif":
+            case "endforeach":
+            case "endwhile":
+            case "endfunction":
+            case "endmacro":
+                return CLOSE;
+
+            default:
+                return NONE;
+        }
+    }
+
+    @NotNull
+    private static String getOpenerName(@NotNull String name) {
+        return name.startsWith("end") ? name.substring(3) : "if";
+    }
+
+    /**
+     * @return number of indexed commands
+     */
+    public int size() {
+        return commands.length;
+    }
+
+    /**
+     * @return maximum block nesting depth, 0 if there are no blocks
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    @NotNull
+    public Command getCommand(int index) {
+        return commands[index];
+    }
+
+    /**
+     * @param command command node
+     * @return index of command or -1 if it is not a top level command of the document
+     */
+    public int indexOf(@NotNull Node command) {
+        Integer index = indices.get(command);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param index command index
+     * @return nesting depth of command, 0 for top level
+     */
+    public int getDepth(int index) {
+        return depths[index];
+    }
+
+    /**
+     * @param index command index
+     * @return index of command opening the block to which the command belongs, -1 if not a block command or unmatched
+     */
+    public int getOpenerIndex(int index) {
+        return openers[index];
+    }
+
+    /**
+     * @param index command index
+     * @return index of command closing the block to which the command belongs, -1 if not a block command or unterminated
+     */
+    public int getCloserIndex(int index) {
+        int opener = openers[index];
+        return opener < 0 ? -1 : closers[opener];
+    }
+
+    /**
+     * @param index command index
+     * @return index of command opening the block enclosing the command, -1 if at top level
+     */
+    public int getParentIndex(int index) {
+        return parents[index];
+    }
+
+    /**
+     * @param command command node
+     * @return nesting depth of command, -1 if not indexed
+     */
+    public int getDepth(@NotNull Node command) {
+        int index = indexOf(command);
+        return index < 0 ? -1 : depths[index];
+    }
+
+    /**
+     * @param command command node
+     * @return command opening the block to which the command belongs, null if not a matched block command
+     */
+    @Nullable
+    public Command getBlockOpener(@NotNull Node command) {
+        int index = indexOf(command);
+        return index < 0 || openers[index] < 0 ? null : commands[openers[index]];
+    }
+
+    /**
+     * @param command command node
+     * @return command closing the block to which the command belongs, for example endif() of an if(), null if none
+     */
+    @Nullable
+    public Command getBlockCloser(@NotNull Node command) {
+        int index = indexOf(command);
+        int closer = index < 0 ? -1 : getCloserIndex(index);
+        return closer < 0 ? null : commands[closer];
+    }
+
+    /**
+     * @param command command node
+     * @return command opening the block which encloses the command, null if at top level or not indexed
+     */
+    @Nullable
+    public Command getEnclosingBlock(@NotNull Node command) {
+        int index = indexOf(command);
+        return index < 0 || parents[index] < 0 ? null : commands[parents[index]];
+    }
+}
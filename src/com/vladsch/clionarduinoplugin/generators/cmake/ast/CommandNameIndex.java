@@ -0,0 +1,174 @@
+package com.vladsch.clionarduinoplugin.generators.cmake.ast;
+
+import com.vladsch.flexmark.util.ast.Node;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.RandomAccess;
+
+/**
+ * Top level commands of a document by command name, built on first use
+ * <p>
+ * Names are case-insensitive, as in CMake, and commands for a name are in document order.
+ * Commented out commands are not included.
+ */
+public class CommandNameIndex {
+    final private static int[] EMPTY_ORDINALS = new int[0];
+
+    final private Command[] commands;
+    final private HashMap<String, int[]> ordinals;
+
+    private CommandNameIndex(Command[] commands, HashMap<String, int[]> ordinals) {
+        this.commands = commands;
+        this.ordinals = ordinals;
+    }
+
+    /**
+     * Build index of top level commands of document
+     *
+     * @param document document
+     * @return name index
+     */
+    @NotNull
+    public static CommandNameIndex of(@NotNull Node document) {
+        int count = 0;
+        for (Node node = document.getFirstChild(); node != null; node = node.getNext()) {
+            if (isIndexed(node)) count++;
+        }
+
+        Command[] commands = new Command[count];
+        String[] names = new String[count];
+        HashMap<String, int[]> counts = new HashMap<>();
+        int i = 0;
+
+        for (Node node = document.getFirstChild(); node != null; node = node.getNext()) {
+            if (!isIndexed(node)) continue;
+
+            Command command = (Command) node;
+            String name = command.getCommand().toString().toLowerCase(Locale.ROOT);
+            commands[i] = command;
+            names[i] = name;
+
+            int[] nameCount = counts.get(name);
+            if (nameCount == null) counts.put(name, new int[] { 1 });
+            else nameCount[0]++;
+            i++;
+        }
+
+        HashMap<String, int[]> ordinals = new HashMap<>(counts.size() * 2);
+        for (i = 0; i < count; i++) {
+            int[] nameCount = counts.get(names[i]);
+            int[] nameOrdinals = ordinals.get(names[i]);
+            if (nameOrdinals == null) {
+                nameOrdinals = new int[nameCount[0]];
+                ordinals.put(names[i], nameOrdinals);
+                nameCount[0] = 0;
+            }
+            nameOrdinals[nameCount[0]++] = i;
+        }
+
+        return new CommandNameIndex(commands, ordinals);
+    }
+
+    private static boolean isIndexed(@NotNull Node node) {
+        return node instanceof Command && !(node instanceof CommentedOutCommand);
+    }
+
+    /**
+     * @return number of indexed commands
+     */
+    public int size() {
+        return commands.length;
+    }
+
+    /**
+     * @param name command name, any case
+     * @return true if document has a command with the name
+     */
+    public boolean hasCommand(@NotNull String name) {
+        return ordinals.containsKey(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param name command name, any case
+     * @return number of commands with the name
+     */
+    public int getCount(@NotNull String name) {
+        int[] nameOrdinals = ordinals.get(name.toLowerCase(Locale.ROOT));
+        return nameOrdinals == null ? 0 : nameOrdinals.length;
+    }
+
+    /**
+     * @param name command name, any case
+     * @return commands with the name in document order
+     */
+    @NotNull
+    public List<Command> getCommands(@NotNull String name) {
+        int[] nameOrdinals = ordinals.get(name.toLowerCase(Locale.ROOT));
+        return nameOrdinals == null ? Collections.emptyList() : new CommandList(commands, nameOrdinals);
+    }
+
+    /**
+     * @param names command names, any case
+     * @return commands with any of the names in document order
+     */
+    @NotNull
+    public List<Command> getCommands(@NotNull String... names) {
+        if (names.length == 1) return getCommands(names[0]);
+
+        int total = 0;
+        int[][] nameOrdinals = new int[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            int[] ordinals = this.ordinals.get(names[i].toLowerCase(Locale.ROOT));
+            if (ordinals != null && !contains(nameOrdinals, i, ordinals)) {
+                nameOrdinals[i] = ordinals;
+                total += ordinals.length;
+            }
+        }
+
+        if (total == 0) return Collections.emptyList();
+
+        int[] merged = new int[total];
+        int pos = 0;
+        for (int[] ordinals : nameOrdinals) {
+            if (ordinals == null) continue;
+            System.arraycopy(ordinals, 0, merged, pos, ordinals.length);
+            pos += ordinals.length;
+        }
+
+        Arrays.sort(merged);
+        return new CommandList(commands, merged);
+    }
+
+    private static boolean contains(int[][] nameOrdinals, int count, int[] ordinals) {
+        for (int i = 0; i < count; i++) {
+            if (nameOrdinals[i] == ordinals) return true;
+        }
+        return false;
+    }
+
+    private static class CommandList extends AbstractList<Command> implements RandomAccess {
+        final private Command[] commands;
+        final private int[] ordinals;
+
+        CommandList(Command[] commands, int[] ordinals) {
+            this.commands = commands;
+            this.ordinals = ordinals;
+        }
+
+        @Override
+        public Command get(int index) {
+            return commands[ordinals[index]];
+        }
+
+        @Override
+        public int size() {
+            return ordinals.length;
+        }
+    }
+}
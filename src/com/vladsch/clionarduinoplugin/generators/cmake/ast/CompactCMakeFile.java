@@ -0,0 +1,371 @@
+package com.vladsch.clionarduinoplugin.generators.cmake.ast;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.CMakeReader;
+import com.vladsch.clionarduinoplugin.generators.cmake.CMakeReaderHandler;
+import com.vladsch.clionarduinoplugin.generators.cmake.CMakeScanner;
+import com.vladsch.flexmark.util.Pair;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Compact alternative to {@link CMakeFile}, nodes are kept as offsets into the text in parallel int arrays
+ * <p>
+ * Holds the top level nodes the parser would add to the document, in document order, with the
+ * arguments of each command following it. Other command children, comments, line endings and separators,
+ * are not kept. {@link #getNode(int)} creates a node view with the same content as the parser's node when needed.
+ * <p>
+ * When read with a command filter only the commands passing the filter and their arguments are kept,
+ * other nodes are scanned for errors but not kept.
+ */
+public class CompactCMakeFile {
+    // node kinds
+    final public static int COMMAND = 1;
+    final public static int COMMENTED_OUT_COMMAND = 2;
+    final public static int ARGUMENT = 3;
+    final public static int SEPARATOR = 4;
+    final public static int LINE_COMMENT = 5;
+    final public static int BRACKET_COMMENT = 6;
+    final public static int LINE_ENDING = 7;
+    final public static int BLANK_LINE = 8;
+    final public static int UNRECOGNIZED_INPUT = 9;
+
+    final private BasedSequence chars;
+    final private @Nullable DataHolder options;
+
+    // for commands text is the command name, for arguments the argument text without quotes or brackets
+    private int[] kinds;
+    private int[] starts;
+    private int[] ends;
+    private int[] textStarts;
+    private int[] textEnds;
+    private int[] parents;
+    private int[] nexts;
+    private int size;
+
+    private String[] errorMessages;
+    private int[] errorStarts;
+    private int[] errorEnds;
+    private int errorCount;
+
+    /**
+     * Read text with the same options as {@link com.vladsch.clionarduinoplugin.generators.cmake.CMakeParser}
+     *
+     * @param chars   text
+     * @param options parser options
+     */
+    public CompactCMakeFile(@NotNull BasedSequence chars, @Nullable DataHolder options) {
+        this(chars, options, null);
+    }
+
+    /**
+     * Read text with the same options as {@link com.vladsch.clionarduinoplugin.generators.cmake.CMakeParser},
+     * keeping only commands passing the filter
+     *
+     * @param chars         text
+     * @param options       parser options
+     * @param commandFilter test of lowercase command name, null to keep all nodes
+     */
+    public CompactCMakeFile(@NotNull BasedSequence chars, @Nullable DataHolder options, @Nullable Predicate<String> commandFilter) {
+        this.chars = chars;
+        this.options = options;
+        int capacity = Math.max(16, chars.length() / 16);
+        kinds = new int[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        textStarts = new int[capacity];
+        textEnds = new int[capacity];
+        parents = new int[capacity];
+        nexts = new int[capacity];
+        errorMessages = new String[4];
+        errorStarts = new int[4];
+        errorEnds = new int[4];
+
+        new CMakeReader(options).read(chars, new CMakeReaderHandler() {
+            int lastTop = -1;
+
+            @Override
+            public boolean wantCommand(@NotNull CMakeReader reader) {
+                return commandFilter == null || commandFilter.test(reader.getName().toString().toLowerCase(Locale.ROOT));
+            }
+
+            @Override
+            public void command(@NotNull CMakeReader reader) {
+                int command = add(reader.isCommentedOut() ? COMMENTED_OUT_COMMAND : COMMAND, reader.getStartOffset(), reader.getEndOffset(), reader.getNameStart(), reader.getNameEnd(), -1, lastTop);
+                lastTop = command;
+
+                int lastArgument = -1;
+                int iMax = reader.getArgumentCount();
+                for (int i = 0; i < iMax; i++) {
+                    lastArgument = add(ARGUMENT, reader.getArgumentStart(i), reader.getArgumentEnd(i), reader.getTextStart(i), reader.getTextEnd(i), command, lastArgument);
+                }
+            }
+
+            @Override
+            public void node(@NotNull CMakeReader reader, int kind, int startOffset, int endOffset) {
+                if (commandFilter != null) return;
+                lastTop = add(kind, startOffset, endOffset, startOffset, endOffset, -1, lastTop);
+            }
+
+            @Override
+            public void error(@NotNull CMakeReader reader, @NotNull String message, int startOffset, int endOffset) {
+                addError(message, startOffset, endOffset);
+            }
+        });
+    }
+
+    private int add(int kind, int start, int end, int textStart, int textEnd, int parent, int previous) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            textStarts = Arrays.copyOf(textStarts, capacity);
+            textEnds = Arrays.copyOf(textEnds, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            nexts = Arrays.copyOf(nexts, capacity);
+        }
+
+        kinds[size] = kind;
+        starts[size] = start;
+        ends[size] = end;
+        textStarts[size] = textStart;
+        textEnds[size] = textEnd;
+        parents[size] = parent;
+        nexts[size] = -1;
+        if (previous != -1) nexts[previous] = size;
+        return size++;
+    }
+
+    private void addError(@NotNull String message, int start, int end) {
+        if (errorCount == errorMessages.length) {
+            int capacity = errorCount * 2;
+            errorMessages = Arrays.copyOf(errorMessages, capacity);
+            errorStarts = Arrays.copyOf(errorStarts, capacity);
+            errorEnds = Arrays.copyOf(errorEnds, capacity);
+        }
+
+        errorMessages[errorCount] = message;
+        errorStarts[errorCount] = start;
+        errorEnds[errorCount] = end;
+        errorCount++;
+    }
+
+    @NotNull
+    public BasedSequence getChars() {
+        return chars;
+    }
+
+    /**
+     * @return number of nodes, including command arguments
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getKind(int index) {
+        return kinds[index];
+    }
+
+    public int getStartOffset(int index) {
+        return starts[index];
+    }
+
+    public int getEndOffset(int index) {
+        return ends[index];
+    }
+
+    public int getTextStart(int index) {
+        return textStarts[index];
+    }
+
+    public int getTextEnd(int index) {
+        return textEnds[index];
+    }
+
+    /**
+     * @param index node index
+     * @return index of parent command or -1 for top level nodes
+     */
+    public int getParent(int index) {
+        return parents[index];
+    }
+
+    /**
+     * @param index node index
+     * @return index of next sibling or -1 if none
+     */
+    public int getNext(int index) {
+        return nexts[index];
+    }
+
+    /**
+     * @return index of first top level node or -1 if none
+     */
+    public int getFirstChild() {
+        return size > 0 ? 0 : -1;
+    }
+
+    /**
+     * @param index node index
+     * @return index of first child or -1 if none
+     */
+    public int getFirstChild(int index) {
+        return index + 1 < size && parents[index + 1] == index ? index + 1 : -1;
+    }
+
+    /**
+     * @param name command name, case sensitive
+     * @return true if there is a top level command with the name which is not commented out
+     */
+    public boolean hasCommand(@NotNull String name) {
+        for (int i = getFirstChild(); i != -1; i = nexts[i]) {
+            if (kinds[i] == COMMAND && name.contentEquals(chars.subSequence(textStarts[i], textEnds[i]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    @NotNull
+    public String getErrorMessage(int index) {
+        return errorMessages[index];
+    }
+
+    public int getErrorStart(int index) {
+        return errorStarts[index];
+    }
+
+    public int getErrorEnd(int index) {
+        return errorEnds[index];
+    }
+
+    /**
+     * @return top level node views, each created when iterated
+     */
+    @NotNull
+    public Iterable<Node> getChildren() {
+        return () -> new Iterator<Node>() {
+            int next = getFirstChild();
+
+            @Override
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            @Override
+            public Node next() {
+                if (next == -1) throw new NoSuchElementException();
+                Node node = getNode(next);
+                next = nexts[next];
+                return node;
+            }
+        };
+    }
+
+    /**
+     * Create a document of the top level node views, for use where a {@link CMakeFile} is needed.
+     * Like the compact file it does not have the command children other than arguments.
+     *
+     * @return document with the same top level nodes and errors as the parser's document
+     */
+    @NotNull
+    public CMakeFile toCMakeFile() {
+        ArrayList<Pair<String, BasedSequence>> errors = new ArrayList<>(errorCount);
+        for (int i = 0; i < errorCount; i++) {
+            errors.add(Pair.of(errorMessages[i], chars.subSequence(errorStarts[i], errorEnds[i])));
+        }
+
+        CMakeFile document = new CMakeFile(options == null ? new MutableDataSet() : new MutableDataSet(options), chars, errors);
+        for (Node node : getChildren()) {
+            document.appendChild(node);
+        }
+        return document;
+    }
+
+    /**
+     * Create node for given index, a command node includes its arguments
+     *
+     * @param index node index
+     * @return node with same content as the node the parser would create
+     */
+    @NotNull
+    public Node getNode(int index) {
+        int start = starts[index];
+        int end = ends[index];
+        BasedSequence nodeChars = chars.subSequence(start, end);
+
+        switch (kinds[index]) {
+            case COMMAND:
+            case COMMENTED_OUT_COMMAND: {
+                Command command;
+                if (kinds[index] == COMMENTED_OUT_COMMAND) {
+                    int marker = CMakeScanner.spaces(chars, start);
+                    CommentedOutCommand commentedOutCommand = new CommentedOutCommand(nodeChars);
+                    commentedOutCommand.setLeadingSpaces(chars.subSequence(start, marker));
+                    commentedOutCommand.setCommentMarker(chars.subSequence(marker, marker + 1));
+                    command = commentedOutCommand;
+                } else {
+                    command = new Command(nodeChars);
+                }
+
+                int open = CMakeScanner.spaces(chars, textEnds[index]);
+                command.setCommand(chars.subSequence(textStarts[index], textEnds[index]));
+                command.setOpeningMarker(chars.subSequence(open, open + 1));
+                command.setArguments(chars.subSequence(open + 1, end - 1));
+                command.setClosingMarker(chars.subSequence(end - 1, end));
+
+                for (int i = getFirstChild(index); i != -1; i = nexts[i]) {
+                    command.appendChild(getNode(i));
+                }
+                return command;
+            }
+
+            case ARGUMENT: {
+                int textStart = textStarts[index];
+                int textEnd = textEnds[index];
+                return new Argument(nodeChars,
+                        textStart > start ? chars.subSequence(start, textStart) : BasedSequence.NULL,
+                        chars.subSequence(textStart, textEnd),
+                        textEnd < end ? chars.subSequence(textEnd, end) : BasedSequence.NULL);
+            }
+
+            case LINE_COMMENT:
+                return new LineComment(nodeChars);
+
+            case BRACKET_COMMENT: {
+                int markerLength = CMakeScanner.bracketMarkerLength(chars, start + 1, end);
+                return new BracketComment(nodeChars, chars.subSequence(start, start + 1 + markerLength), chars.subSequence(start + 1 + markerLength, end - markerLength), chars.subSequence(end - markerLength, end));
+            }
+
+            case SEPARATOR:
+                return new Separator(nodeChars);
+
+            case LINE_ENDING:
+                return new LineEnding(nodeChars);
+
+            case BLANK_LINE:
+                return new BlankLine(nodeChars);
+
+            case UNRECOGNIZED_INPUT:
+                return new UnrecognizedInput(nodeChars);
+
+            default:
+                throw new IllegalStateException("Unexpected node kind " + kinds[index]);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.vladsch.clionarduinoplugin.generators.cmake.ast;
+
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Start offsets of top level elements which begin a line and were parsed without errors,
+ * with the parser state at each offset. Used by the parser for incremental reparsing.
+ */
+public class ElementBoundaries {
+    // parser state flags at the boundary
+    final public static int LINE_CONTINUATION = 1;
+    final public static int BLOCK_COMMENTS = 2;
+    final public static int AFTER_LINE_ENDING = 4;
+
+    final private DataSet options;
+    private int[] offsets;
+    private int[] examined;
+    private int[] flags;
+    private int[] autoConfigs;
+    private int[] nodeCounts;
+    private int[] errorCounts;
+    private int size;
+    private int autoConfigCount;
+
+    public ElementBoundaries(@Nullable DataHolder options) {
+        this.options = options == null ? new DataSet() : new DataSet(options);
+        offsets = new int[16];
+        examined = new int[16];
+        flags = new int[16];
+        autoConfigs = new int[16];
+        nodeCounts = new int[16];
+        errorCounts = new int[16];
+    }
+
+    /**
+     * @return options originally passed to the parser, before any auto config changes
+     */
+    @NotNull
+    public DataSet getOptions() {
+        return options;
+    }
+
+    /**
+     * Add boundary
+     *
+     * @param offset      start offset of element
+     * @param examined    max offset of input examined by elements after previous boundary, -1 if none
+     * @param flags       parser state flags
+     * @param autoConfigs number of auto config changes made by preceding elements
+     * @param nodeCount   number of document child nodes added by preceding elements
+     * @param errorCount  number of errors added by preceding elements
+     */
+    public void add(int offset, int examined, int flags, int autoConfigs, int nodeCount, int errorCount) {
+        if (size == offsets.length) {
+            int capacity = size * 2;
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.examined = Arrays.copyOf(this.examined, capacity);
+            this.flags = Arrays.copyOf(this.flags, capacity);
+            this.autoConfigs = Arrays.copyOf(this.autoConfigs, capacity);
+            this.nodeCounts = Arrays.copyOf(this.nodeCounts, capacity);
+            this.errorCounts = Arrays.copyOf(this.errorCounts, capacity);
+        }
+
+        this.offsets[size] = offset;
+        this.examined[size] = examined;
+        this.flags[size] = flags;
+        this.autoConfigs[size] = autoConfigs;
+        this.nodeCounts[size] = nodeCount;
+        this.errorCounts[size] = errorCount;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getExamined(int index) {
+        return examined[index];
+    }
+
+    public int getFlags(int index) {
+        return flags[index];
+    }
+
+    public int getAutoConfigs(int index) {
+        return autoConfigs[index];
+    }
+
+    public int getNodeCount(int index) {
+        return nodeCounts[index];
+    }
+
+    public int getErrorCount(int index) {
+        return errorCounts[index];
+    }
+
+    /**
+     * @return total number of auto config changes made by the parser
+     */
+    public int getAutoConfigCount() {
+        return autoConfigCount;
+    }
+
+    public void setAutoConfigCount(final int autoConfigCount) {
+        this.autoConfigCount = autoConfigCount;
+    }
+
+    /**
+     * @param offset offset
+     * @return index of first boundary with offset greater or equal to given offset, or size() if none
+     */
+    public int indexOf(int offset) {
+        int index = Arrays.binarySearch(offsets, 0, size, offset);
+        return index < 0 ? -index - 1 : index;
+    }
+}
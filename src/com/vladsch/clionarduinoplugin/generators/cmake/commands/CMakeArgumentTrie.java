@@ -0,0 +1,139 @@
+package com.vladsch.clionarduinoplugin.generators.cmake.commands;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeCommandType.WILDCARD_ARG_MARKER;
+
+/**
+ * Trie of argument texts with {@link CMakeCommandType#WILDCARD_ARG_MARKER} wildcards, finding the lowest ranked
+ * entry matching a text in one pass over the text
+ * <p>
+ * Every text is an exact entry at the end of its path. Texts with wildcards are also wildcard entries at the end
+ * of their literal prefix, tried only when the searched text has that prefix. An exact match is preferred to a
+ * wildcard match of the same rank.
+ *
+ * @param <T> type of entry values
+ */
+public class CMakeArgumentTrie<T> {
+    public static class Match<T> {
+        final private T myValue;
+        final private boolean myIsWildcard;
+
+        Match(T value, boolean isWildcard) {
+            myValue = value;
+            myIsWildcard = isWildcard;
+        }
+
+        public T getValue() {
+            return myValue;
+        }
+
+        /**
+         * @return true if matched by wildcards, false if the text is the same as the entry text
+         */
+        public boolean isWildcard() {
+            return myIsWildcard;
+        }
+    }
+
+    private static class Entry<T> {
+        final int rank;
+        final T value;
+        final @Nullable CMakeWildcardPattern pattern;
+
+        Entry(int rank, T value, @Nullable CMakeWildcardPattern pattern) {
+            this.rank = rank;
+            this.value = value;
+            this.pattern = pattern;
+        }
+    }
+
+    private static class Node<T> {
+        final HashMap<Character, Node<T>> children = new HashMap<>();
+
+        // lowest ranked entry with text ending here
+        @Nullable Entry<T> exact;
+
+        // entries with literal prefix ending here, by rank
+        final ArrayList<Entry<T>> wildcards = new ArrayList<>();
+    }
+
+    final private Node<T> myRoot = new Node<>();
+    private int mySize;
+
+    /**
+     * @param text  entry text
+     * @param rank  rank of entry, lower rank is preferred when more than one entry matches
+     * @param value value of entry
+     */
+    public void add(@NotNull String text, int rank, T value) {
+        Node<T> node = getNode(text, text.length());
+        if (node.exact == null || node.exact.rank > rank) {
+            node.exact = new Entry<>(rank, value, null);
+        }
+
+        CMakeWildcardPattern pattern = CMakeWildcardPattern.of(text);
+        if (pattern != null) {
+            ArrayList<Entry<T>> wildcards = getNode(text, text.indexOf(WILDCARD_ARG_MARKER)).wildcards;
+            int index = wildcards.size();
+            while (index > 0 && wildcards.get(index - 1).rank > rank) index--;
+            wildcards.add(index, new Entry<>(rank, value, pattern));
+        }
+
+        mySize++;
+    }
+
+    public int size() {
+        return mySize;
+    }
+
+    /**
+     * @param text text to match
+     * @return lowest ranked match or null if no entry matches
+     */
+    @Nullable
+    public Match<T> find(@NotNull String text) {
+        Entry<T> best = null;
+        Node<T> node = myRoot;
+        int length = text.length();
+        int i = 0;
+
+        while (true) {
+            for (Entry<T> entry : node.wildcards) {
+                if (best != null && entry.rank >= best.rank) break;
+
+                //noinspection ConstantConditions
+                if (entry.pattern.matches(text)) {
+                    best = entry;
+                    break;
+                }
+            }
+
+            if (i == length) {
+                Entry<T> exact = node.exact;
+                if (exact != null && (best == null || exact.rank <= best.rank)) {
+                    return new Match<>(exact.value, false);
+                }
+                break;
+            }
+
+            node = node.children.get(text.charAt(i++));
+            if (node == null) break;
+        }
+
+        return best == null ? null : new Match<>(best.value, true);
+    }
+
+    @NotNull
+    private Node<T> getNode(@NotNull String text, int end) {
+        Node<T> node = myRoot;
+        for (int i = 0; i < end; i++) {
+            node = node.children.computeIfAbsent(text.charAt(i), c -> new Node<>());
+        }
+        return node;
+    }
+}
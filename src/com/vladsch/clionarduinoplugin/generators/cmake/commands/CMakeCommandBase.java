@@ -1,7 +1,7 @@
 package com.vladsch.clionarduinoplugin.generators.cmake.commands;
 
+import com.vladsch.clionarduinoplugin.generators.cmake.CMakeArgumentWriter;
 import com.vladsch.clionarduinoplugin.generators.cmake.CMakeListsTxtBuilder;
-import com.vladsch.clionarduinoplugin.generators.cmake.CMakeParser;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -138,7 +138,7 @@ public abstract class CMakeCommandBase implements CMakeElement {
                 out.append(sep);
                 sep = " ";
 
-                out.append(CMakeParser.getArgText(CMakeListsTxtBuilder.Companion.replacedCommandParams(arg, valueSet)));
+                CMakeArgumentWriter.appendArgText(out, CMakeListsTxtBuilder.Companion.replacedCommandParams(arg, valueSet));
             }
         }
 
@@ -158,7 +158,7 @@ public abstract class CMakeCommandBase implements CMakeElement {
 
                 out.append(sep);
                 sep = " ";
-                out.append(CMakeParser.getArgText(arg));
+                CMakeArgumentWriter.appendArgText(out, arg);
             }
         }
 
@@ -23,6 +23,7 @@ public class CMakeCommandType {
     final protected boolean myIsKeepLast;   // if cannot have multiple then which one drives Last, First
     final protected int myWildcardFixedArgs;
     final protected int myWildcardCount;
+    final protected @Nullable CMakeWildcardPattern[] myFixedArgPatterns;  // null if no wildcard fixed args
 
     public CMakeCommandType(@NotNull final String name, @NotNull final String command, final @NotNull String[] fixedArgs, final int minArgs, final int maxArgs) {
         this(name, command, fixedArgs, minArgs, maxArgs, false, true, true, null);
@@ -48,6 +49,21 @@ public class CMakeCommandType {
         myDefaultArgs = defaults != null ? defaults : EMPTY;
         myWildcardFixedArgs = getWildcardFixedArgs(fixedArgs);
         myWildcardCount = getWildcardCount(fixedArgs);
+        myFixedArgPatterns = getFixedArgPatterns(fixedArgs);
+    }
+
+    @Nullable
+    private static CMakeWildcardPattern[] getFixedArgPatterns(final @NotNull String[] fixedArgs) {
+        CMakeWildcardPattern[] patterns = null;
+
+        for (int i = 0; i < fixedArgs.length; i++) {
+            CMakeWildcardPattern pattern = CMakeWildcardPattern.of(fixedArgs[i]);
+            if (pattern != null) {
+                if (patterns == null) patterns = new CMakeWildcardPattern[fixedArgs.length];
+                patterns[i] = pattern;
+            }
+        }
+        return patterns;
     }
 
     public static int getWildcardFixedArgs(final @NotNull String[] fixedArgs) {
@@ -109,6 +125,15 @@ public class CMakeCommandType {
         return myWildcardCount;
     }
 
+    /**
+     * @param index fixed argument index
+     * @return pattern of fixed argument, null if it has no wildcards
+     */
+    @Nullable
+    public CMakeWildcardPattern getFixedArgPattern(int index) {
+        return myFixedArgPatterns == null ? null : myFixedArgPatterns[index];
+    }
+
     public int getMinArgs() {
         return myMinArgs;
     }
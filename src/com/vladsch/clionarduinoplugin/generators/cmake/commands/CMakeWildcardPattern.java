@@ -0,0 +1,94 @@
+package com.vladsch.clionarduinoplugin.generators.cmake.commands;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeCommandType.WILDCARD_ARG_MARKER;
+
+/**
+ * Argument text with {@link CMakeCommandType#WILDCARD_ARG_MARKER} wildcards, split once into literal parts
+ * <p>
+ * Matches like the regex {@code ^\Qliteral\E(.*?)\Qliteral\E$} in DOTALL mode, each wildcard matching
+ * the shortest text which allows the rest to match, without compiling a regex.
+ */
+public class CMakeWildcardPattern {
+    // literal text before, between and after wildcards, one more than the number of wildcards
+    final private String[] myLiterals;
+    final private int myMinLength;
+
+    private CMakeWildcardPattern(String[] literals) {
+        myLiterals = literals;
+
+        int minLength = 0;
+        for (String literal : literals) {
+            minLength += literal.length();
+        }
+        myMinLength = minLength;
+    }
+
+    /**
+     * @param text argument text
+     * @return pattern of text or null if text has no wildcards
+     */
+    @Nullable
+    public static CMakeWildcardPattern of(@NotNull String text) {
+        int pos = text.indexOf(WILDCARD_ARG_MARKER);
+        if (pos == -1) return null;
+
+        ArrayList<String> literals = new ArrayList<>();
+        int start = 0;
+        while (pos != -1) {
+            literals.add(text.substring(start, pos));
+            start = pos + WILDCARD_ARG_MARKER.length();
+            pos = text.indexOf(WILDCARD_ARG_MARKER, start);
+        }
+        literals.add(text.substring(start));
+        return new CMakeWildcardPattern(literals.toArray(new String[0]));
+    }
+
+    public int getWildcardCount() {
+        return myLiterals.length - 1;
+    }
+
+    public boolean matches(@NotNull String text) {
+        return match(text) != null;
+    }
+
+    /**
+     * @param text text to match
+     * @return text matched by each wildcard or null if text does not match
+     */
+    @Nullable
+    public List<String> match(@NotNull String text) {
+        int length = text.length();
+        String first = myLiterals[0];
+        String last = myLiterals[myLiterals.length - 1];
+
+        if (length < myMinLength || !text.startsWith(first) || !text.endsWith(last)) return null;
+
+        String[] values = new String[myLiterals.length - 1];
+        int end = length - last.length();
+        int pos = first.length();
+
+        // earliest position of each middle literal gives the shortest wildcard values, if it fails so does any later one
+        for (int i = 1; i < myLiterals.length - 1; i++) {
+            String literal = myLiterals[i];
+            int found = text.indexOf(literal, pos);
+            if (found == -1 || found + literal.length() > end) return null;
+            values[i - 1] = text.substring(pos, found);
+            pos = found + literal.length();
+        }
+
+        values[values.length - 1] = text.substring(pos, end);
+        return Arrays.asList(values);
+    }
+
+    @Override
+    public String toString() {
+        return String.join(WILDCARD_ARG_MARKER, myLiterals);
+    }
+}
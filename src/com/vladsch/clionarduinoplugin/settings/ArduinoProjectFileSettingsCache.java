@@ -0,0 +1,375 @@
+package com.vladsch.clionarduinoplugin.settings;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.vladsch.clionarduinoplugin.generators.cmake.CMakeVariableEvaluator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Project configurations loaded from CMakeLists.txt files, kept in a binary cache file across IDE restarts
+ * <p>
+ * Entries are keyed by CMakeLists.txt path and hold its modification time, length and content hash.
+ * An entry with unchanged modification time and length is used without reading the file, one with
+ * unchanged content hash without parsing it. The cache file is read on first use and written by {@link #save()}.
+ * <p>
+ * Variable evaluators of recently loaded files are kept in memory, a changed file is evaluated again
+ * only for commands affected by the change.
+ */
+public class ArduinoProjectFileSettingsCache {
+    private static final Logger LOG = Logger.getInstance("com.vladsch.clionarduinoplugin.settings");
+
+    private static final int MAGIC = 0x41505343;
+    // must change whenever the configuration extraction from CMakeLists.txt changes, stale entries are discarded on load
+    private static final int VERSION = 3;
+    public static final int MAX_ENTRIES = 1000;
+    public static final int MAX_EVALUATORS = 50;
+    public static final String CACHE_FILENAME = "arduino-support/project-file-settings.bin";
+
+    private static ArduinoProjectFileSettingsCache ourInstance;
+
+    /**
+     * Values of a project configuration, applied to settings in the order they are loaded from CMakeLists.txt
+     * since settings setters depend on each other
+     */
+    public static class Configuration {
+        public String projectName = "";
+        public String[] sources = ArduinoApplicationSettingsProxy.EMPTY_STRINGS;
+        public String[] headers = ArduinoApplicationSettingsProxy.EMPTY_STRINGS;
+        public String sketch = "";
+        public String boardId = "";
+        public String cpuId = "";
+        public boolean isLibrary;
+        public @Nullable String libraryType;            // null if not set
+        public String languageVersionId = "";
+        public @Nullable String[] libraryDirectories;   // null if not set
+        public @Nullable String[] nestedLibraries;      // null if not set
+        public String programmerId = "";
+        public String port = "";
+        public int baudRate;
+        public boolean isVerbose;
+        public String[] notifications = ArduinoApplicationSettingsProxy.EMPTY_STRINGS;
+        public boolean hasReferencedFiles;              // not saved, configurations using included files are not cached
+
+        @NotNull
+        public ArduinoApplicationSettingsProxy toSettings() {
+            ArduinoApplicationSettingsProxy settings = ArduinoApplicationSettingsProxy.of();
+            settings.setProjectName(projectName);
+            settings.setSources(sources);
+            settings.setHeaders(headers);
+            settings.setSketch(sketch);
+            settings.setBoardId(boardId);
+            settings.setCpuId(cpuId);
+            settings.setLibrary(isLibrary);
+            if (libraryType != null) settings.setLibraryType(libraryType);
+            settings.setLanguageVersionId(languageVersionId);
+            if (libraryDirectories != null) {
+                settings.setAddLibraryDirectory(true);
+                settings.setLibraryDirectories(libraryDirectories);
+            }
+            if (nestedLibraries != null) settings.setNestedLibraries(nestedLibraries);
+            settings.setProgrammerId(programmerId);
+            settings.setPort(port);
+            settings.setBaudRate(baudRate);
+            settings.setVerbose(isVerbose);
+            if (notifications.length > 0) settings.setNotifications(notifications);
+            return settings;
+        }
+
+        void write(@NotNull DataOutputStream out) throws IOException {
+            out.writeUTF(projectName);
+            writeStrings(out, sources);
+            writeStrings(out, headers);
+            out.writeUTF(sketch);
+            out.writeUTF(boardId);
+            out.writeUTF(cpuId);
+            out.writeBoolean(isLibrary);
+            writeString(out, libraryType);
+            out.writeUTF(languageVersionId);
+            writeStrings(out, libraryDirectories);
+            writeStrings(out, nestedLibraries);
+            out.writeUTF(programmerId);
+            out.writeUTF(port);
+            out.writeInt(baudRate);
+            out.writeBoolean(isVerbose);
+            writeStrings(out, notifications);
+        }
+
+        @NotNull
+        static Configuration read(@NotNull DataInputStream in) throws IOException {
+            Configuration configuration = new Configuration();
+            configuration.projectName = in.readUTF();
+            configuration.sources = readStrings(in, false);
+            configuration.headers = readStrings(in, false);
+            configuration.sketch = in.readUTF();
+            configuration.boardId = in.readUTF();
+            configuration.cpuId = in.readUTF();
+            configuration.isLibrary = in.readBoolean();
+            configuration.libraryType = readString(in);
+            configuration.languageVersionId = in.readUTF();
+            configuration.libraryDirectories = readStrings(in, true);
+            configuration.nestedLibraries = readStrings(in, true);
+            configuration.programmerId = in.readUTF();
+            configuration.port = in.readUTF();
+            configuration.baudRate = in.readInt();
+            configuration.isVerbose = in.readBoolean();
+            configuration.notifications = readStrings(in, false);
+            return configuration;
+        }
+    }
+
+    public static class Entry {
+        final public long modified;
+        final public long length;
+        final public long hash;
+        final public boolean libraryProperties;
+        final private @Nullable Configuration configuration;
+
+        /**
+         * @param modified          modification time of CMakeLists.txt or -1 if content was not read from the file
+         * @param length            length of CMakeLists.txt or -1 if content was not read from the file
+         * @param hash              {@link #contentHash(CharSequence)} of CMakeLists.txt content
+         * @param libraryProperties true if library.properties file exists
+         * @param configuration     configuration or null if not an Arduino project
+         */
+        public Entry(long modified, long length, long hash, boolean libraryProperties, @Nullable Configuration configuration) {
+            this.modified = modified;
+            this.length = length;
+            this.hash = hash;
+            this.libraryProperties = libraryProperties;
+            this.configuration = configuration;
+        }
+
+        public boolean isUnchanged(long modified, long length, boolean libraryProperties) {
+            return this.modified != -1 && this.modified == modified && this.length == length && this.libraryProperties == libraryProperties;
+        }
+
+        public boolean isUnchanged(long hash, boolean libraryProperties) {
+            return this.hash == hash && this.libraryProperties == libraryProperties;
+        }
+
+        /**
+         * @return new settings instance or null if not an Arduino project
+         */
+        @Nullable
+        public ArduinoApplicationSettingsProxy getSettings() {
+            return configuration == null ? null : configuration.toSettings();
+        }
+
+        @Nullable
+        public Configuration getConfiguration() {
+            return configuration;
+        }
+    }
+
+    final private @Nullable File myCacheFile;
+    final private LinkedHashMap<String, Entry> myEntries = new LinkedHashMap<>(16, 0.75f, true);
+    final private LinkedHashMap<String, CMakeVariableEvaluator> myEvaluators = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean myLoaded;
+    private boolean myModified;
+
+    /**
+     * @param cacheFile cache file or null to keep entries only in memory
+     */
+    public ArduinoProjectFileSettingsCache(@Nullable File cacheFile) {
+        myCacheFile = cacheFile;
+    }
+
+    public static synchronized ArduinoProjectFileSettingsCache getInstance() {
+        if (ourInstance == null) {
+            File cacheFile = null;
+            try {
+                cacheFile = new File(PathManager.getSystemPath(), CACHE_FILENAME);
+            } catch (RuntimeException e) {
+                LOG.info("No system path for project settings cache, using memory only", e);
+            }
+            ourInstance = new ArduinoProjectFileSettingsCache(cacheFile);
+        }
+        return ourInstance;
+    }
+
+    /**
+     * Save shared instance if it was used
+     */
+    public static void saveInstance() {
+        ArduinoProjectFileSettingsCache instance;
+        synchronized (ArduinoProjectFileSettingsCache.class) {
+            instance = ourInstance;
+        }
+        if (instance != null) instance.save();
+    }
+
+    /**
+     * 64 bit FNV-1a hash of characters
+     *
+     * @param text text
+     * @return hash
+     */
+    public static long contentHash(@NotNull CharSequence text) {
+        long hash = 0xcbf29ce484222325L;
+        int iMax = text.length();
+        for (int i = 0; i < iMax; i++) {
+            char c = text.charAt(i);
+            hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Nullable
+    public synchronized Entry get(@NotNull File cMakeLists) {
+        load();
+        return myEntries.get(cMakeLists.getAbsolutePath());
+    }
+
+    public synchronized void put(@NotNull File cMakeLists, @NotNull Entry entry) {
+        load();
+        myEntries.put(cMakeLists.getAbsolutePath(), entry);
+        if (myEntries.size() > MAX_ENTRIES) {
+            myEntries.remove(myEntries.keySet().iterator().next());
+        }
+        myModified = true;
+    }
+
+    public synchronized void remove(@NotNull File cMakeLists) {
+        load();
+        if (myEntries.remove(cMakeLists.getAbsolutePath()) != null) {
+            myModified = true;
+        }
+    }
+
+    /**
+     * @param cMakeLists CMakeLists.txt file
+     * @return variable evaluator for the file, not thread safe, callers synchronize on it while it is used
+     */
+    @NotNull
+    public synchronized CMakeVariableEvaluator getEvaluator(@NotNull File cMakeLists) {
+        CMakeVariableEvaluator evaluator = myEvaluators.computeIfAbsent(cMakeLists.getAbsolutePath(), path -> new CMakeVariableEvaluator());
+        if (myEvaluators.size() > MAX_EVALUATORS) {
+            myEvaluators.remove(myEvaluators.keySet().iterator().next());
+        }
+        return evaluator;
+    }
+
+    public synchronized void clear() {
+        myEntries.clear();
+        myEvaluators.clear();
+        myLoaded = true;
+        myModified = true;
+    }
+
+    public synchronized int size() {
+        load();
+        return myEntries.size();
+    }
+
+    private void load() {
+        if (myLoaded) return;
+        myLoaded = true;
+
+        if (myCacheFile == null || !myCacheFile.isFile()) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myCacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return;
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long modified = in.readLong();
+                long length = in.readLong();
+                long hash = in.readLong();
+                boolean libraryProperties = in.readBoolean();
+                Configuration configuration = in.readBoolean() ? Configuration.read(in) : null;
+                myEntries.put(path, new Entry(modified, length, hash, libraryProperties, configuration));
+            }
+        } catch (IOException e) {
+            LOG.info("Project settings cache not loaded", e);
+            myEntries.clear();
+        }
+    }
+
+    /**
+     * Write cache file if entries changed since it was read
+     */
+    public synchronized void save() {
+        if (myCacheFile == null || !myModified) return;
+
+        File parent = myCacheFile.getParentFile();
+        File tempFile = new File(myCacheFile.getPath() + ".tmp");
+
+        try {
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(myEntries.size());
+                for (Map.Entry<String, Entry> mapEntry : myEntries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    out.writeUTF(mapEntry.getKey());
+                    out.writeLong(entry.modified);
+                    out.writeLong(entry.length);
+                    out.writeLong(entry.hash);
+                    out.writeBoolean(entry.libraryProperties);
+                    out.writeBoolean(entry.configuration != null);
+                    if (entry.configuration != null) entry.configuration.write(out);
+                }
+            }
+
+            Files.move(tempFile.toPath(), myCacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            myModified = false;
+        } catch (IOException e) {
+            LOG.info("Project settings cache not saved", e);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    private static void writeString(@NotNull DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    @Nullable
+    private static String readString(@NotNull DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeStrings(@NotNull DataOutputStream out, @Nullable String[] values) throws IOException {
+        out.writeInt(values == null ? -1 : values.length);
+        if (values != null) {
+            for (String value : values) {
+                out.writeUTF(value);
+            }
+        }
+    }
+
+    private static String[] readStrings(@NotNull DataInputStream in, boolean nullable) throws IOException {
+        int count = in.readInt();
+        if (count == -1) {
+            if (nullable) return null;
+            throw new IOException("Unexpected null array");
+        }
+
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readUTF();
+        }
+        return values;
+    }
+}
@@ -34,6 +34,7 @@ import com.jetbrains.cidr.cpp.cmake.workspace.CMakeWorkspace;
 import com.vladsch.clionarduinoplugin.Bundle;
 import com.vladsch.clionarduinoplugin.generators.ArduinoProjectGenerator;
 import com.vladsch.clionarduinoplugin.generators.cmake.ArduinoCMakeListsTxtBuilder;
+import com.vladsch.clionarduinoplugin.generators.cmake.CMakeListsTxtBuilder;
 import com.vladsch.flexmark.util.html.ui.BackgroundColor;
 import com.vladsch.flexmark.util.html.ui.HtmlBuilder;
 import com.vladsch.plugin.util.ui.Helpers;
@@ -302,6 +303,8 @@ public class ProjectBuildSettingsDialog extends DialogWrapper {
             final String content = dialog.getCMakeFileContent();
             final String modifiedContent = dialog.getModifiedContent(content);
             if (!modifiedContent.equals(content)) {
+                // cmake reload is not needed if only whitespace, comments or commented out commands changed
+                final boolean needReload = !CMakeListsTxtBuilder.diff(content, modifiedContent).isEmpty();
                 ApplicationManager.getApplication().runWriteAction(new Runnable() {
                     @Override
                     public void run() {
@@ -316,7 +319,9 @@ public class ProjectBuildSettingsDialog extends DialogWrapper {
                             }
                         }
 
-                        ArduinoProjectGenerator.Companion.reloadCMakeLists(dialog.myProject);
+                        if (needReload) {
+                            ArduinoProjectGenerator.Companion.reloadCMakeLists(dialog.myProject);
+                        }
                         Disposer.dispose(dialog.myNewProjectSettingsForm);
                     }
                 });
@@ -6,10 +6,15 @@ import com.vladsch.clionarduinoplugin.resources.Strings
 import com.vladsch.clionarduinoplugin.resources.TemplateResolver
 import com.vladsch.clionarduinoplugin.settings.ArduinoApplicationSettingsProxy
 import com.vladsch.clionarduinoplugin.settings.ArduinoProjectFileSettings
+import com.vladsch.clionarduinoplugin.settings.ArduinoProjectFileSettingsCache
 import com.vladsch.plugin.util.StudiedWord
 import com.vladsch.plugin.util.getFileContent
 import com.vladsch.plugin.util.plus
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
 import org.junit.Test
 import java.io.File
 import java.util.*
@@ -136,6 +141,95 @@ set(lib4_RECURSE false)
         ), commands)
     }
 
+    private val projectSource = """
+cmake_minimum_required(VERSION 2.8.4)
+set(CMAKE_TOOLCHAIN_FILE ${'$'}{CMAKE_SOURCE_DIR}/cmake/ArduinoToolchain.cmake)
+set(PROJECT_NAME tft_life)
+
+set(${'$'}{PROJECT_NAME}_BOARD pro)
+# set(ARDUINO_CPU 8MHzatmega328)
+project(${'$'}{PROJECT_NAME})
+
+set(${'$'}{PROJECT_NAME}_SRCS tft_life.cpp)
+# set(${'$'}{PROJECT_NAME}_PORT /dev/cu.usbserial-00000000)
+
+generate_arduino_firmware(${'$'}{PROJECT_NAME})
+"""
+
+    @Test
+    fun test_batch() {
+        val expected = ArduinoCMakeListsTxtBuilder(projectSource)
+        expected.setOrAddCommand(ArduinoCMakeListsTxtBuilder.SET_CPU, "atmega328")
+        expected.setOrAddCommand(ArduinoCMakeListsTxtBuilder.SET_PORT, "/dev/ttyUSB0")
+        expected.setOrAddCommand(CMakeListsTxtBuilder.LINK_DIRECTORIES, "lib")
+        expected.removeCommand(ArduinoCMakeListsTxtBuilder.SET_SRCS)
+
+        val builder = ArduinoCMakeListsTxtBuilder(projectSource)
+        val port = builder.batch {
+            setOrAddCommand(ArduinoCMakeListsTxtBuilder.SET_CPU, "atmega328")
+            val port = setOrAddCommand(ArduinoCMakeListsTxtBuilder.SET_PORT, "/dev/ttyUSB0")
+            setOrAddCommand(CMakeListsTxtBuilder.LINK_DIRECTORIES, "lib")
+            removeCommand(ArduinoCMakeListsTxtBuilder.SET_SRCS)
+            assertTrue(isInBatch)
+            port
+        }
+
+        assertFalse(builder.isInBatch)
+        assertSame(port, builder.getCommand(ArduinoCMakeListsTxtBuilder.SET_PORT))
+        assertEquals(expected.getCMakeContents(null, false, false), builder.getCMakeContents(null, false, false))
+    }
+
+    @Test
+    fun test_batchRollback() {
+        val builder = ArduinoCMakeListsTxtBuilder(projectSource)
+        val programmer = builder.setOrAddCommand(ArduinoCMakeListsTxtBuilder.SET_PROGRAMMER, "avrispmkii")
+        val contents = builder.getCMakeContents(null, false, false)
+        val elements = builder.elements.toList()
+        val firmwareIndex = builder.getCommandIndex(ArduinoCMakeListsTxtBuilder.GENERATE_ARDUINO_FIRMWARE)
+
+        try {
+            builder.batch {
+                setOrAddCommand(ArduinoCMakeListsTxtBuilder.SET_BOARD, "uno")
+                setOrAddCommand(ArduinoCMakeListsTxtBuilder.SET_PROGRAMMER, "usbasp").setSuppressible(true)
+                setOrAddCommand(CMakeListsTxtBuilder.LINK_DIRECTORIES, "lib")
+                removeCommand(ArduinoCMakeListsTxtBuilder.GENERATE_ARDUINO_FIRMWARE)
+
+                batch {
+                    setOrAddCommand(ArduinoCMakeListsTxtBuilder.GENERATE_ARDUINO_LIBRARY)
+                }
+
+                check(getCommand(ArduinoCMakeListsTxtBuilder.GENERATE_ARDUINO_FIRMWARE) != null) { "no firmware target" }
+            }
+            fail()
+        } catch (e: IllegalStateException) {
+            assertEquals("no firmware target", e.message)
+        }
+
+        assertEquals(elements, builder.elements)
+        assertSame(programmer, builder.getCommand(ArduinoCMakeListsTxtBuilder.SET_PROGRAMMER))
+        assertEquals(listOf("avrispmkii"), programmer.args)
+        assertEquals(-1, builder.getCommandIndex(ArduinoCMakeListsTxtBuilder.GENERATE_ARDUINO_LIBRARY))
+        assertEquals(firmwareIndex, builder.getCommandIndex(ArduinoCMakeListsTxtBuilder.GENERATE_ARDUINO_FIRMWARE))
+        assertEquals(contents, builder.getCMakeContents(null, false, false))
+    }
+
+    @Test
+    fun test_invalidTargets() {
+        val projectDir = testProjects + "tft_life"
+
+        fun notifications(text: String): List<String> {
+            return ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir, "set(PROJECT_NAME tft_life)\n$text")!!.notifications.toList()
+        }
+
+        assertEquals(listOf<String>(), notifications("project(\${PROJECT_NAME})\ngenerate_arduino_firmware(\${PROJECT_NAME})\n"))
+        assertEquals(listOf("project-build-config.project-after-target"), notifications("generate_arduino_firmware(\${PROJECT_NAME})\nproject(\${PROJECT_NAME})\n"))
+        assertEquals(listOf("project-build-config.multiple-targets"), notifications("project(\${PROJECT_NAME})\ngenerate_arduino_firmware(\${PROJECT_NAME})\ngenerate_arduino_library(\${PROJECT_NAME})\n"))
+
+        // settings are applied to such a file without failing
+        val template = "generate_arduino_firmware(\${PROJECT_NAME})\nproject(\${PROJECT_NAME})\n"
+        ArduinoCMakeListsTxtBuilder.getCMakeFileContent(template, "test", ArduinoApplicationSettingsProxy.of(), true)
+    }
+
     fun compareFiles(rootDir: File, expected: Map<File, String>, actual: Map<File, String>) {
         val sortedKeys = expected.keys.sortedBy { it.path }
         assertEquals(sortedKeys, actual.keys.sortedBy { it.path })
@@ -404,4 +498,102 @@ set(lib4_RECURSE false)
         val files = createFiles(expected.projectName, rootDir, expected as ArduinoApplicationSettingsProxy, "project/library_static")
         compareFiles(rootDir, files);
     }
+
+    @Test
+    fun test_evaluatedVariables() {
+        val projectDir = testProjects + "tft_life"
+
+        fun load(text: String): String? {
+            val cMakeListsText = "set(PROJECT_NAME tft_life)\n" + text + "project(\${PROJECT_NAME})\ngenerate_arduino_firmware(\${PROJECT_NAME})\n"
+            return ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir, cMakeListsText)?.asString("expected")
+        }
+
+        val setBoard = "set(\${PROJECT_NAME}_BOARD uno)\n"
+        assertFalse(load("") == load(setBoard))
+
+        // undefined variables have no value, even if set by a set() not taken
+        assertEquals(load(""), load("if(FALSE)\n    ${setBoard}endif()\n"))
+        assertEquals(load(""), load(setBoard + "unset(\${PROJECT_NAME}_BOARD)\n"))
+        assertEquals(load(setBoard), load("if(TRUE)\n    ${setBoard}endif()\n"))
+    }
+
+    @Test
+    fun test_includedVariables() {
+        val projectDir = FileUtil.createTempDirectory("arduino-project", null)
+        try {
+            (projectDir + Strings.CMAKE_LISTS_FILENAME).writeText("" +
+                    "set(PROJECT_NAME included)\n" +
+                    "set(\${PROJECT_NAME}_SKETCH included.ino)\n" +
+                    "project(\${PROJECT_NAME})\n" +
+                    "include(cmake/board.cmake)\n" +
+                    "generate_arduino_firmware(\${PROJECT_NAME})\n")
+            val board = projectDir + "cmake/board.cmake"
+            board.parentFile.mkdirs()
+            board.writeText("set(\${PROJECT_NAME}_BOARD uno)\nset(\${PROJECT_NAME}_SRCS included.cpp)\n")
+
+            // variables not defined by CMakeLists.txt come from the included file
+            val settings = ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir)!!
+            assertEquals("uno", settings.boardId)
+            assertEquals("included.ino", settings.sketch)
+            assertEquals("included.cpp", settings.sources.joinToString())
+
+            // included file changes are not hidden by the settings cache
+            board.writeText("set(\${PROJECT_NAME}_BOARD nano)\n")
+            assertEquals("nano", ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir)!!.boardId)
+
+            // alternate content does not use files on disk
+            assertEquals("", ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir, getFileContent(projectDir + Strings.CMAKE_LISTS_FILENAME))!!.boardId)
+        } finally {
+            FileUtil.delete(projectDir)
+        }
+    }
+
+    @Test
+    fun test_incrementalEvaluation() {
+        val projectDir = testProjects + "tft_life"
+        val cMakeLists = projectDir + Strings.CMAKE_LISTS_FILENAME
+        val text = getFileContent(cMakeLists) + "# test_incrementalEvaluation\n"
+        val evaluator = ArduinoProjectFileSettingsCache.getInstance().getEvaluator(cMakeLists)
+
+        ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir, text)
+        val settings = ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir, text.replace("avrispmkii", "usbasp"))
+
+        // only the changed set() is evaluated again
+        assertSame(evaluator, ArduinoProjectFileSettingsCache.getInstance().getEvaluator(cMakeLists))
+        assertEquals(1, evaluator.evaluatedCount)
+        assertTrue(evaluator.reusedCount > 0)
+        assertEquals("usbasp", settings?.programmerId)
+    }
+
+    @Test
+    fun test_settingsCache() {
+        val cacheFile = File.createTempFile("project-file-settings", ".bin")
+        cacheFile.deleteOnExit()
+
+        val cache = ArduinoProjectFileSettingsCache(cacheFile)
+        for (name in arrayOf("tft_life", "sketch_1", "non_arduino")) {
+            val projectDir = testProjects + name
+            val settings = ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir)
+            val cMakeLists = projectDir + Strings.CMAKE_LISTS_FILENAME
+            cache.put(cMakeLists, ArduinoProjectFileSettingsCache.getInstance().get(cMakeLists)!!)
+
+            // second load comes from the cache
+            assertEquals(settings?.asString("expected"), ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir)?.asString("expected"))
+        }
+        cache.save()
+
+        val loaded = ArduinoProjectFileSettingsCache(cacheFile)
+        assertEquals(3, loaded.size())
+
+        for (name in arrayOf("tft_life", "sketch_1", "non_arduino")) {
+            val projectDir = testProjects + name
+            val cMakeLists = projectDir + Strings.CMAKE_LISTS_FILENAME
+            val hasLibraryProperties = (projectDir + Strings.LIBRARY_PROPERTIES_FILENAME).isFile
+            val entry = loaded.get(cMakeLists)!!
+
+            assertTrue(entry.isUnchanged(cMakeLists.lastModified(), cMakeLists.length(), hasLibraryProperties))
+            assertTrue(entry.isUnchanged(ArduinoProjectFileSettingsCache.contentHash(getFileContent(cMakeLists)), hasLibraryProperties))
+            assertEquals(ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir)?.asString("expected"), entry.settings?.asString("expected"))
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package com.vladsch.clionarduinoplugin.generators.cmake
+
+import com.vladsch.clionarduinoplugin.resources.Strings
+import com.vladsch.clionarduinoplugin.settings.ArduinoApplicationSettingsProxy
+import com.vladsch.plugin.util.plus
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.util.*
+import java.util.concurrent.CancellationException
+
+class ArduinoProjectScannerTest {
+    val testProjects: File = File(ArduinoProjectScannerTest::class.java.getResource("/projects/dummy.txt").toURI()).parentFile
+
+    @Test
+    fun test_projectScanner() {
+        val expected = TreeMap<String, String>()
+        var cMakeListsCount = 0
+        for (projectDir in testProjects.listFiles()!!) {
+            if ((projectDir + Strings.CMAKE_LISTS_FILENAME).isFile) {
+                cMakeListsCount++
+                val settings = ArduinoCMakeListsTxtBuilder.loadProjectConfiguration(projectDir) ?: continue
+                expected[projectDir.path] = settings.asString("expected")
+            }
+        }
+
+        val scanned = ArrayList<File>()
+        val projects = ArduinoProjectScanner().scan(testProjects, object : ArduinoProjectScanner.Progress {
+            override fun projectScanned(projectDir: File, settings: ArduinoApplicationSettingsProxy?, projectCount: Int) {
+                synchronized(scanned) {
+                    scanned.add(projectDir)
+                }
+            }
+        })
+
+        assertTrue(expected.isNotEmpty())
+        assertEquals(cMakeListsCount, scanned.size)
+        assertEquals(expected.keys.toList(), projects.keys.map { it.path })
+        for ((projectDir, settings) in projects) {
+            assertEquals(expected[projectDir.path], settings.asString("expected"))
+        }
+    }
+
+    @Test(expected = CancellationException::class)
+    fun test_projectScannerCanceled() {
+        ArduinoProjectScanner().scan(testProjects, object : ArduinoProjectScanner.Progress {
+            override fun isCanceled(): Boolean = true
+
+            override fun projectScanned(projectDir: File, settings: ArduinoApplicationSettingsProxy?, projectCount: Int) {
+                throw IllegalStateException("Canceled scan loaded $projectDir")
+            }
+        })
+    }
+
+    @Test
+    fun test_projectScannerFailed() {
+        val failedDir = testProjects + "tft_life"
+        val failed = ArrayList<File>()
+        val scanned = ArrayList<File>()
+
+        val projects = object : ArduinoProjectScanner() {
+            override fun loadProjectConfiguration(projectDir: File): ArduinoApplicationSettingsProxy? {
+                if (projectDir == failedDir) throw IllegalStateException("Failed to load $projectDir")
+                return super.loadProjectConfiguration(projectDir)
+            }
+        }.scan(testProjects, object : ArduinoProjectScanner.Progress {
+            override fun projectFailed(projectDir: File, e: Exception) {
+                synchronized(failed) {
+                    failed.add(projectDir)
+                }
+            }
+
+            override fun projectScanned(projectDir: File, settings: ArduinoApplicationSettingsProxy?, projectCount: Int) {
+                synchronized(scanned) {
+                    scanned.add(projectDir)
+                }
+            }
+        })
+
+        // other projects are loaded
+        assertEquals(listOf(failedDir), failed)
+        assertTrue(scanned.contains(failedDir))
+        assertFalse(projects.containsKey(failedDir))
+        assertTrue(projects.containsKey(testProjects + "tft_life2"))
+    }
+}
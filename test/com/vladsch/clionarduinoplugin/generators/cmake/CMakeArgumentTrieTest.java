@@ -0,0 +1,77 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeArgumentTrie;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeArgumentTrieTest {
+    private static CMakeArgumentTrie<String> trie(String... texts) {
+        CMakeArgumentTrie<String> trie = new CMakeArgumentTrie<>();
+        for (int i = 0; i < texts.length; i++) {
+            trie.add(texts[i], i, texts[i]);
+        }
+        return trie;
+    }
+
+    private static String find(CMakeArgumentTrie<String> trie, String text) {
+        CMakeArgumentTrie.Match<String> match = trie.find(text);
+        return match == null ? null : match.getValue() + (match.isWildcard() ? " *" : "");
+    }
+
+    @Test
+    public void test_exact() {
+        CMakeArgumentTrie<String> trie = trie("test_BOARD", "test_BOARD_CPU", "test_SRCS", "ARDUINO_CPU");
+
+        assertEquals(4, trie.size());
+        assertEquals("test_BOARD", find(trie, "test_BOARD"));
+        assertEquals("test_BOARD_CPU", find(trie, "test_BOARD_CPU"));
+        assertEquals("ARDUINO_CPU", find(trie, "ARDUINO_CPU"));
+        assertNull(find(trie, "test_"));
+        assertNull(find(trie, "test_BOARDS"));
+        assertNull(find(trie, ""));
+    }
+
+    @Test
+    public void test_wildcard() {
+        CMakeArgumentTrie<String> trie = trie("<@@>_RECURSE", "<@@>.upload.speed", "lib<@@>.a<@@>");
+
+        assertEquals("<@@>_RECURSE *", find(trie, "foo_RECURSE"));
+        assertEquals("<@@>_RECURSE *", find(trie, "_RECURSE"));
+        assertEquals("<@@>.upload.speed *", find(trie, "uno.upload.speed"));
+        assertEquals("lib<@@>.a<@@> *", find(trie, "libfoo.a"));
+        assertEquals("lib<@@>.a<@@> *", find(trie, "libfoo.a.a1"));
+        assertNull(find(trie, "foo_RECURSED"));
+        assertNull(find(trie, "li.a"));
+
+        // text of wildcard entry is an exact match
+        CMakeArgumentTrie.Match<String> match = trie.find("<@@>_RECURSE");
+        assertEquals("<@@>_RECURSE", match.getValue());
+        assertFalse(match.isWildcard());
+    }
+
+    @Test
+    public void test_rank() {
+        // lower rank preferred, whether exact or wildcard
+        CMakeArgumentTrie<String> trie = trie("uno", "<@@>.upload.speed", "uno.upload.speed", "<@@>");
+
+        assertEquals("uno", find(trie, "uno"));
+        assertEquals("<@@>.upload.speed *", find(trie, "uno.upload.speed"));
+        assertEquals("<@@> *", find(trie, "nano"));
+
+        trie = trie("uno.upload.speed", "<@@>.upload.speed", "<@@>");
+        assertEquals("uno.upload.speed", find(trie, "uno.upload.speed"));
+        assertEquals("<@@>.upload.speed *", find(trie, "nano.upload.speed"));
+
+        // same text keeps lowest rank
+        CMakeArgumentTrie<String> sameText = new CMakeArgumentTrie<>();
+        sameText.add("test_BOARD", 1, "second");
+        sameText.add("test_BOARD", 0, "first");
+        sameText.add("test_BOARD", 2, "third");
+        assertEquals("first", sameText.find("test_BOARD").getValue());
+        assertTrue(sameText.find("test_BOARDS") == null);
+    }
+}
@@ -0,0 +1,89 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CMakeArgumentWriterTest {
+    // regex based quoting which the writer replaces
+    private static String regexArgText(String arg) {
+        if (!CMakeParser.NEEDS_QUOTING.matcher(arg).find()) return arg;
+
+        StringBuffer sb = new StringBuffer();
+        sb.append("\"");
+
+        Matcher matcher = CMakeParser.NEEDS_ESCAPING.matcher(arg);
+        while (matcher.find()) {
+            char c = arg.charAt(matcher.start());
+            switch (c) {
+                case '\t':
+                    matcher.appendReplacement(sb, "\\\\t");
+                    break;
+                case '\r':
+                    matcher.appendReplacement(sb, "\\\\r");
+                    break;
+                case '\n':
+                    matcher.appendReplacement(sb, "\\\\n");
+                    break;
+                default:
+                    matcher.appendReplacement(sb, "");
+                    sb.append("\\").append(matcher.group());
+                    break;
+            }
+        }
+        matcher.appendTail(sb);
+
+        sb.append("\"");
+        return sb.toString();
+    }
+
+    @Test
+    public void test_unquoted() {
+        String arg = "${CMAKE_PROJECT_NAME}_PROGRAMMER";
+        assertSame(arg, CMakeArgumentWriter.getArgText(arg));
+        assertSame(arg, CMakeParser.getArgText(arg));
+    }
+
+    @Test
+    public void test_quoted() {
+        assertEquals("\"a b\"", CMakeArgumentWriter.getArgText("a b").toString());
+        assertEquals("\"(a)\"", CMakeArgumentWriter.getArgText("(a)").toString());
+        assertEquals("\"a#b;c^d\"", CMakeArgumentWriter.getArgText("a#b;c^d").toString());
+        assertEquals("\"a\\\"b\\\"\"", CMakeArgumentWriter.getArgText("a\"b\"").toString());
+        assertEquals("\"\\\\\\t\\r\\n\"", CMakeArgumentWriter.getArgText("\\\t\r\n").toString());
+        assertEquals("\"\u00e9 \u4e2d\"", CMakeArgumentWriter.getArgText("\u00e9 \u4e2d").toString());
+    }
+
+    @Test
+    public void test_writer() throws IOException {
+        StringWriter writer = new StringWriter();
+        CMakeArgumentWriter.appendArgText(writer, "abc");
+        writer.append(' ');
+        CMakeArgumentWriter.appendArgText(writer, "a\tb c");
+        assertEquals("abc \"a\\tb c\"", writer.toString());
+    }
+
+    @Test
+    public void test_regexEquivalent() {
+        char[] chars = "ab$@{}[]=()#\" \\^\t\r\n;\u0000\u00e9".toCharArray();
+        Random random = new Random(1);
+
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                sb.append(chars[random.nextInt(chars.length)]);
+            }
+
+            String arg = sb.toString();
+            assertEquals(arg, regexArgText(arg), CMakeArgumentWriter.getArgText(arg).toString());
+            assertEquals(CMakeArgumentWriter.needsQuoting(arg), CMakeParser.NEEDS_QUOTING.matcher(arg).find());
+        }
+    }
+}
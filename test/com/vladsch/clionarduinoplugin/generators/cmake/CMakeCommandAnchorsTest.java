@@ -0,0 +1,90 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeCommandType;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CMakeCommandAnchorsTest {
+    private static CMakeCommandType type(String name) {
+        return new CMakeCommandType(name, name.toLowerCase(), new String[0], 0, CMakeCommandType.INF_MAX_ARGS);
+    }
+
+    private static final CMakeCommandType MINIMUM = type("MINIMUM");
+    private static final CMakeCommandType TOOLCHAIN = type("TOOLCHAIN");
+    private static final CMakeCommandType BOARD = type("BOARD");
+    private static final CMakeCommandType CPU = type("CPU");
+    private static final CMakeCommandType PROJECT = type("PROJECT");
+    private static final CMakeCommandType SRCS = type("SRCS");
+    private static final CMakeCommandType HDRS = type("HDRS");
+    private static final CMakeCommandType FIRMWARE = type("FIRMWARE");
+    private static final CMakeCommandType OTHER = type("OTHER");
+
+    private static final CMakeCommandAnchor[] ANCHORS = {
+            CMakeCommandAnchor.Companion.first(MINIMUM),
+            CMakeCommandAnchor.Companion.first(TOOLCHAIN),
+            CMakeCommandAnchor.Companion.before(PROJECT, BOARD),
+            CMakeCommandAnchor.Companion.before(PROJECT, CPU),
+            CMakeCommandAnchor.Companion.after(PROJECT, SRCS),
+            CMakeCommandAnchor.Companion.after(PROJECT, HDRS),
+            CMakeCommandAnchor.Companion.last(FIRMWARE),
+    };
+
+    private static String placement(CMakeCommandType commandType) {
+        return Arrays.toString(CMakeCommandAnchors.of(ANCHORS).getPlacement(commandType));
+    }
+
+    @Test
+    public void test_shared() {
+        CMakeCommandAnchors anchors = CMakeCommandAnchors.of(ANCHORS);
+        assertSame(anchors, CMakeCommandAnchors.of(ANCHORS));
+        assertSame(anchors.getPlacement(SRCS), anchors.getPlacement(SRCS));
+    }
+
+    @Test
+    public void test_first() {
+        assertEquals("[PlacementStep{BEFORE TOOLCHAIN}, PlacementStep{FIRST_IF_UNMODIFIED MINIMUM}]", placement(MINIMUM));
+        assertEquals("[PlacementStep{AFTER MINIMUM}, PlacementStep{FIRST_IF_UNMODIFIED TOOLCHAIN}]", placement(TOOLCHAIN));
+    }
+
+    @Test
+    public void test_beforeAfter() {
+        assertEquals("[PlacementStep{AFTER MINIMUM}, PlacementStep{AFTER TOOLCHAIN}, " +
+                "PlacementStep{BEFORE CPU}, PlacementStep{BEFORE PROJECT}, " +
+                "PlacementStep{BEFORE SRCS}, PlacementStep{BEFORE HDRS}, PlacementStep{BEFORE FIRMWARE}]", placement(BOARD));
+
+        assertEquals("[PlacementStep{AFTER MINIMUM}, PlacementStep{AFTER TOOLCHAIN}, " +
+                "PlacementStep{AFTER BOARD}, PlacementStep{AFTER CPU}, " +
+                "PlacementStep{AFTER_PRIORITY PROJECT}, " +
+                "PlacementStep{AFTER SRCS}, PlacementStep{BEFORE FIRMWARE}]", placement(HDRS));
+    }
+
+    @Test
+    public void test_last() {
+        assertEquals("[PlacementStep{LAST_IF_UNMODIFIED FIRMWARE}]", placement(FIRMWARE));
+    }
+
+    @Test
+    public void test_unanchored() {
+        assertEquals("[PlacementStep{AFTER MINIMUM}, PlacementStep{AFTER TOOLCHAIN}, PlacementStep{BEFORE FIRMWARE}]", placement(OTHER));
+
+        // anchor commands respect their dependents
+        assertEquals("[PlacementStep{AFTER MINIMUM}, PlacementStep{AFTER TOOLCHAIN}, PlacementStep{BEFORE FIRMWARE}, " +
+                "PlacementStep{AFTER BOARD}, PlacementStep{AFTER CPU}, " +
+                "PlacementStep{BEFORE SRCS}, PlacementStep{BEFORE HDRS}]", placement(PROJECT));
+    }
+
+    @Test
+    public void test_invalid() {
+        try {
+            CMakeCommandAnchors.of(new CMakeCommandAnchor[] { CMakeCommandAnchor.Companion.first(OTHER), CMakeCommandAnchor.Companion.last(OTHER) });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("CommandType OTHER cannot be anchored first and last", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeFileDiffTest {
+    private static final DataHolder OPTIONS = new DataSet(new MutableDataSet()
+            .set(CMakeParser.AST_COMMENTS, true)
+            .set(CMakeParser.AST_BLANK_LINES, true)
+            .set(CMakeParser.AST_LINE_END_EOL, true)
+            .set(CMakeParser.AST_ARGUMENT_SEPARATORS, true)
+            .set(CMakeParser.AST_COMMENTED_OUT_COMMANDS, true));
+
+    private static final String SOURCE = "" +
+            "cmake_minimum_required(VERSION 2.8.4)\n" +
+            "set(CMAKE_TOOLCHAIN_FILE ${CMAKE_SOURCE_DIR}/cmake/ArduinoToolchain.cmake)\n" +
+            "set(PROJECT_NAME test)\n" +
+            "set(${PROJECT_NAME}_BOARD uno)\n" +
+            "# set(ARDUINO_CPU)\n" +
+            "project(${PROJECT_NAME})\n" +
+            "set(${PROJECT_NAME}_SRCS a.cpp b.cpp c.cpp)\n" +
+            "generate_arduino_firmware(${PROJECT_NAME})\n";
+
+    private static CMakeFile parse(String text) {
+        return new CMakeParser(BasedSequenceImpl.of(text), OPTIONS).getDocument();
+    }
+
+    private static String diff(String original, String modified) {
+        return CMakeFileDiff.of(parse(original), parse(modified)).toString();
+    }
+
+    @Test
+    public void test_unchanged() {
+        assertTrue(CMakeFileDiff.of(parse(SOURCE), parse(SOURCE)).isEmpty());
+    }
+
+    @Test
+    public void test_formattingOnly() {
+        String modified = SOURCE
+                .replace("set(PROJECT_NAME test)", "SET( PROJECT_NAME   \"test\" )  # name")
+                .replace("# set(ARDUINO_CPU)", "# set(ARDUINO_CPU atmega328)")
+                .replace("a.cpp b.cpp", "a.cpp\n        b.cpp")
+                .replace("project(", "\n\nproject(");
+
+        assertTrue(CMakeFileDiff.of(parse(SOURCE), parse(modified)).isEmpty());
+    }
+
+    @Test
+    public void test_commandChanges() {
+        String modified = SOURCE
+                .replace("set(${PROJECT_NAME}_BOARD uno)\n", "")
+                .replace("# set(ARDUINO_CPU)", "set(ARDUINO_CPU atmega328)")
+                .replace("a.cpp b.cpp c.cpp", "a.cpp c.cpp d.cpp");
+
+        assertEquals("" +
+                "REMOVED set\n" +
+                "ADDED set\n" +
+                "MODIFIED set [-2 b.cpp, +3 d.cpp]\n" +
+                "", diff(SOURCE, modified));
+    }
+
+    @Test
+    public void test_moved() {
+        String modified = SOURCE
+                .replace("set(PROJECT_NAME test)\n", "")
+                .replace("generate_arduino_firmware", "set(PROJECT_NAME test)\ngenerate_arduino_firmware");
+
+        assertEquals("" +
+                "MODIFIED set moved\n" +
+                "", diff(SOURCE, modified));
+    }
+
+    @Test
+    public void test_quotingChangesValue() {
+        assertEquals("" +
+                "MODIFIED set [-1 a, -2 b, +1 \"a;b]\n" +
+                "", diff("set(X a;b)\n", "set(X \"a;b\")\n"));
+
+        assertTrue(CMakeFileDiff.of(parse("set(X \"a b\")\n"), parse("set(X [[a b]])\n")).isEmpty());
+    }
+
+    @Test
+    public void test_diffArguments() {
+        assertEquals("[]", CMakeFileDiff.diffArguments(Arrays.asList("a", "b"), Arrays.asList("a", "b")).toString());
+        assertEquals("[+0 x, +1 y]", CMakeFileDiff.diffArguments(Collections.emptyList(), Arrays.asList("x", "y")).toString());
+        assertEquals("[-1 b, -3 d, +2 x]", CMakeFileDiff.diffArguments(Arrays.asList("a", "b", "c", "d", "e"), Arrays.asList("a", "c", "x", "e")).toString());
+    }
+}
@@ -0,0 +1,60 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class CMakeFormatterConcurrencyTest {
+    private static final DataHolder OPTIONS = new MutableDataSet()
+            .set(CMakeParser.AST_BLANK_LINES, true)
+            .set(CMakeParser.AST_LINE_END_EOL, true)
+            .set(CMakeParser.AST_COMMENTS, true)
+            .set(CMakeParser.AST_ARGUMENT_SEPARATORS, true)
+            .set(CMakeFormatter.PRESERVE_WHITESPACE, false)
+            .set(CMakeFormatter.PRESERVE_ARGUMENT_SEPARATOR, false);
+
+    @Test
+    public void test_sharedFormatter() throws Exception {
+        List<CMakeFile> documents = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+
+        for (int i = 0; i < 50; i++) {
+            String text = "# file " + i + "\nset(var" + i + "   a  b)\n\nproject( test" + i + " )\nif(x)\n  message(  " + i + " )\nendif()\n";
+            CMakeFile document = new CMakeParser(BasedSequenceImpl.of(text), OPTIONS).getDocument();
+            documents.add(document);
+            expected.add(CMakeFormatter.build(OPTIONS).render(document));
+        }
+
+        // one formatter and its handlers used by all threads
+        CMakeFormatter formatter = CMakeFormatter.build(OPTIONS);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    List<String> rendered = new ArrayList<>();
+                    for (CMakeFile document : documents) {
+                        rendered.add(formatter.render(document));
+                    }
+                    return rendered;
+                }));
+            }
+
+            for (Future<List<String>> future : futures) {
+                assertEquals(expected, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeFormatterMainTest {
+    private static final String UNFORMATTED = "set(a b)\n\n\n\nproject(test)";
+    private static final String FORMATTED = "set(a b)\n\nproject(test)\n";
+
+    private Path root;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("cmake-format");
+        write("a/CMakeLists.txt", UNFORMATTED);
+        write("b/utils.cmake", FORMATTED);
+        write("b/c/CMakeLists.txt", UNFORMATTED);
+        write(".hidden/CMakeLists.txt", UNFORMATTED);
+        write("a/notes.txt", UNFORMATTED);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void write(String name, String text) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(root.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    private int run(String... args) {
+        out.reset();
+        err.reset();
+        return CMakeFormatterMain.run(args, new PrintStream(out, true), new PrintStream(err, true));
+    }
+
+    @Test
+    public void test_collectFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        CMakeFormatterMain.collectFiles(root, files);
+        assertEquals(Arrays.asList(root.resolve("a/CMakeLists.txt"), root.resolve("b/c/CMakeLists.txt"), root.resolve("b/utils.cmake")), files);
+    }
+
+    @Test
+    public void test_check() throws IOException {
+        assertEquals(CMakeFormatterMain.EXIT_CHANGES, run("--check", "--threads=2", root.toString()));
+        assertEquals(UNFORMATTED, read("a/CMakeLists.txt"));
+        assertEquals(UNFORMATTED, read("b/c/CMakeLists.txt"));
+
+        String output = out.toString();
+        assertTrue(output, output.contains("Needs formatting: " + root.resolve("a/CMakeLists.txt")));
+        assertTrue(output, output.contains("Needs formatting: " + root.resolve("b/c/CMakeLists.txt")));
+        assertFalse(output, output.contains("utils.cmake"));
+        assertTrue(output, output.contains("3 files, 2 need formatting, 0 errors"));
+        assertTrue(output, output.contains("files/s"));
+    }
+
+    @Test
+    public void test_format() throws IOException {
+        assertEquals(CMakeFormatterMain.EXIT_OK, run(root.toString()));
+        assertEquals(FORMATTED, read("a/CMakeLists.txt"));
+        assertEquals(FORMATTED, read("b/c/CMakeLists.txt"));
+        assertEquals(UNFORMATTED, read(".hidden/CMakeLists.txt"));
+        assertEquals(UNFORMATTED, read("a/notes.txt"));
+
+        assertEquals(CMakeFormatterMain.EXIT_OK, run("--check", root.toString()));
+        assertTrue(out.toString(), out.toString().contains("3 files, 0 need formatting, 0 errors"));
+    }
+
+    @Test
+    public void test_formatterOptions() throws IOException {
+        write("b/utils.cmake", "set(a\n  b    c)\n");
+
+        assertEquals(CMakeFormatterMain.EXIT_OK, run("--check", root.resolve("b/utils.cmake").toString()));
+        assertEquals(CMakeFormatterMain.EXIT_CHANGES, run("--check", "--no-preserve-whitespace", root.resolve("b/utils.cmake").toString()));
+        assertEquals(CMakeFormatterMain.EXIT_CHANGES, run("--check", "--no-preserve-line-breaks", root.resolve("b/utils.cmake").toString()));
+
+        assertEquals(CMakeFormatterMain.EXIT_OK, run("--no-preserve-whitespace", "--no-preserve-argument-separator", "--no-preserve-line-breaks", root.resolve("b/utils.cmake").toString()));
+        assertEquals("set( a b c )\n", read("b/utils.cmake"));
+        assertEquals(CMakeFormatterMain.EXIT_OK, run("--check", "--no-preserve-whitespace", "--no-preserve-argument-separator", "--no-preserve-line-breaks", root.resolve("b/utils.cmake").toString()));
+    }
+
+    @Test
+    public void test_checkMapped() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < MappedCharSequence.MIN_MAPPED_SIZE) {
+            sb.append("set(a \"\u00e9t\u00e9\")\n");
+        }
+        write("large/large.cmake", sb.toString());
+        write("large/CMakeLists.txt", sb + UNFORMATTED);
+
+        assertEquals(CMakeFormatterMain.EXIT_CHANGES, run("--check", root.resolve("large").toString()));
+        assertTrue(out.toString(), out.toString().contains("2 files, 1 need formatting, 0 errors"));
+
+        assertEquals(CMakeFormatterMain.EXIT_OK, run(root.resolve("large").toString()));
+        assertEquals(sb + FORMATTED, read("large/CMakeLists.txt"));
+        assertEquals(sb.toString(), read("large/large.cmake"));
+    }
+
+    @Test
+    public void test_errors() {
+        assertEquals(CMakeFormatterMain.EXIT_ERROR, run());
+        assertEquals(CMakeFormatterMain.EXIT_ERROR, run("--unknown", root.toString()));
+        assertEquals(CMakeFormatterMain.EXIT_ERROR, run("--threads=0", root.toString()));
+        assertEquals(CMakeFormatterMain.EXIT_ERROR, run(root.resolve("missing").toString()));
+    }
+}
@@ -0,0 +1,104 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CMakeFormatterRangeTest {
+    private static final DataHolder OPTIONS = new MutableDataSet()
+            .set(CMakeParser.AUTO_CONFIG, false)
+            .set(CMakeParser.AST_BLANK_LINES, true)
+            .set(CMakeParser.AST_LINE_END_EOL, true)
+            .set(CMakeParser.AST_COMMENTS, true)
+            .set(CMakeParser.AST_ARGUMENT_SEPARATORS, true)
+            .set(CMakeFormatter.PRESERVE_WHITESPACE, false)
+            .set(CMakeFormatter.PRESERVE_ARGUMENT_SEPARATOR, false);
+
+    private static final String TEXT = "" +
+            "# comment\n" +
+            "set(a   b)\n" +
+            "\n" +
+            "project( test )\n" +
+            "add_executable(test  main.cpp)\n" +
+            "";
+
+    private static CMakeFile parse(String text) {
+        return new CMakeParser(BasedSequenceImpl.of(text), OPTIONS).getDocument();
+    }
+
+    private static List<CMakeTextEdit> formatRange(String text, int startOffset, int endOffset) {
+        return CMakeFormatter.build(OPTIONS).formatRange(parse(text), startOffset, endOffset);
+    }
+
+    @Test
+    public void test_textEdit() {
+        assertNull(CMakeTextEdit.of("abc", 0, 3, "abc"));
+        assertEquals(new CMakeTextEdit(1, 1, "x"), CMakeTextEdit.of("abc", 0, 3, "axbc"));
+        assertEquals(new CMakeTextEdit(1, 2, ""), CMakeTextEdit.of("abc", 0, 3, "ac"));
+        assertEquals(new CMakeTextEdit(2, 4, "c"), CMakeTextEdit.of("aa  ", 1, 4, "ac"));
+
+        assertEquals("axbd", CMakeTextEdit.apply("abc", Arrays.asList(new CMakeTextEdit(1, 1, "x"), new CMakeTextEdit(2, 3, "d"))));
+    }
+
+    @Test
+    public void test_unchanged() {
+        String text = "set( a b )\n\nproject( test )\n";
+        assertEquals(Collections.emptyList(), formatRange(text, 0, text.length()));
+    }
+
+    @Test
+    public void test_rangeOnly() {
+        // only the set command overlaps the range
+        int start = TEXT.indexOf("set");
+        List<CMakeTextEdit> edits = formatRange(TEXT, start, start + 3);
+
+        assertEquals(Collections.singletonList(new CMakeTextEdit(start + 4, start + 9, " a b ")), edits);
+        assertEquals(TEXT.replace("set(a   b)", "set( a b )"), CMakeTextEdit.apply(TEXT, edits));
+    }
+
+    @Test
+    public void test_caret() {
+        int offset = TEXT.indexOf("main.cpp");
+        List<CMakeTextEdit> edits = formatRange(TEXT, offset, offset);
+        assertEquals(TEXT.replace("add_executable(test  main.cpp)", "add_executable( test main.cpp )"), CMakeTextEdit.apply(TEXT, edits));
+
+        // caret at end of command formats it
+        offset = TEXT.indexOf("main.cpp)") + "main.cpp)".length();
+        assertEquals(edits, formatRange(TEXT, offset, offset));
+
+        // caret in comment formats nothing
+        assertEquals(Collections.emptyList(), formatRange(TEXT, 2, 2));
+    }
+
+    @Test
+    public void test_wholeDocument() {
+        CMakeFile document = parse(TEXT);
+        CMakeFormatter formatter = CMakeFormatter.build(OPTIONS);
+        List<CMakeTextEdit> edits = formatter.formatRange(document, 0, TEXT.length());
+
+        // project( test ) is already formatted
+        assertEquals(2, edits.size());
+        assertEquals(formatter.render(document), CMakeTextEdit.apply(TEXT, edits));
+    }
+
+    @Test
+    public void test_preserveWhitespace() {
+        String text = "project(test)\n  set(a   b)\n";
+        DataHolder options = new MutableDataSet(OPTIONS).set(CMakeFormatter.PRESERVE_WHITESPACE, true);
+        CMakeFile document = new CMakeParser(BasedSequenceImpl.of(text), options).getDocument();
+        CMakeFormatter formatter = CMakeFormatter.build(options);
+
+        // preserved whitespace formats to same text
+        assertEquals(text, formatter.render(document));
+        assertEquals(Collections.emptyList(), formatter.formatRange(document, 0, text.length()));
+    }
+}
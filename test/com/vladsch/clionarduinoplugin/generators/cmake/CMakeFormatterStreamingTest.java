@@ -0,0 +1,127 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeFormatterStreamingTest {
+    private static final DataHolder OPTIONS = new MutableDataSet()
+            .set(CMakeParser.AUTO_CONFIG, false)
+            .set(CMakeParser.AST_BLANK_LINES, true)
+            .set(CMakeParser.AST_LINE_END_EOL, true)
+            .set(CMakeParser.AST_COMMENTS, true)
+            .set(CMakeParser.AST_ARGUMENT_SEPARATORS, true)
+            .set(CMakeParser.AST_COMMENTED_OUT_COMMANDS, true);
+
+    private static final DataHolder[] OPTION_SETS = {
+            OPTIONS,
+            new MutableDataSet(OPTIONS).set(CMakeFormatter.PRESERVE_WHITESPACE, false).set(CMakeFormatter.PRESERVE_ARGUMENT_SEPARATOR, false),
+            new MutableDataSet(OPTIONS).set(CMakeFormatter.PRESERVE_LINE_BREAKS, false),
+            new MutableDataSet(OPTIONS).set(CMakeFormatter.MAX_TRAILING_BLANK_LINES, 0),
+            new MutableDataSet(OPTIONS).set(CMakeFormatter.MAX_TRAILING_BLANK_LINES, 2),
+    };
+
+    private static final String[] TEXTS = {
+            "",
+            "\n\n\n",
+            "set(a b)",
+            "set(a b)\n\n\n\n",
+            "\n\n# comment\n\n\nset(a b)\n\n  project( test )\n\n\n#set(c d)\n\n\n",
+            "if(a)\n    set(b \"c d\"\n        e)\nendif()\n\n\n\nmessage([[bracket\n\n\ntext]])\n\n",
+    };
+
+    private static List<String> getTexts() throws IOException, URISyntaxException {
+        List<String> texts = new ArrayList<>();
+        for (String text : TEXTS) texts.add(text);
+
+        File projects = new File(CMakeFormatterStreamingTest.class.getResource("/projects/dummy.txt").toURI()).getParentFile();
+        File[] dirs = projects.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File cMakeLists = new File(dir, "CMakeLists.txt");
+                if (cMakeLists.isFile()) {
+                    texts.add(new String(Files.readAllBytes(cMakeLists.toPath()), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return texts;
+    }
+
+    @Test
+    public void test_sameAsRender() throws IOException, URISyntaxException {
+        for (DataHolder options : OPTION_SETS) {
+            CMakeFormatter formatter = CMakeFormatter.build(options);
+            for (String text : getTexts()) {
+                CMakeFile document = new CMakeParser(BasedSequenceImpl.of(text), options).getDocument();
+                String expected = formatter.render(document);
+
+                for (int flushLines : new int[] { 1, 2, 3, CMakeFormatter.STREAMING_FLUSH_LINES }) {
+                    StringWriter writer = new StringWriter();
+                    formatter.renderStreaming(document, writer, flushLines);
+                    assertEquals("flushLines: " + flushLines + "\n" + text, expected, writer.toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_channel() throws IOException {
+        String text = "set(a \u00e9)\n\nproject(test)\n";
+        CMakeFormatter formatter = CMakeFormatter.build(OPTIONS);
+        CMakeFile document = new CMakeParser(BasedSequenceImpl.of(text), OPTIONS).getDocument();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        formatter.renderStreaming(document, Channels.newChannel(bytes), StandardCharsets.UTF_8);
+        assertEquals(formatter.render(document), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void test_streamed() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("set(a").append(i).append(" b)\n");
+        }
+
+        String text = sb.toString();
+        CMakeFormatter formatter = CMakeFormatter.build(OPTIONS);
+        CMakeFile document = new CMakeParser(BasedSequenceImpl.of(text), OPTIONS).getDocument();
+
+        // output is written in parts while rendering
+        List<String> writes = new ArrayList<>();
+        Writer writer = new Writer() {
+            @Override
+            public void write(char[] chars, int off, int len) {
+                writes.add(new String(chars, off, len));
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        formatter.renderStreaming(document, writer, 10);
+        assertTrue(writes.size() >= 10);
+        assertEquals(formatter.render(document), String.join("", writes));
+    }
+}
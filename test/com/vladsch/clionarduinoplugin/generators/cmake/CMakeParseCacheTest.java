@@ -0,0 +1,96 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.flexmark.test.AstCollectingVisitor;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CMakeParseCacheTest {
+    private static final String TEXT = "cmake_minimum_required(VERSION 2.8.4)\n# comment\nset(a b c)\n\nproject(test)\n";
+
+    private static final DataHolder COMMENT_OPTIONS = new DataSet(new MutableDataSet()
+            .set(CMakeParser.AST_COMMENTS, true)
+            .set(CMakeParser.AST_BLANK_LINES, true));
+
+    @Test
+    public void test_hit() {
+        CMakeParseCache cache = new CMakeParseCache(1000);
+
+        CMakeFile document = cache.parse(TEXT, null);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // same content in a different sequence
+        assertSame(document, cache.parse(new StringBuilder(TEXT), null));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // options which are not parser options do not change the document
+        assertSame(document, cache.parse(TEXT, new MutableDataSet().set(CMakeFormatter.MAX_BLANK_LINES, 5)));
+        assertEquals(2, cache.getHitCount());
+
+        cache.resetCounts();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void test_options() {
+        CMakeParseCache cache = new CMakeParseCache(1000);
+
+        CMakeFile document = cache.parse(TEXT, null);
+        CMakeFile commentDocument = cache.parse(TEXT, COMMENT_OPTIONS);
+        assertNotSame(document, commentDocument);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getSize());
+        assertEquals(2 * TEXT.length(), cache.getCharacterCount());
+
+        assertEquals(new AstCollectingVisitor().collectAndGetAstText(new CMakeParser(BasedSequenceImpl.of(TEXT), null).getDocument()),
+                new AstCollectingVisitor().collectAndGetAstText(document));
+        assertEquals(new AstCollectingVisitor().collectAndGetAstText(new CMakeParser(BasedSequenceImpl.of(TEXT), COMMENT_OPTIONS).getDocument()),
+                new AstCollectingVisitor().collectAndGetAstText(commentDocument));
+    }
+
+    @Test
+    public void test_eviction() {
+        String text1 = "set(a 1)\n";
+        String text2 = "set(b 2)\n";
+        String text3 = "set(c 3)\n";
+        CMakeParseCache cache = new CMakeParseCache(2 * text1.length());
+
+        CMakeFile document1 = cache.parse(text1, null);
+        cache.parse(text2, null);
+
+        // text1 becomes most recently used, text2 is evicted
+        assertSame(document1, cache.parse(text1, null));
+        cache.parse(text3, null);
+        assertEquals(2, cache.getSize());
+        assertEquals(2 * text1.length(), cache.getCharacterCount());
+
+        assertSame(document1, cache.parse(text1, null));
+        assertEquals(2, cache.getHitCount());
+
+        cache.parse(text2, null);
+        assertEquals(4, cache.getMissCount());
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getCharacterCount());
+    }
+
+    @Test
+    public void test_tooLarge() {
+        CMakeParseCache cache = new CMakeParseCache(TEXT.length() - 1);
+
+        assertNotSame(cache.parse(TEXT, null), cache.parse(TEXT, null));
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getMissCount());
+    }
+}
@@ -0,0 +1,120 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Adversarial inputs which take quadratic time or overflow the stack unless bracket, quoted and legacy unquoted
+ * argument scanning is linear. Budgets are generous for linear time and far below the quadratic time.
+ */
+public class CMakeParserPathologicalTest {
+    private static final String ALPHABET = "ab \n\"\\()#;[]=\u0000";
+    private static final int LINES = 50000;
+    private static final long BUDGET_MILLIS = 3000;
+
+    private static final DataHolder DEFAULT_OPTIONS = new DataSet();
+    private static final DataHolder BRACKET_COMMENT_OPTIONS = new DataSet(new MutableDataSet()
+            .set(CMakeParser.AUTO_CONFIG, false)
+            .set(CMakeParser.BRACKET_COMMENTS, true)
+            .set(CMakeParser.LINE_CONTINUATION, true)
+            .set(CMakeParser.AST_COMMENTS, true));
+    private static final DataHolder REGEX_OPTIONS = new DataSet(new MutableDataSet()
+            .set(CMakeParser.CHARACTER_SCANNER, false));
+
+    private static String repeat(@NotNull String text, int count) {
+        StringBuilder sb = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    private static void assertLinear(@NotNull String message, @NotNull String input, @NotNull DataHolder options) {
+        long start = System.nanoTime();
+        CMakeFile document = new CMakeParser(BasedSequenceImpl.of(input), options).getDocument();
+        long parsed = System.nanoTime();
+        boolean noErrors = new CMakeReader(options).read(input, reader -> {});
+        long read = System.nanoTime();
+
+        assertEquals(message, document.getErrors().isEmpty(), noErrors);
+
+        long parseMillis = (parsed - start) / 1000000;
+        long readMillis = (read - parsed) / 1000000;
+        assertTrue(message + " parse took " + parseMillis + "ms", parseMillis < BUDGET_MILLIS);
+        assertTrue(message + " read took " + readMillis + "ms", readMillis < BUDGET_MILLIS);
+    }
+
+    @Test
+    public void test_scanMemo() {
+        Random random = new Random(2019);
+        StringBuilder sb = new StringBuilder();
+        CMakeScanner.ScanMemo memo = new CMakeScanner.ScanMemo();
+
+        for (int i = 0; i < 2000; i++) {
+            sb.setLength(0);
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+
+            String input = sb.toString();
+            memo.clear();
+
+            // scans in order, then at random offsets as the parser does after error recovery
+            for (int j = 0; j < 2 * length; j++) {
+                int index = j < length ? j : random.nextInt(length);
+                String message = "Scanning at " + index + " \"" + input + "\"";
+                assertEquals(message, CMakeScanner.bracketArgument(input, index), CMakeScanner.bracketArgument(input, index, memo));
+                assertEquals(message, CMakeScanner.quotedArgument(input, index, true), CMakeScanner.quotedArgument(input, index, true, memo));
+                assertEquals(message, CMakeScanner.quotedArgument(input, index, false), CMakeScanner.quotedArgument(input, index, false, memo));
+                assertEquals(message, CMakeScanner.unquotedLegacy(input, index), CMakeScanner.unquotedLegacy(input, index, memo));
+            }
+        }
+    }
+
+    @Test
+    public void test_unterminatedBracketArguments() {
+        assertLinear("unterminated [[", repeat("set(a [[b)\n", LINES), DEFAULT_OPTIONS);
+        assertLinear("unterminated [==[", repeat("set(a [==[b]=]c)\n", LINES), DEFAULT_OPTIONS);
+        assertLinear("unterminated mixed", repeat("set(a [[b [=[c [==[d [===[e)\n", LINES / 4), DEFAULT_OPTIONS);
+    }
+
+    @Test
+    public void test_unterminatedBracketComments() {
+        assertLinear("unterminated #[[", repeat("#[[ comment\nset(a b)\n", LINES), BRACKET_COMMENT_OPTIONS);
+        assertLinear("unterminated #[=[", repeat("#[=[ comment ]]\n", LINES), BRACKET_COMMENT_OPTIONS);
+    }
+
+    @Test
+    public void test_unterminatedQuotedArguments() {
+        assertLinear("unterminated quote", "set(a \"" + repeat("b\\\"c)\n", LINES), DEFAULT_OPTIONS);
+        assertLinear("unterminated quotes", repeat("set(a b)\n", LINES) + repeat("\"", LINES), BRACKET_COMMENT_OPTIONS);
+    }
+
+    @Test
+    public void test_legacyArguments() {
+        assertLinear("legacy unterminated quote", "set(a b\"" + repeat("c\\\"d e(f)\n", LINES), DEFAULT_OPTIONS);
+        assertLinear("legacy parentheses", repeat("set(-Da=$(v -Db=$(w)))\n", LINES), DEFAULT_OPTIONS);
+    }
+
+    @Test
+    public void test_regexOption() {
+        // regex matching of these overflows the stack
+        String text = repeat("abc def\n", LINES);
+        assertLinear("regex unterminated bracket", "set(a [==[" + text, REGEX_OPTIONS);
+        assertLinear("regex long bracket", "set(a [==[" + text + "]==])\n", REGEX_OPTIONS);
+        assertLinear("regex long quoted", "set(a \"" + text + "\")\n", REGEX_OPTIONS);
+        assertLinear("regex long legacy", "set(a b\"" + text + "\"" + repeat("c", LINES) + ")\n", REGEX_OPTIONS);
+        assertLinear("regex unterminated bracket comment", "#[[" + text, new DataSet(new MutableDataSet(BRACKET_COMMENT_OPTIONS).set(CMakeParser.CHARACTER_SCANNER, false)));
+    }
+}
@@ -0,0 +1,42 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.flexmark.spec.SpecExample;
+import com.vladsch.flexmark.util.ast.IParse;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import org.junit.runners.Parameterized;
+
+import java.util.List;
+
+/**
+ * Parser spec with the regex scanner, results must be the same as with the default character scanner
+ */
+public class CMakeParserRegexScannerSpecTest extends CMakeParserSpecTest {
+    private static final IParse PARSER = new CMakeIParser(new MutableDataSet()
+            .set(CMakeParser.CHARACTER_SCANNER, false));
+
+    public CMakeParserRegexScannerSpecTest(SpecExample example) {
+        super(example);
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> data() {
+        return CMakeParserSpecTest.data();
+    }
+
+    @Override
+    public DataHolder getOptions(SpecExample example, String optionSets) {
+        DataHolder options = super.getOptions(example, optionSets);
+
+        // dumped options include the scanner, expected dump is for the default scanner
+        if (options != null && ExtraRenderer.DUMP_OPTIONS.getFrom(options)) {
+            return new MutableDataSet(options).set(CMakeParser.CHARACTER_SCANNER, true);
+        }
+        return options;
+    }
+
+    @Override
+    public IParse parser() {
+        return PARSER;
+    }
+}
@@ -0,0 +1,118 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.flexmark.test.AstCollectingVisitor;
+import com.vladsch.flexmark.util.Pair;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CMakeParserReparseTest {
+    private static final String SOURCE = "" +
+            "cmake_minimum_required(VERSION 3.0)\n" +
+            "set(CMAKE_TOOLCHAIN_FILE ${CMAKE_SOURCE_DIR}/cmake/ArduinoToolchain.cmake)\n" +
+            "set(PROJECT_NAME tft_life)\n" +
+            "\n" +
+            "#[[ bracket\n" +
+            "comment ]] set(${PROJECT_NAME}_BOARD uno)\n" +
+            "  # set(ARDUINO_CPU)\n" +
+            "project(${PROJECT_NAME})\n" +
+            "set(${PROJECT_NAME}_SRCS \"a.cpp\n" +
+            "b.cpp\" [[c.cpp]] d.cpp)\n" +
+            "\n" +
+            "generate_arduino_firmware(${PROJECT_NAME})\n";
+
+    private static final String[] INSERTS = {
+            "\n", "#", "#[[", "]]", "[[", "\"", "(", ")", "foo(", "set(x y)\n", " ", "\\", "# set(a b)\n", "x", ";",
+            "cmake_minimum_required(VERSION 2.8)\n",
+    };
+
+    private static final DataHolder[] OPTIONS = {
+            new DataSet(),
+            new DataSet(new MutableDataSet()
+                    .set(CMakeParser.AST_COMMENTS, true)
+                    .set(CMakeParser.AST_BLANK_LINES, true)
+                    .set(CMakeParser.AST_LINE_END_EOL, true)
+                    .set(CMakeParser.AST_ARGUMENT_SEPARATORS, true)
+                    .set(CMakeParser.AST_COMMENTED_OUT_COMMANDS, true)),
+            new DataSet(new MutableDataSet()
+                    .set(CMakeParser.AUTO_CONFIG, false)
+                    .set(CMakeParser.AST_COMMENTS, true)
+                    .set(CMakeParser.MAX_ERROR_LINE_RECOVERIES, 1)),
+    };
+
+    private static String getText(CMakeFile document) {
+        StringBuilder sb = new StringBuilder();
+        for (Pair<String, BasedSequence> error : document.getErrors()) {
+            sb.append(error.getFirst()).append(": ").append(error.getSecond().getStartOffset()).append("\n");
+        }
+        sb.append(new AstCollectingVisitor().collectAndGetAstText(document));
+        sb.append(document.getAll().size());
+        return sb.toString();
+    }
+
+    private CMakeFile assertReparse(CMakeFile document, DataHolder options, int startOffset, int endOffset, String text) {
+        String previous = document.getChars().toString();
+        String changed = previous.substring(0, startOffset) + text + previous.substring(endOffset);
+
+        CMakeFile expected = new CMakeParser(BasedSequenceImpl.of(changed), options).getDocument();
+        CMakeFile actual = CMakeParser.reparse(document, startOffset, endOffset, text);
+
+        assertEquals(changed, actual.getChars().toString());
+        assertEquals("Reparse of [" + startOffset + ", " + endOffset + ") with \"" + text + "\" in:\n" + previous, getText(expected), getText(actual));
+        return actual;
+    }
+
+    @Test
+    public void test_previousUnchanged() {
+        CMakeFile document = new CMakeParser(BasedSequenceImpl.of(SOURCE), OPTIONS[1]).getDocument();
+        String text = getText(document);
+        CMakeFile changed = assertReparse(document, OPTIONS[1], 0, 0, "set(x y)\n");
+
+        assertEquals(text, getText(document));
+        assertSame(document.getChars().getBase(), document.getFirstChild().getChars().getBase());
+        assertSame(changed.getChars().getBase(), changed.getLastChild().getChars().getBase());
+    }
+
+    @Test
+    public void test_edits() {
+        for (DataHolder options : OPTIONS) {
+            CMakeFile document = new CMakeParser(BasedSequenceImpl.of(SOURCE), options).getDocument();
+            int commandOffset = SOURCE.indexOf("project(");
+
+            assertReparse(document, options, commandOffset, commandOffset, "\n");
+            assertReparse(document, options, commandOffset, commandOffset + 7, "add_subdirectory");
+            assertReparse(document, options, commandOffset, commandOffset, "#[[");
+            assertReparse(document, options, SOURCE.indexOf("b.cpp"), SOURCE.indexOf("b.cpp"), "\"");
+            assertReparse(document, options, SOURCE.indexOf("3.0"), SOURCE.indexOf("3.0") + 3, "2.8");
+            assertReparse(document, options, SOURCE.length(), SOURCE.length(), "set(a b)");
+            assertReparse(document, options, 0, SOURCE.length(), "");
+        }
+    }
+
+    @Test
+    public void test_randomEdits() {
+        Random random = new Random(2019);
+
+        for (int i = 0; i < 1000; i++) {
+            DataHolder options = OPTIONS[random.nextInt(OPTIONS.length)];
+            CMakeFile document = new CMakeParser(BasedSequenceImpl.of(SOURCE), options).getDocument();
+
+            for (int j = 0; j < 5; j++) {
+                int length = document.getChars().length();
+                int startOffset = random.nextInt(length + 1);
+                int endOffset = Math.min(length, startOffset + (random.nextBoolean() ? 0 : random.nextInt(20)));
+                String text = random.nextInt(4) == 0 ? "" : INSERTS[random.nextInt(INSERTS.length)];
+                document = assertReparse(document, options, startOffset, endOffset, text);
+            }
+        }
+    }
+}
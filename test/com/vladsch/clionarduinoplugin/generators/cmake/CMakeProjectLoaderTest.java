@@ -0,0 +1,213 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.plugin.util.VariableExpander;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CMakeProjectLoaderTest {
+    private Path root;
+    private CMakeProjectLoader loader;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("cmake-project");
+        loader = new CMakeProjectLoader(ForkJoinPool.commonPool(), CMakeProjectLoader.DEFAULT_OPTIONS);
+
+        write("CMakeLists.txt", "" +
+                "set(PROJECT_NAME test)\n" +
+                "include(Settings)\n" +
+                "include(${CMAKE_CURRENT_SOURCE_DIR}/cmake/sources.cmake)\n" +
+                "project(${PROJECT_NAME})\n" +
+                "add_subdirectory(libs/util)\n" +
+                "add_subdirectory(missing)\n" +
+                "include(${UNKNOWN}/other.cmake)\n" +
+                "set(${PROJECT_NAME}_LIBS ${UTIL_LIB})\n");
+        write("cmake/Settings.cmake", "" +
+                "set(${PROJECT_NAME}_BOARD uno)\n" +
+                "include(${CMAKE_CURRENT_LIST_DIR}/sources.cmake)\n");
+        write("cmake/sources.cmake", "" +
+                "set(${PROJECT_NAME}_SRCS main.cpp util.cpp)\n" +
+                "include(Settings)\n");
+        write("libs/util/CMakeLists.txt", "" +
+                "set(UTIL_LIB util CACHE STRING \"library\")\n");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void write(String name, String text) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private File file(String name) {
+        return root.resolve(name).toAbsolutePath().normalize().toFile();
+    }
+
+    private String relative(List<File> files) {
+        List<String> names = new ArrayList<>();
+        for (File file : files) {
+            names.add(root.toAbsolutePath().normalize().relativize(file.toPath()).toString().replace(File.separatorChar, '/'));
+        }
+        return names.toString();
+    }
+
+    @Test
+    public void test_loadGraph() {
+        CMakeProjectLoader.Project project = loader.load(root.toFile());
+
+        assertNotNull(project);
+        assertEquals("[CMakeLists.txt, cmake/Settings.cmake, cmake/sources.cmake, libs/util/CMakeLists.txt]", relative(project.getFiles()));
+        assertEquals("[missing/CMakeLists.txt]", relative(project.getMissingFiles()));
+        assertEquals(4, project.getReferences(file("CMakeLists.txt")).size());
+        assertEquals(CMakeProjectLoader.ReferenceType.ADD_SUBDIRECTORY, project.getReferences(file("CMakeLists.txt")).get(2).type);
+        assertEquals(4, loader.getCachedCount());
+    }
+
+    @Test
+    public void test_evaluateVariables() {
+        CMakeProjectLoader.Project project = loader.load(root.toFile());
+        assertNotNull(project);
+
+        VariableExpander values = new VariableExpander();
+        project.evaluateVariables(values);
+
+        assertEquals("[uno]", values.get("test_BOARD").toString());
+        assertEquals("[main.cpp, util.cpp]", values.get("test_SRCS").toString());
+        assertEquals("[util]", values.get("UTIL_LIB").toString());
+        assertEquals("[util]", values.get("test_LIBS").toString());
+        assertEquals("[test]", values.get("PROJECT_NAME").toString());
+    }
+
+    @Test
+    public void test_subdirectoryScope() throws IOException {
+        write("libs/util/CMakeLists.txt", "" +
+                "project(util)\n" +
+                "set(UTIL_LIB util CACHE STRING \"library\")\n" +
+                "set(UTIL_LOCAL local)\n" +
+                "set(test_BOARD nano)\n" +
+                "set(UTIL_BOARD ${test_BOARD} PARENT_SCOPE)\n" +
+                "set(UTIL_NAME ${PROJECT_NAME} PARENT_SCOPE)\n" +
+                "set(UTIL_SRCS ${test_SRCS} PARENT_SCOPE)\n");
+
+        CMakeProjectLoader.Project project = loader.load(root.toFile());
+        assertNotNull(project);
+
+        VariableExpander values = new VariableExpander();
+        project.evaluateVariables(values);
+
+        assertEquals("[test]", values.get("PROJECT_NAME").toString());
+        assertEquals("[uno]", values.get("test_BOARD").toString());
+        assertEquals("[util]", values.get("test_LIBS").toString());
+        assertEquals("[]", values.get("UTIL_LOCAL").toString());
+        assertEquals("[nano]", values.get("UTIL_BOARD").toString());
+        assertEquals("[util]", values.get("UTIL_NAME").toString());
+        assertEquals("[main.cpp, util.cpp]", values.get("UTIL_SRCS").toString());
+    }
+
+    @Test
+    public void test_includedFromDirectories() throws IOException {
+        write("CMakeLists.txt", "" +
+                "project(test)\n" +
+                "include(${CMAKE_SOURCE_DIR}/cmake/common.cmake)\n" +
+                "add_subdirectory(libs/util)\n");
+        write("cmake/common.cmake", "" +
+                "include(${CMAKE_CURRENT_SOURCE_DIR}/local.cmake)\n");
+        write("local.cmake", "" +
+                "set(ROOT_LOCAL root)\n");
+        write("libs/util/CMakeLists.txt", "" +
+                "include(${CMAKE_SOURCE_DIR}/cmake/common.cmake)\n" +
+                "set(UTIL_LOCAL ${LOCAL} PARENT_SCOPE)\n");
+        write("libs/util/local.cmake", "" +
+                "set(LOCAL util)\n");
+
+        CMakeProjectLoader.Project project = loader.load(root.toFile());
+        assertNotNull(project);
+
+        assertEquals("[CMakeLists.txt, cmake/common.cmake, libs/util/CMakeLists.txt, libs/util/local.cmake, local.cmake]", relative(project.getFiles()));
+        assertEquals(1, project.getReferences(file("cmake/common.cmake"), file("")).size());
+        assertEquals(file("local.cmake"), project.getReferences(file("cmake/common.cmake"), file("")).get(0).file);
+        assertEquals(file("libs/util/local.cmake"), project.getReferences(file("cmake/common.cmake"), file("libs/util")).get(0).file);
+        assertEquals(2, project.getReferences(file("cmake/common.cmake")).size());
+
+        VariableExpander values = new VariableExpander();
+        project.evaluateVariables(values);
+
+        assertEquals("[root]", values.get("ROOT_LOCAL").toString());
+        assertEquals("[util]", values.get("UTIL_LOCAL").toString());
+        assertEquals("[]", values.get("LOCAL").toString());
+    }
+
+    @Test
+    public void test_cacheInvalidation() throws IOException {
+        CMakeProjectLoader.Project project = loader.load(root.toFile());
+        assertNotNull(project);
+
+        CMakeFile rootDocument = project.getDocument(file("CMakeLists.txt"));
+        CMakeFile settings = project.getDocument(file("cmake/Settings.cmake"));
+
+        write("cmake/Settings.cmake", "set(${PROJECT_NAME}_BOARD nano)\n");
+        loader.invalidate(file("cmake/Settings.cmake"));
+
+        CMakeProjectLoader.Project reloaded = loader.load(root.toFile());
+        assertNotNull(reloaded);
+        assertSame(rootDocument, reloaded.getDocument(file("CMakeLists.txt")));
+        assertNotSame(settings, reloaded.getDocument(file("cmake/Settings.cmake")));
+
+        VariableExpander values = new VariableExpander();
+        reloaded.evaluateVariables(values);
+        assertEquals("[nano]", values.get("test_BOARD").toString());
+    }
+
+    @Test
+    public void test_mappedNotCached() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < MappedCharSequence.MIN_MAPPED_SIZE) {
+            sb.append("set(GENERATED_").append(sb.length()).append(" value)\n");
+        }
+        sb.append("set(BIG_MODULE loaded)\n");
+        write("cmake/big.cmake", sb.toString());
+        write("CMakeLists.txt", "" +
+                "project(test)\n" +
+                "include(cmake/big.cmake)\n" +
+                "include(Settings)\n");
+
+        CMakeProjectLoader.Project project = loader.load(root.toFile());
+        assertNotNull(project);
+        assertEquals("[CMakeLists.txt, cmake/Settings.cmake, cmake/big.cmake, cmake/sources.cmake]", relative(project.getFiles()));
+        assertEquals(3, loader.getCachedCount());
+
+        VariableExpander values = new VariableExpander();
+        project.evaluateVariables(values);
+        assertEquals("[loaded]", values.get("BIG_MODULE").toString());
+    }
+
+    @Test
+    public void test_noProject() {
+        assertNull(loader.load(root.resolve("libs").toFile()));
+    }
+}
@@ -0,0 +1,184 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Argument;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Command;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CommentedOutCommand;
+import com.vladsch.flexmark.util.Pair;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeReaderTest {
+    private static final String ALPHABET = "ab_09 \t\r\n\n\"\\()#;$[]=";
+
+    private static final String[] SNIPPETS = {
+            "cmake_minimum_required(VERSION 3.0)\n",
+            "cmake_minimum_required(VERSION 2.8)\n",
+            "cmake_minimum_required(VERSION;2.8)\n",
+            "cmake_minimum_required(VERSION # 2.8\n 2.8)\n",
+            "cmake_minimum_required(VERSION\n 2.8)\n",
+            "cmake_minimum_required(VERSION (x) 2.8)\n",
+            "cmake_minimum_required(VERSION (x 2.8)\n",
+            "#cmake_minimum_required(VERSION 3.0)\n",
+            "set(a \"b\\\nc\" [[d]] (e f) g)\n",
+            "#[[ comment ]] set(a b)\n",
+            "#set(a b)\n",
+            "foo(a (b c\n",
+            "\n  \n",
+            "# comment\n",
+    };
+
+    private static final DataHolder[] OPTIONS = {
+            new DataSet(),
+            new DataSet(new MutableDataSet()
+                    .set(CMakeParser.AST_COMMENTS, true)
+                    .set(CMakeParser.AST_BLANK_LINES, true)
+                    .set(CMakeParser.AST_LINE_END_EOL, true)
+                    .set(CMakeParser.AST_ARGUMENT_SEPARATORS, true)
+                    .set(CMakeParser.AST_COMMENTED_OUT_COMMANDS, true)),
+            new DataSet(new MutableDataSet()
+                    .set(CMakeParser.AST_LINE_END_EOL, true)
+                    .set(CMakeParser.AST_BLANK_LINES, true)),
+            new DataSet(new MutableDataSet()
+                    .set(CMakeParser.AUTO_CONFIG, false)
+                    .set(CMakeParser.BRACKET_COMMENTS, true)
+                    .set(CMakeParser.LINE_CONTINUATION, true)
+                    .set(CMakeParser.MAX_ERROR_LINE_RECOVERIES, 1)),
+    };
+
+    private static String getParserText(@NotNull String input, @NotNull DataHolder options) {
+        CMakeFile document = new CMakeParser(BasedSequenceImpl.of(input), options).getDocument();
+        StringBuilder sb = new StringBuilder();
+
+        for (Node node : document.getChildren()) {
+            if (node instanceof Command) {
+                Command command = (Command) node;
+                sb.append(node instanceof CommentedOutCommand ? "#" : "").append(command.getCommand()).append("[").append(command.getArguments().getStartOffset()).append("](");
+                for (Node child : node.getChildren()) {
+                    if (child instanceof Argument) {
+                        BasedSequence chars = child.getChars();
+                        sb.append(" ").append(chars.getStartOffset()).append(":").append(((Argument) child).getText()).append(":").append(chars.getEndOffset());
+                    }
+                }
+                sb.append(" )\n");
+            }
+        }
+
+        for (Pair<String, BasedSequence> error : document.getErrors()) {
+            sb.append(error.getFirst()).append(": ").append(error.getSecond().getStartOffset()).append("-").append(error.getSecond().getEndOffset()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static String getReaderText(@NotNull String input, @NotNull DataHolder options) {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder errors = new StringBuilder();
+
+        new CMakeReader(options).read(input, new CMakeReaderHandler() {
+            @Override
+            public void command(@NotNull CMakeReader reader) {
+                sb.append(reader.isCommentedOut() ? "#" : "").append(reader.getName()).append("[").append(reader.getArgumentsStart()).append("](");
+                for (int i = 0; i < reader.getArgumentCount(); i++) {
+                    sb.append(" ").append(reader.getArgumentStart(i)).append(":").append(reader.getText(i)).append(":").append(reader.getArgumentEnd(i));
+                }
+                sb.append(" )\n");
+            }
+
+            @Override
+            public void error(@NotNull CMakeReader reader, @NotNull String message, int startOffset, int endOffset) {
+                errors.append(message).append(": ").append(startOffset).append("-").append(endOffset).append("\n");
+            }
+        });
+        return sb.append(errors).toString();
+    }
+
+    private static void assertSameAsParser(@NotNull String input) {
+        for (DataHolder options : OPTIONS) {
+            assertEquals("Reading:\n" + input, getParserText(input, options), getReaderText(input, options));
+        }
+    }
+
+    @Test
+    public void test_projects() throws IOException {
+        File projects = new File(getClass().getResource("/projects/dummy.txt").getFile()).getParentFile();
+        File[] dirs = projects.listFiles();
+        assertTrue(dirs != null);
+
+        for (File dir : dirs) {
+            File file = new File(dir, "CMakeLists.txt");
+            if (file.isFile()) {
+                assertSameAsParser(new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+            }
+        }
+    }
+
+    @Test
+    public void test_autoConfig() {
+        for (String snippet : SNIPPETS) {
+            assertSameAsParser(snippet + "set(a \"b\\\nc\")\n#[[ x\n]] foo(a)\n");
+        }
+    }
+
+    @Test
+    public void test_random() {
+        Random random = new Random(2019);
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < 2000; i++) {
+            sb.setLength(0);
+            int length = random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                if (random.nextBoolean()) {
+                    sb.append(SNIPPETS[random.nextInt(SNIPPETS.length)]);
+                } else {
+                    sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                }
+            }
+            assertSameAsParser(sb.toString());
+        }
+    }
+
+    @Test
+    public void test_filter() {
+        String input = "set(a b)\nproject(x)\nset(c d e)\nadd_subdirectory(f)\n";
+        StringBuilder sb = new StringBuilder();
+
+        CMakeReader reader = new CMakeReader(null);
+        boolean noErrors = reader.read(input, new CMakeReaderHandler() {
+            @Override
+            public boolean wantCommand(@NotNull CMakeReader reader) {
+                return reader.isCommand("set");
+            }
+
+            @Override
+            public void command(@NotNull CMakeReader reader) {
+                sb.append(reader.getName());
+                for (int i = 0; i < reader.getArgumentCount(); i++) {
+                    sb.append(" ").append(reader.getText(i));
+                }
+                sb.append("\n");
+                if (reader.getArgumentCount() > 2) reader.stop();
+            }
+        });
+
+        assertTrue(noErrors);
+        assertEquals("set a b\nset c d e\n", sb.toString());
+
+        assertFalse(reader.read("set(a b\n", reader1 -> {}));
+    }
+}
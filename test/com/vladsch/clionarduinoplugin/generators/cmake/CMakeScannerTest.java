@@ -0,0 +1,110 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class CMakeScannerTest {
+    private static final String ALPHABET = "abZ_09 \t\r\n\"\\()#;$@^trn[]=\u0000\u0085\u2028";
+
+    private static int regexEnd(Pattern pattern, CharSequence input) {
+        Matcher matcher = pattern.matcher(input);
+        return matcher.find() ? matcher.end() : -1;
+    }
+
+    private void assertSame(Pattern pattern, ToIntFunction<CharSequence> scanner, String arg) {
+        // match() does not try a pattern at the end of input
+        int expected = arg.isEmpty() ? -1 : regexEnd(pattern, arg);
+        int actual = arg.isEmpty() ? -1 : scanner.applyAsInt(arg);
+        assertEquals("Pattern " + pattern.pattern() + " on \"" + arg + "\"", expected, actual);
+    }
+
+    private void assertAllSame(String arg) {
+        assertSame(CMakeParser.SP, s -> CMakeScanner.spaces(s, 0), arg);
+        assertSame(CMakeParser.COMMAND, s -> CMakeScanner.command(s, 0), arg);
+        assertSame(CMakeParser.EOL, s -> CMakeScanner.eol(s, 0), arg);
+        assertSame(CMakeParser.REST_OF_LINE, s -> CMakeScanner.restOfLine(s, 0), arg);
+        assertSame(CMakeParser.BRACKET_ARGUMENT, s -> CMakeScanner.bracketArgument(s, 0), arg);
+        assertSame(CMakeParser.QUOTED_ARGUMENT_LINE_CONT, s -> CMakeScanner.quotedArgument(s, 0, true), arg);
+        assertSame(CMakeParser.QUOTED_ARGUMENT_NO_LINE_CONT, s -> CMakeScanner.quotedArgument(s, 0, false), arg);
+        assertSame(CMakeParser.UNQUOTED_ARGUMENT, s -> CMakeScanner.unquotedArgument(s, 0), arg);
+        assertSame(CMakeParser.UNQUOTED_LEGACY, s -> CMakeScanner.unquotedLegacy(s, 0), arg);
+    }
+
+    @Test
+    public void test_bracketArgument() {
+        assertAllSame("[[]]");
+        assertAllSame("[[ ; \\]]");
+        assertAllSame("[==[ ; \\]==]]");
+        assertAllSame("[=[ ]] ]==] ]=]");
+        assertAllSame("[[\r\n]]");
+        assertAllSame("[[\u2028]]");
+        assertAllSame("[=[ ; \\]==]");
+        assertAllSame("[==[ ; \\]=]");
+
+        assertEquals(4, CMakeScanner.bracketMarkerLength("[==[ ]==]", 0, 9));
+        assertEquals(2, CMakeScanner.bracketMarkerLength("[[ ]]", 0, 5));
+    }
+
+    @Test
+    public void test_quotedArgument() {
+        assertAllSame("\"abc\\\\\ndef\n \"");
+        assertAllSame("\"abc\\\ndef\n \"");
+        assertAllSame("\"abc\\\\\\\ndef\n \"");
+        assertAllSame("\"abc\\\r\ndef\"");
+        assertAllSame("\"abc\u0000\"");
+        assertAllSame("\"abc\\x\"");
+        assertAllSame("\"abc");
+    }
+
+    @Test
+    public void test_unquoted() {
+        assertAllSame("/@+-*&!$%^&*=[]|?<>~` ");
+        assertAllSame("abc\\ def;");
+        assertAllSame("a\" b\"c\"d");
+        assertAllSame("-Da=$(v)\"");
+        assertAllSame("-Da=$()");
+        assertAllSame("-Da=$(v");
+        assertAllSame("${CMAKE_PROJECT_NAME}_PROGRAMMER");
+    }
+
+    @Test
+    public void test_eol() {
+        assertAllSame("\r\n");
+        assertAllSame("\r");
+        assertAllSame("\n");
+        assertAllSame("\u0085");
+        assertAllSame("\u2028 ");
+        assertAllSame("abc\u2029");
+        assertAllSame("abc\u2029 ");
+    }
+
+    @Test
+    public void test_random() {
+        Random random = new Random(2019);
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < 20000; i++) {
+            sb.setLength(0);
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.append('"');
+                    break;
+                case 1:
+                    sb.append("[==[", 0, random.nextInt(3) + 1).append('[');
+                    break;
+            }
+
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            assertAllSame(sb.toString());
+        }
+    }
+}
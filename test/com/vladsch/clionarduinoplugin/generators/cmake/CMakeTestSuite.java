@@ -5,10 +5,32 @@ import org.junit.runners.Suite;
 @org.junit.runner.RunWith(Suite.class)
 @Suite.SuiteClasses({
         CMakeParserPatternTest.class,
+        CMakeArgumentWriterTest.class,
+        CMakeScannerTest.class,
         CMakeParserSpecTest.class,
+        CMakeParserRegexScannerSpecTest.class,
+        CMakeParserReparseTest.class,
+        CMakeParserPathologicalTest.class,
+        CMakeParseCacheTest.class,
+        CommandBlockIndexTest.class,
+        CommandNameIndexTest.class,
+        CMakeReaderTest.class,
+        CompactCMakeFileTest.class,
         CMakeFormatterSpecTest.class,
+        CMakeFormatterRangeTest.class,
+        CMakeFormatterStreamingTest.class,
+        CMakeFormatterConcurrencyTest.class,
+        CMakeFormatterMainTest.class,
+        CMakeFileDiffTest.class,
+        CMakeProjectLoaderTest.class,
+        MappedCharSequenceTest.class,
+        CMakeVariableEvaluatorTest.class,
+        CMakeWildcardPatternTest.class,
+        CMakeArgumentTrieTest.class,
+        CMakeCommandAnchorsTest.class,
         CMakeBuilderSpecTest.class,
         ArduinoCMakeBuilderTest.class,
+        ArduinoProjectScannerTest.class,
 })
 public class CMakeTestSuite {
 }
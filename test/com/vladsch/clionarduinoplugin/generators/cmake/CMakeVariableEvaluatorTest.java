@@ -0,0 +1,173 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeVariableEvaluatorTest {
+    private static final String SOURCE = "" +
+            "cmake_minimum_required(VERSION 2.8.4)\n" +
+            "set(PROJECT_NAME test)\n" +
+            "set(${PROJECT_NAME}_BOARD uno)\n" +
+            "project(${PROJECT_NAME})\n" +
+            "set(${PROJECT_NAME}_SRCS main.cpp)\n" +
+            "list(APPEND ${PROJECT_NAME}_SRCS util.cpp \"other.cpp\")\n" +
+            "set(ALL_SRCS ${${PROJECT_NAME}_SRCS} extra.cpp)\n" +
+            "if(${PROJECT_NAME}_BOARD STREQUAL \"uno\")\n" +
+            "    set(ARDUINO_CPU atmega328)\n" +
+            "elseif(DEFINED ${PROJECT_NAME}_CPU)\n" +
+            "    set(ARDUINO_CPU ${${PROJECT_NAME}_CPU})\n" +
+            "else()\n" +
+            "    set(ARDUINO_CPU unknown)\n" +
+            "endif()\n" +
+            "string(TOUPPER ${ARDUINO_CPU} CPU_NAME)\n" +
+            "set(UNRELATED value)\n";
+
+    private static CMakeFile parse(String text) {
+        return new CMakeParser(BasedSequenceImpl.of(text), null).getDocument();
+    }
+
+    private static CMakeVariableEvaluator evaluate(String text) {
+        CMakeVariableEvaluator evaluator = new CMakeVariableEvaluator();
+        evaluator.evaluate(parse(text));
+        return evaluator;
+    }
+
+    @Test
+    public void test_values() {
+        CMakeVariableEvaluator evaluator = evaluate(SOURCE);
+
+        assertEquals("[test]", String.valueOf(evaluator.get("PROJECT_NAME")));
+        assertEquals("[test]", String.valueOf(evaluator.get("CMAKE_PROJECT_NAME")));
+        assertEquals("[main.cpp, util.cpp, other.cpp]", String.valueOf(evaluator.get("test_SRCS")));
+        assertEquals("main.cpp;util.cpp;other.cpp;extra.cpp", evaluator.getValue("ALL_SRCS"));
+        assertEquals("atmega328", evaluator.getValue("ARDUINO_CPU"));
+        assertEquals("ATMEGA328", evaluator.getValue("CPU_NAME"));
+        assertEquals("uno/test", evaluator.resolve("${test_BOARD}/${PROJECT_NAME}"));
+        assertEquals(10, evaluator.getEvaluatedCount());
+    }
+
+    @Test
+    public void test_branches() {
+        CMakeVariableEvaluator evaluator = evaluate(SOURCE.replace("_BOARD uno", "_BOARD nano").replace("project(", "set(test_CPU atmega168)\nproject("));
+        assertEquals("atmega168", evaluator.getValue("ARDUINO_CPU"));
+
+        evaluator = evaluate(SOURCE.replace("_BOARD uno", "_BOARD nano"));
+        assertEquals("unknown", evaluator.getValue("ARDUINO_CPU"));
+    }
+
+    @Test
+    public void test_conditions() {
+        String text = "" +
+                "set(A 1)\n" +
+                "set(EMPTY \"\")\n" +
+                "set(LIST x y z)\n" +
+                "set(VERSION 1.8.2)\n" +
+                "if(A AND NOT EMPTY)\n set(R1 yes)\nendif()\n" +
+                "if(UNDEFINED OR (EMPTY OR \"TRUE\"))\n set(R2 yes)\nendif()\n" +
+                "if(\"A\")\n set(R3 yes)\nendif()\n" +
+                "if(y IN_LIST LIST AND VERSION VERSION_GREATER_EQUAL 1.8 AND VERSION VERSION_LESS 1.10)\n set(R4 yes)\nendif()\n" +
+                "if(VERSION MATCHES \"^1[.]\" AND 10 GREATER 9 AND NOT abc STRGREATER abd)\n set(R5 yes)\nendif()\n" +
+                "if(FOO-NOTFOUND)\n set(R6 yes)\nendif()\n";
+
+        CMakeVariableEvaluator evaluator = evaluate(text);
+
+        assertEquals("yes", evaluator.getValue("R1"));
+        assertEquals("yes", evaluator.getValue("R2"));
+        assertNull(evaluator.getValue("R3"));
+        assertEquals("yes", evaluator.getValue("R4"));
+        assertEquals("yes", evaluator.getValue("R5"));
+        assertNull(evaluator.getValue("R6"));
+    }
+
+    @Test
+    public void test_listAndString() {
+        String text = "" +
+                "set(L c a b a)\n" +
+                "list(REMOVE_DUPLICATES L)\n" +
+                "list(SORT L)\n" +
+                "list(LENGTH L N)\n" +
+                "list(GET L -1 0 G)\n" +
+                "list(FIND L b F)\n" +
+                "list(INSERT L 1 x)\n" +
+                "list(REMOVE_AT L 0)\n" +
+                "list(JOIN L \", \" J)\n" +
+                "string(REPLACE \"x\" \"y\" S ${J})\n" +
+                "string(APPEND S !)\n" +
+                "string(SUBSTRING \"abcdef\" 2 3 SUB)\n" +
+                "set(Q \"a;b\")\n" +
+                "unset(N)\n" +
+                "option(OPT \"option\" ON)\n" +
+                "option(OPT \"option\" OFF)\n" +
+                "set(C cached CACHE STRING \"doc\")\n" +
+                "set(C other CACHE STRING \"doc\")\n" +
+                "foreach(i a b)\n set(LOOP ${i})\nendforeach()\n" +
+                "function(f)\n set(FUNC yes)\nendfunction()\n";
+
+        CMakeVariableEvaluator evaluator = evaluate(text);
+
+        assertEquals("[x, b, c]", String.valueOf(evaluator.get("L")));
+        assertFalse(evaluator.isDefined("N"));
+        assertEquals("c;a", evaluator.getValue("G"));
+        assertEquals("1", evaluator.getValue("F"));
+        assertEquals("x, b, c", evaluator.getValue("J"));
+        assertEquals("y, b, c!", evaluator.getValue("S"));
+        assertEquals("cde", evaluator.getValue("SUB"));
+        assertEquals("[a, b]", String.valueOf(evaluator.get("Q")));
+        assertEquals("ON", evaluator.getValue("OPT"));
+        assertEquals("cached", evaluator.getValue("C"));
+        assertFalse(evaluator.isDefined("LOOP"));
+        assertFalse(evaluator.isDefined("FUNC"));
+    }
+
+    @Test
+    public void test_initialValues() {
+        CMakeVariableEvaluator evaluator = new CMakeVariableEvaluator();
+        evaluator.setInitialValue("CMAKE_SOURCE_DIR", Arrays.asList("/project"));
+        evaluator.evaluate(parse("set(TOOLCHAIN ${CMAKE_SOURCE_DIR}/cmake/ArduinoToolchain.cmake)\nset(X ${$ENV{HOME}})\n"));
+
+        assertEquals("/project/cmake/ArduinoToolchain.cmake", evaluator.getValue("TOOLCHAIN"));
+        assertNull(evaluator.getValue("X"));
+    }
+
+    @Test
+    public void test_dependencies() {
+        CMakeVariableEvaluator evaluator = evaluate(SOURCE);
+
+        assertEquals("[PROJECT_NAME, test_SRCS]", evaluator.getDependencies("ALL_SRCS").toString());
+        assertEquals("[PROJECT_NAME, test_BOARD]", evaluator.getDependencies("ARDUINO_CPU").toString());
+        assertTrue(evaluator.getDependents("test_BOARD").containsAll(Arrays.asList("ARDUINO_CPU", "CPU_NAME")));
+        assertFalse(evaluator.getDependents("test_SRCS").contains("ARDUINO_CPU"));
+        assertTrue(evaluator.getDependents("UNRELATED").isEmpty());
+    }
+
+    @Test
+    public void test_incremental() {
+        CMakeVariableEvaluator evaluator = evaluate(SOURCE);
+
+        // same document, nothing is evaluated again
+        evaluator.evaluate(parse(SOURCE));
+        assertEquals(0, evaluator.getEvaluatedCount());
+        assertEquals(10, evaluator.getReusedCount());
+
+        // changed sources only affect ALL_SRCS
+        evaluator.evaluate(parse(SOURCE.replace("main.cpp", "app.cpp")));
+        assertEquals(3, evaluator.getEvaluatedCount());
+        assertEquals("app.cpp;util.cpp;other.cpp;extra.cpp", evaluator.getValue("ALL_SRCS"));
+        assertEquals("atmega328", evaluator.getValue("ARDUINO_CPU"));
+
+        // changed board takes a different branch
+        evaluator.evaluate(parse(SOURCE.replace("_BOARD uno", "_BOARD nano")));
+        assertEquals("unknown", evaluator.getValue("ARDUINO_CPU"));
+        assertEquals("UNKNOWN", evaluator.getValue("CPU_NAME"));
+        assertEquals("main.cpp;util.cpp;other.cpp;extra.cpp", evaluator.getValue("ALL_SRCS"));
+        assertEquals("value", evaluator.getValue("UNRELATED"));
+    }
+}
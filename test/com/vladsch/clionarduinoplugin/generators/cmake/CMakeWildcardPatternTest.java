@@ -0,0 +1,90 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeCommandSubType;
+import com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeCommandType;
+import com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeWildcardPattern;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeWildcardPatternTest {
+    private static final String[] PATTERNS = {
+            "<@@>_RECURSE",
+            "<@@>.upload.speed",
+            "<@@>",
+            "a<@@>b<@@>c",
+            "<@@>_<@@>",
+            "x<@@><@@>y",
+    };
+
+    private static final String[] TEXTS = {
+            "",
+            "_RECURSE",
+            "lib_RECURSE",
+            "lib_RECURSE_RECURSE",
+            "pro.upload.speed",
+            "upload.speed",
+            "abc",
+            "abbcc",
+            "a_b_c",
+            "abcbc",
+            "xy",
+            "xaby",
+            "ac",
+    };
+
+    // regex previously compiled for every match
+    private static String[] regexMatch(String pattern, String text) {
+        Pattern regEx = Pattern.compile("^\\Q" + pattern.replace(CMakeCommandType.WILDCARD_ARG_MARKER, "\\E(.*?)\\Q") + "\\E$");
+        Matcher matcher = regEx.matcher(text);
+        if (!matcher.find()) return null;
+
+        String[] values = new String[matcher.groupCount()];
+        for (int g = 1; g <= matcher.groupCount(); g++) {
+            values[g - 1] = matcher.group(g);
+        }
+        return values;
+    }
+
+    @Test
+    public void test_sameAsRegex() {
+        for (String pattern : PATTERNS) {
+            CMakeWildcardPattern wildcardPattern = CMakeWildcardPattern.of(pattern);
+            assertNotNull(wildcardPattern);
+            assertEquals(pattern, wildcardPattern.toString());
+
+            for (String text : TEXTS) {
+                String[] expected = regexMatch(pattern, text);
+                assertEquals(pattern + " " + text, expected == null ? null : Arrays.asList(expected), wildcardPattern.match(text));
+                assertEquals(expected != null, wildcardPattern.matches(text));
+            }
+        }
+    }
+
+    @Test
+    public void test_noWildcard() {
+        assertNull(CMakeWildcardPattern.of("_RECURSE"));
+    }
+
+    @Test
+    public void test_fixedArgPatterns() {
+        CMakeCommandType set = new CMakeCommandType("SET", "set", new String[0], 1, CMakeCommandType.INF_MAX_ARGS);
+        CMakeCommandType recurse = new CMakeCommandSubType("SET_LIB_NAMES_RECURSE", set, new String[] { "<@@>_RECURSE" }, 2, 2);
+
+        assertNull(set.getFixedArgPattern(0));
+        CMakeWildcardPattern pattern = recurse.getFixedArgPattern(0);
+        assertNotNull(pattern);
+        assertEquals(1, pattern.getWildcardCount());
+        assertEquals(Arrays.asList("lib"), pattern.match("lib_RECURSE"));
+        assertTrue(pattern.matches("_RECURSE"));
+        assertFalse(pattern.matches("lib_RECURSED"));
+    }
+}
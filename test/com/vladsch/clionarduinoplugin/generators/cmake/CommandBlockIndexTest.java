@@ -0,0 +1,148 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Command;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CommandBlockIndex;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CommandBlockIndexTest {
+    private static final DataHolder OPTIONS = new DataSet(new MutableDataSet()
+            .set(CMakeParser.AST_COMMENTS, true)
+            .set(CMakeParser.AST_BLANK_LINES, true)
+            .set(CMakeParser.AST_LINE_END_EOL, true)
+            .set(CMakeParser.AST_COMMENTED_OUT_COMMANDS, true));
+
+    private static final String SOURCE = "" +
+            "project(test)\n" +                 // 0
+            "if (A)\n" +                        // 1
+            "    set(x 1)\n" +                  // 2
+            "    FOREACH (f ${FILES})\n" +      // 3
+            "        message(${f})\n" +         // 4
+            "    EndForEach()\n" +              // 5
+            "elseif (B)\n" +                    // 6
+            "    # set(y 2)\n" +
+            "    function(foo)\n" +             // 7
+            "        while (C)\n" +             // 8
+            "        endwhile()\n" +            // 9
+            "    endfunction()\n" +             // 10
+            "else ()\n" +                       // 11
+            "    set(z 3)\n" +                  // 12
+            "endif ()\n" +                      // 13
+            "add_executable(test)\n";           // 14
+
+    private static CMakeFile parse(String text) {
+        return new CMakeParser(BasedSequenceImpl.of(text), OPTIONS).getDocument();
+    }
+
+    /**
+     * @return depth, opener, closer and parent of each command
+     */
+    private static String getStructure(CommandBlockIndex index) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < index.size(); i++) {
+            sb.append(index.getCommand(i).getCommand())
+                    .append(' ').append(index.getDepth(i))
+                    .append(' ').append(index.getOpenerIndex(i))
+                    .append(' ').append(index.getCloserIndex(i))
+                    .append(' ').append(index.getParentIndex(i))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void test_nestedBlocks() {
+        CommandBlockIndex index = parse(SOURCE).getCommandBlocks();
+
+        assertEquals("" +
+                "project 0 -1 -1 -1\n" +
+                "if 0 1 13 -1\n" +
+                "set 1 -1 -1 1\n" +
+                "FOREACH 1 3 5 1\n" +
+                "message 2 -1 -1 3\n" +
+                "EndForEach 1 3 5 1\n" +
+                "elseif 0 1 13 -1\n" +
+                "function 1 7 10 1\n" +
+                "while 2 8 9 7\n" +
+                "endwhile 2 8 9 7\n" +
+                "endfunction 1 7 10 1\n" +
+                "else 0 1 13 -1\n" +
+                "set 1 -1 -1 1\n" +
+                "endif 0 1 13 -1\n" +
+                "add_executable 0 -1 -1 -1\n" +
+                "", getStructure(index));
+
+        assertEquals(3, index.getMaxDepth());
+    }
+
+    @Test
+    public void test_nodeLookup() {
+        CMakeFile document = parse(SOURCE);
+        CommandBlockIndex index = document.getCommandBlocks();
+
+        Command ifCommand = index.getCommand(1);
+        Command endif = index.getCommand(13);
+        Command message = index.getCommand(4);
+
+        assertSame(endif, index.getBlockCloser(ifCommand));
+        assertSame(ifCommand, index.getBlockOpener(endif));
+        assertSame(endif, index.getBlockCloser(index.getCommand(6)));
+        assertSame(index.getCommand(3), index.getEnclosingBlock(message));
+        assertSame(ifCommand, index.getEnclosingBlock(index.getCommand(3)));
+        assertNull(index.getEnclosingBlock(ifCommand));
+        assertNull(index.getBlockOpener(message));
+        assertEquals(2, index.getDepth(message));
+
+        // commented out command is not indexed
+        assertEquals(15, index.size());
+        assertEquals(-1, index.getDepth(document));
+    }
+
+    @Test
+    public void test_unbalanced() {
+        CommandBlockIndex index = parse("" +
+                "endif()\n" +
+                "else()\n" +
+                "if(A)\n" +
+                "foreach(f a b)\n" +
+                "endif()\n" +
+                "while(B)\n" +
+                "").getCommandBlocks();
+
+        assertEquals("" +
+                "endif 0 -1 -1 -1\n" +
+                "else 0 -1 -1 -1\n" +
+                "if 0 2 4 -1\n" +
+                "foreach 1 3 -1 2\n" +
+                "endif 0 2 4 -1\n" +
+                "while 0 5 -1 -1\n" +
+                "", getStructure(index));
+    }
+
+    @Test
+    public void test_reparse() {
+        CMakeFile document = parse(SOURCE);
+        int offset = SOURCE.indexOf("    set(z 3)");
+        CMakeFile reparsed = CMakeParser.reparse(document, offset, offset, "    if (D)\n");
+
+        CommandBlockIndex index = reparsed.getCommandBlocks();
+        assertEquals(getStructure(parse(reparsed.getChars().toString()).getCommandBlocks()), getStructure(index));
+
+        // endif now closes the inserted if, outer if is unterminated
+        Command endif = index.getCommand(14);
+        assertEquals("endif", endif.getCommand().toString());
+        assertEquals("if", index.getBlockOpener(endif).getCommand().toString());
+        assertEquals(12, index.getOpenerIndex(14));
+        assertNull(index.getBlockCloser(index.getCommand(1)));
+        assertNotNull(document.getCommandBlocks().getBlockCloser(document.getCommandBlocks().getCommand(1)));
+    }
+}
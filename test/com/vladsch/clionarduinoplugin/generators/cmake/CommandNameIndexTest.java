@@ -0,0 +1,110 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Command;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CommandNameIndex;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CommandNameIndexTest {
+    private static final DataHolder OPTIONS = new DataSet(new MutableDataSet()
+            .set(CMakeParser.AST_COMMENTS, true)
+            .set(CMakeParser.AST_BLANK_LINES, true)
+            .set(CMakeParser.AST_COMMENTED_OUT_COMMANDS, true));
+
+    private static final String SOURCE = "" +
+            "cmake_minimum_required(VERSION 2.8.4)\n" +
+            "set(PROJECT_NAME test)\n" +
+            "# set(ARDUINO_CPU)\n" +
+            "project(${PROJECT_NAME})\n" +
+            "SET(${PROJECT_NAME}_BOARD uno)\n" +
+            "link_directories(${CMAKE_CURRENT_SOURCE_DIR}/libs)\n" +
+            "Set(${PROJECT_NAME}_SRCS test.cpp)\n" +
+            "generate_arduino_firmware(${PROJECT_NAME})\n";
+
+    private static CMakeFile parse(String text) {
+        return new CMakeParser(BasedSequenceImpl.of(text), OPTIONS).getDocument();
+    }
+
+    private static String getText(List<Command> commands) {
+        StringBuilder sb = new StringBuilder();
+        for (Command command : commands) {
+            sb.append(command.getChars().trimEOL()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void test_caseInsensitive() {
+        CommandNameIndex index = parse(SOURCE).getCommandNames();
+
+        assertEquals(7, index.size());
+        assertEquals(3, index.getCount("set"));
+        assertEquals("" +
+                "set(PROJECT_NAME test)\n" +
+                "SET(${PROJECT_NAME}_BOARD uno)\n" +
+                "Set(${PROJECT_NAME}_SRCS test.cpp)\n" +
+                "", getText(index.getCommands("SET")));
+
+        assertTrue(index.hasCommand("Link_Directories"));
+        assertFalse(index.hasCommand("add_executable"));
+        assertEquals(0, index.getCommands("add_executable").size());
+    }
+
+    @Test
+    public void test_multipleNames() {
+        CMakeFile document = parse(SOURCE);
+
+        assertEquals("" +
+                "set(PROJECT_NAME test)\n" +
+                "project(${PROJECT_NAME})\n" +
+                "SET(${PROJECT_NAME}_BOARD uno)\n" +
+                "Set(${PROJECT_NAME}_SRCS test.cpp)\n" +
+                "", getText(document.getCommands("set", "project", "SET", "unknown")));
+
+        assertEquals(0, document.getCommands("unknown", "other").size());
+    }
+
+    @Test
+    public void test_reparse() {
+        CMakeFile document = parse(SOURCE);
+        int offset = SOURCE.indexOf("link_directories");
+        CMakeFile reparsed = CMakeParser.reparse(document, offset, offset, "set(ARDUINO_CPU atmega328)\n");
+
+        assertEquals(getText(parse(reparsed.getChars().toString()).getCommands("set")), getText(reparsed.getCommands("set")));
+        assertEquals(4, reparsed.getCommandNames().getCount("set"));
+        assertEquals(3, document.getCommandNames().getCount("set"));
+    }
+
+    @Test
+    public void test_firstUseShared() throws Exception {
+        CMakeFile document = parse(SOURCE);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ArrayList<Future<CommandNameIndex>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(document::getCommandNames));
+            }
+
+            for (Future<CommandNameIndex> future : futures) {
+                assertSame(document.getCommandNames(), future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
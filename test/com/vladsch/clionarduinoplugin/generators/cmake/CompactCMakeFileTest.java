@@ -0,0 +1,218 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Argument;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.Command;
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CompactCMakeFile;
+import com.vladsch.clionarduinoplugin.generators.cmake.commands.CMakeCommandType;
+import com.vladsch.flexmark.test.AstCollectingVisitor;
+import com.vladsch.flexmark.util.Pair;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataSet;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompactCMakeFileTest {
+    private static final String ALPHABET = "ab_09 \t\r\n\n\"\\()#;$[]=";
+
+    private static final String[] SNIPPETS = {
+            "cmake_minimum_required(VERSION 3.0)\n",
+            "cmake_minimum_required(VERSION 2.8)\n",
+            "  #  set(a b) # comment\n",
+            "set(a \"b\\\nc\" [==[d]==] (e f) g)\n",
+            "#[[ comment ]] set(a b)\n",
+            "#[=[ comment\n]=]\n",
+            "foo(a (b c\n",
+            "#foo(a\n",
+            "foo(a)  \t\n",
+            "\n  \n",
+            "# comment\n",
+    };
+
+    private static final DataHolder[] OPTIONS = {
+            new DataSet(),
+            new DataSet(new MutableDataSet()
+                    .set(CMakeParser.AST_COMMENTS, true)
+                    .set(CMakeParser.AST_BLANK_LINES, true)
+                    .set(CMakeParser.AST_LINE_END_EOL, true)
+                    .set(CMakeParser.AST_ARGUMENT_SEPARATORS, true)
+                    .set(CMakeParser.AST_COMMENTED_OUT_COMMANDS, true)),
+            new DataSet(new MutableDataSet()
+                    .set(CMakeParser.AST_LINE_END_EOL, true)
+                    .set(CMakeParser.AST_COMMENTED_OUT_COMMANDS, true)),
+            new DataSet(new MutableDataSet()
+                    .set(CMakeParser.AUTO_CONFIG, false)
+                    .set(CMakeParser.BRACKET_COMMENTS, true)
+                    .set(CMakeParser.AST_COMMENTS, true)
+                    .set(CMakeParser.MAX_ERROR_LINE_RECOVERIES, 1)),
+    };
+
+    private static String getErrorText(@NotNull CMakeFile document) {
+        StringBuilder sb = new StringBuilder();
+        for (Pair<String, BasedSequence> error : document.getErrors()) {
+            sb.append(error.getFirst()).append(": ").append(error.getSecond().getStartOffset()).append("-").append(error.getSecond().getEndOffset()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static String getErrorText(@NotNull CompactCMakeFile file) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < file.getErrorCount(); i++) {
+            sb.append(file.getErrorMessage(i)).append(": ").append(file.getErrorStart(i)).append("-").append(file.getErrorEnd(i)).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static void assertSameAsParser(@NotNull String input) {
+        for (DataHolder options : OPTIONS) {
+            BasedSequence chars = BasedSequenceImpl.of(input);
+            CMakeFile document = new CMakeParser(chars, options).getDocument();
+
+            // compact file only keeps arguments of commands
+            for (Node node : document.getChildren()) {
+                if (node instanceof Command) {
+                    ArrayList<Node> removed = new ArrayList<>();
+                    for (Node child : node.getChildren()) {
+                        if (!(child instanceof Argument)) removed.add(child);
+                    }
+                    removed.forEach(Node::unlink);
+                }
+            }
+
+            CompactCMakeFile file = new CompactCMakeFile(chars, options);
+            CMakeFile compactDocument = file.toCMakeFile();
+
+            String message = "Reading:\n" + input;
+            assertEquals(message, new AstCollectingVisitor().collectAndGetAstText(document), new AstCollectingVisitor().collectAndGetAstText(compactDocument));
+            assertEquals(message, getErrorText(document), getErrorText(file));
+            assertEquals(message, getErrorText(document), getErrorText(compactDocument));
+        }
+    }
+
+    @Test
+    public void test_projects() throws IOException {
+        File projects = new File(getClass().getResource("/projects/dummy.txt").getFile()).getParentFile();
+        File[] dirs = projects.listFiles();
+        assertTrue(dirs != null);
+
+        for (File dir : dirs) {
+            File file = new File(dir, "CMakeLists.txt");
+            if (file.isFile()) {
+                assertSameAsParser(new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+            }
+        }
+    }
+
+    @Test
+    public void test_random() {
+        Random random = new Random(2019);
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < 2000; i++) {
+            sb.setLength(0);
+            int length = random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                if (random.nextBoolean()) {
+                    sb.append(SNIPPETS[random.nextInt(SNIPPETS.length)]);
+                } else {
+                    sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                }
+            }
+            assertSameAsParser(sb.toString());
+        }
+    }
+
+    @Test
+    public void test_filtered() {
+        String input = "cmake_minimum_required(VERSION 2.8)\n" +
+                "# comment\n" +
+                "SET(a b)\n" +
+                "#set(c d)\n" +
+                "add_subdirectory(lib)\n" +
+                "foo(a (b c\n" +
+                "generate_arduino_firmware(${PROJECT_NAME})\n";
+        BasedSequence chars = BasedSequenceImpl.of(input);
+
+        for (DataHolder options : OPTIONS) {
+            CompactCMakeFile file = new CompactCMakeFile(chars, options);
+            CompactCMakeFile filtered = new CompactCMakeFile(chars, options, name -> name.equals("set") || name.startsWith("generate_"));
+
+            StringBuilder expected = new StringBuilder();
+            for (Node node : file.getChildren()) {
+                if (node instanceof Command && !((Command) node).getCommand().toString().equals("cmake_minimum_required")
+                        && !((Command) node).getCommand().toString().equals("add_subdirectory")) {
+                    expected.append(new AstCollectingVisitor().collectAndGetAstText(node));
+                }
+            }
+
+            StringBuilder actual = new StringBuilder();
+            for (Node node : filtered.getChildren()) {
+                actual.append(new AstCollectingVisitor().collectAndGetAstText(node));
+            }
+
+            assertEquals(expected.toString(), actual.toString());
+            assertEquals(getErrorText(file), getErrorText(filtered));
+
+            assertTrue(filtered.hasCommand("SET"));
+            assertTrue(filtered.hasCommand("generate_arduino_firmware"));
+            assertFalse(filtered.hasCommand("set"));
+            assertFalse(filtered.hasCommand("add_subdirectory"));
+            assertFalse(filtered.hasCommand("generate_arduino_library"));
+        }
+    }
+
+    @Test
+    public void test_evaluatedCommands() throws IOException {
+        File projects = new File(getClass().getResource("/projects/dummy.txt").getFile()).getParentFile();
+        File[] dirs = projects.listFiles();
+        assertTrue(dirs != null);
+
+        for (File dir : dirs) {
+            File file = new File(dir, "CMakeLists.txt");
+            if (file.isFile()) {
+                String text = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+                CMakeVariableEvaluator expected = new CMakeVariableEvaluator();
+                expected.evaluate(CMakeListsTxtBuilder.compactFile(text).toCMakeFile());
+                CMakeVariableEvaluator actual = new CMakeVariableEvaluator();
+                actual.evaluate(CMakeListsTxtBuilder.compactFile(text, null, CMakeVariableEvaluator::isEvaluatedCommand).toCMakeFile());
+
+                assertEquals(file.getPath(), expected.getValues(), actual.getValues());
+            }
+        }
+    }
+
+    @Test
+    public void test_builder() throws IOException {
+        File projects = new File(getClass().getResource("/projects/dummy.txt").getFile()).getParentFile();
+        File[] dirs = projects.listFiles();
+        assertTrue(dirs != null);
+
+        for (File dir : dirs) {
+            File file = new File(dir, "CMakeLists.txt");
+            if (file.isFile()) {
+                String text = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+                CMakeListsTxtBuilder expected = new CMakeListsTxtBuilder(CMakeListsTxtBuilder.PROJECT_NAME, new CMakeCommandType[0], new CMakeCommandAnchor[0], text, null) {};
+                CMakeListsTxtBuilder actual = new CMakeListsTxtBuilder(CMakeListsTxtBuilder.PROJECT_NAME, new CMakeCommandType[0], new CMakeCommandAnchor[0], CMakeListsTxtBuilder.compactFile(text)) {};
+
+                assertEquals(expected.getCMakeProjectName(), actual.getCMakeProjectName());
+                assertEquals(expected.getEvaluatedVariables().getValues(), actual.getEvaluatedVariables().getValues());
+                assertEquals(expected.getCMakeContents(null, false, true), actual.getCMakeContents(null, false, true));
+                assertEquals(expected.getCMakeContents(null, true, false), actual.getCMakeContents(null, true, false));
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.vladsch.clionarduinoplugin.generators.cmake;
+
+import com.vladsch.clionarduinoplugin.generators.cmake.ast.CMakeFile;
+import com.vladsch.flexmark.test.AstCollectingVisitor;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedCharSequenceTest {
+    private static final String SOURCE = "" +
+            "cmake_minimum_required(VERSION 2.8.4)\n" +
+            "set(PROJECT_NAME test)\n" +
+            "# comment with \u00e9 and \u4e2d\u6587\n" +
+            "set(${PROJECT_NAME}_SRCS \"caf\u00e9.cpp\" \uD83D\uDE00.cpp)\n" +
+            "project(${PROJECT_NAME})\n";
+
+    private static MappedCharSequence of(byte[] bytes) {
+        return MappedCharSequence.of(ByteBuffer.wrap(bytes));
+    }
+
+    private static void assertSameChars(String expected, CharSequence actual) {
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals("index " + i, expected.charAt(i), actual.charAt(i));
+        }
+        // backwards to check random access
+        for (int i = expected.length(); i-- > 0; ) {
+            assertEquals("index " + i, expected.charAt(i), actual.charAt(i));
+        }
+        assertEquals(expected, actual.toString());
+    }
+
+    @Test
+    public void test_ascii() {
+        String text = "set(a b)\nproject(test)\n";
+        MappedCharSequence sequence = of(text.getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(sequence.isMapped());
+        assertSameChars(text, sequence);
+        assertSameChars(text.substring(4, 12), sequence.subSequence(4, 12));
+    }
+
+    @Test
+    public void test_mostlyAscii() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) sb.append(SOURCE);
+        String text = sb.toString();
+        MappedCharSequence sequence = of(text.getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(sequence.isMapped());
+        assertSameChars(text, sequence);
+
+        int start = text.indexOf('\u4e2d');
+        int end = text.indexOf(".cpp)", start);
+        assertSameChars(text.substring(start, end), sequence.subSequence(start, end));
+    }
+
+    @Test
+    public void test_mostlyNonAscii() {
+        String text = "set(\u4e2d\u6587 \u00e9\u00e8\u00ea \uD83D\uDE00)\n";
+        MappedCharSequence sequence = of(text.getBytes(StandardCharsets.UTF_8));
+
+        assertFalse(sequence.isMapped());
+        assertSameChars(text, sequence);
+    }
+
+    @Test
+    public void test_malformed() {
+        byte[] bytes = { 'a', (byte) 0xC3, 'b', (byte) 0xE4, (byte) 0xB8, 'c', (byte) 0xFF, 'd', (byte) 0xE4 };
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10; i++) sb.append("0123456789");
+
+        byte[] padded = new byte[bytes.length + 100];
+        System.arraycopy(sb.toString().getBytes(StandardCharsets.US_ASCII), 0, padded, 0, 100);
+        System.arraycopy(bytes, 0, padded, 100, bytes.length);
+
+        assertSameChars(sb + "a\ufffdb\ufffd\ufffdc\ufffdd\ufffd", of(padded));
+    }
+
+    @Test
+    public void test_parseMappedFile() throws IOException {
+        File file = File.createTempFile("mapped", ".cmake");
+        try {
+            Files.write(file.toPath(), SOURCE.getBytes(StandardCharsets.UTF_8));
+
+            MappedCharSequence sequence = MappedCharSequence.of(file);
+            CMakeFile mapped = new CMakeParser(BasedSequenceImpl.of(sequence), null).getDocument();
+            CMakeFile parsed = new CMakeParser(BasedSequenceImpl.of(SOURCE), null).getDocument();
+
+            assertEquals(new AstCollectingVisitor().collectAndGetAstText(parsed), new AstCollectingVisitor().collectAndGetAstText(mapped));
+            assertEquals(SOURCE, MappedCharSequence.read(file).toString());
+        } finally {
+            file.delete();
+        }
+    }
+}